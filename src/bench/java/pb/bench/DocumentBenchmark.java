@@ -0,0 +1,57 @@
+package pb.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pb.protocols.Document;
+
+/**
+ * Parsing JSON with {@link Document#parse(String)}, for a small message and
+ * for events carrying board paths of increasing length.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Thread)
+public class DocumentBenchmark {
+
+	/**
+	 * Points in the board path of the event, or 0 for a keep alive request.
+	 */
+	@Param({"0","40","1000"})
+	public int points;
+
+	private String json;
+
+	@Setup
+	public void setup() {
+		if(points==0) {
+			json=Payloads.message("KeepAliveRequest").toJsonString();
+		} else {
+			Document doc=new Document();
+			doc.append("name","EventRequest");
+			doc.append("eventName","BOARD_PATH_UPDATE");
+			doc.append("eventData",Payloads.boardPath(points));
+			doc.append("timeoutId",42);
+			json=doc.toJson();
+		}
+	}
+
+	@Benchmark
+	public Document parse() {
+		return Document.parse(json);
+	}
+}
@@ -0,0 +1,104 @@
+package pb.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pb.managers.endpoint.Endpoint;
+import pb.managers.endpoint.IEndpointHandler;
+import pb.protocols.Message;
+import pb.protocols.Protocol;
+
+/**
+ * Sending messages with {@link Endpoint#send(Message)} over a loopback
+ * socket, to a thread that reads and discards them, so that the cost of
+ * encoding, writing and flushing each message is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Thread)
+public class EndpointSendBenchmark {
+
+	@Param({"KeepAliveRequest","EventRequest"})
+	public String type;
+
+	private ServerSocket serverSocket;
+	private Socket socket;
+	private Endpoint endpoint;
+	private Message message;
+
+	/**
+	 * Just waits for the endpoint to be ready.
+	 */
+	private static class Handler implements IEndpointHandler {
+		final CountDownLatch ready=new CountDownLatch(1);
+		@Override
+		public void endpointReady(Endpoint endpoint) {
+			ready.countDown();
+		}
+		@Override
+		public void endpointClosed(Endpoint endpoint) {}
+		@Override
+		public void endpointDisconnectedAbruptly(Endpoint endpoint) {}
+		@Override
+		public void endpointSentInvalidMessage(Endpoint endpoint) {}
+		@Override
+		public boolean protocolRequested(Endpoint endpoint, Protocol protocol) {
+			return false;
+		}
+	}
+
+	@Setup
+	public void setup() throws IOException, InterruptedException {
+		message=Payloads.message(type);
+		serverSocket=new ServerSocket(0,1,InetAddress.getLoopbackAddress());
+		socket=new Socket(InetAddress.getLoopbackAddress(),serverSocket.getLocalPort());
+		Socket accepted=serverSocket.accept();
+		Thread drain=new Thread(()->{
+			byte[] buffer=new byte[65536];
+			try(InputStream in=accepted.getInputStream()) {
+				while(in.read(buffer)!=-1);
+			} catch (IOException e) {
+				// closed
+			}
+		});
+		drain.setDaemon(true);
+		drain.start();
+		Handler handler=new Handler();
+		endpoint=new Endpoint(socket,handler);
+		endpoint.start();
+		if(!handler.ready.await(10,TimeUnit.SECONDS))
+			throw new IllegalStateException("endpoint did not start");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		endpoint.close();
+		serverSocket.close();
+	}
+
+	@Benchmark
+	public boolean send() {
+		return endpoint.send(message);
+	}
+}
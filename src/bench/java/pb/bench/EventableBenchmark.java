@@ -0,0 +1,62 @@
+package pb.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pb.utils.Eventable;
+
+/**
+ * Dispatching an event with {@link Eventable#emit(String, Object...)} to a
+ * number of callbacks for the event, with and without a callback for all
+ * events ("*"), as the event protocol registers on every endpoint.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventableBenchmark {
+
+	@Param({"1","10","100"})
+	public int listeners;
+
+	@Param({"false","true"})
+	public boolean wildcard;
+
+	private Eventable eventable;
+
+	private long received;
+
+	@Setup
+	public void setup() {
+		eventable=new Eventable();
+		for(int i=0;i<listeners;i++) {
+			eventable.on("BOARD_PATH_UPDATE",(args)->{
+				received+=((String)args[0]).length();
+			});
+		}
+		if(wildcard) {
+			eventable.on("*",(args)->{
+				received+=((String)args[1]).length();
+			});
+		}
+	}
+
+	@Benchmark
+	public long emit() {
+		eventable.emit("BOARD_PATH_UPDATE","localhost:3100:board1%12%black>100,200>101,202");
+		return received;
+	}
+}
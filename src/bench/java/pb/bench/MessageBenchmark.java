@@ -0,0 +1,66 @@
+package pb.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pb.protocols.InvalidMessage;
+import pb.protocols.Message;
+import pb.protocols.MessageView;
+
+/**
+ * Encoding and decoding of every message type: {@link Message#toJsonString()}
+ * as done when sending, {@link Message#toMessage(String)} from a JSON string,
+ * and {@link Message#toMessage(MessageView)} from a frame as done by
+ * {@link pb.managers.endpoint.Endpoint#run()} when receiving.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBenchmark {
+
+	@Param({"SessionStartRequest","SessionStartReply","SessionStopRequest","SessionStopReply",
+		"KeepAliveRequest","KeepAliveReply","EventRequest","EventReply"})
+	public String type;
+
+	private Message message;
+	private String json;
+	private byte[] frame;
+	private MessageView view;
+
+	@Setup
+	public void setup() {
+		message=Payloads.message(type);
+		json=message.toJsonString();
+		frame=Payloads.frame(json);
+		view=new MessageView();
+	}
+
+	@Benchmark
+	public String toJsonString() {
+		return message.toJsonString();
+	}
+
+	@Benchmark
+	public Message toMessageFromString() throws InvalidMessage {
+		return Message.toMessage(json);
+	}
+
+	@Benchmark
+	public Message toMessageFromFrame() throws InvalidMessage {
+		return Message.toMessage(view.reset(frame,frame.length));
+	}
+}
@@ -0,0 +1,91 @@
+package pb.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import pb.app.WhiteboardPath;
+import pb.app.WhiteboardPoint;
+
+/**
+ * Measures the heap retained per million points by the paths of a
+ * {@link SyntheticBoards} board, comparing the packed coordinates of
+ * {@link WhiteboardPath} with the previous representation of a path as a
+ * list of {@link WhiteboardPoint} objects. Packed paths are measured both
+ * as drawn, a point at a time, and as parsed from a board update, which
+ * allocates exactly the points needed.
+ * <br/>
+ * Run with: {@code mvn -P bench package} and then
+ * {@code java -cp target/pb3-0.0.1-SNAPSHOT-jar-with-dependencies.jar pb.bench.PathMemoryBenchmark}
+ */
+public class PathMemoryBenchmark {
+
+	private static final int points = 1000000;
+
+	private static long usedHeap() {
+		Runtime runtime=Runtime.getRuntime();
+		for(int i=0;i<5;i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory()-runtime.freeMemory();
+	}
+
+	private interface Builder {
+		Object build(List<WhiteboardPath> paths);
+	}
+
+	/**
+	 * @return bytes retained per million points by what the builder builds
+	 */
+	private static double measure(String name,Builder builder,List<WhiteboardPath> paths) {
+		long before=usedHeap();
+		Object retained=builder.build(paths);
+		long after=usedHeap();
+		double perMillion=(double)(after-before)*1000000/points;
+		System.out.printf("%-32s %,12.0f bytes per million points (%d paths)%n",
+				name,perMillion,((List<?>)retained).size());
+		return perMillion;
+	}
+
+	private static Object drawn(List<WhiteboardPath> paths) {
+		List<WhiteboardPath> copies=new ArrayList<>(paths.size());
+		for(WhiteboardPath path : paths) {
+			WhiteboardPath copy=WhiteboardPath.ofColor(path.getColorName());
+			for(int i=0;i<path.length();i++) copy.addPoint(path.getX(i),path.getY(i));
+			copies.add(copy);
+		}
+		return copies;
+	}
+
+	private static Object parsed(List<WhiteboardPath> paths) {
+		List<String> strings=new ArrayList<>(paths.size());
+		for(WhiteboardPath path : paths) strings.add(path.toString());
+		List<WhiteboardPath> copies=new ArrayList<>(paths.size());
+		for(String string : strings) copies.add(new WhiteboardPath(string));
+		return copies;
+	}
+
+	private static Object pointLists(List<WhiteboardPath> paths) {
+		List<ArrayList<WhiteboardPoint>> lists=new ArrayList<>(paths.size());
+		for(WhiteboardPath path : paths) {
+			ArrayList<WhiteboardPoint> list=new ArrayList<>();
+			for(int i=0;i<path.length();i++) list.add(path.getPoint(i));
+			lists.add(list);
+		}
+		return lists;
+	}
+
+	public static void main(String[] args) {
+		List<WhiteboardPath> paths=SyntheticBoards.paths(points,1);
+		double raw=8.0*1000000;
+		System.out.printf("%-32s %,12.0f bytes per million points%n","raw coordinates",raw);
+		double lists=measure("list of WhiteboardPoint",PathMemoryBenchmark::pointLists,paths);
+		double drawn=measure("packed, drawn",PathMemoryBenchmark::drawn,paths);
+		double parsed=measure("packed, parsed",PathMemoryBenchmark::parsed,paths);
+		System.out.printf("memory reduced %.1fx drawn, %.1fx parsed%n",lists/drawn,lists/parsed);
+	}
+}
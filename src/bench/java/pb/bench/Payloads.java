@@ -0,0 +1,67 @@
+package pb.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import pb.protocols.Message;
+import pb.protocols.event.EventReply;
+import pb.protocols.event.EventRequest;
+import pb.protocols.keepalive.KeepAliveReply;
+import pb.protocols.keepalive.KeepAliveRequest;
+import pb.protocols.session.SessionStartReply;
+import pb.protocols.session.SessionStartRequest;
+import pb.protocols.session.SessionStopReply;
+import pb.protocols.session.SessionStopRequest;
+
+/**
+ * Typical messages for the benchmarks, so that they all measure the same thing.
+ */
+class Payloads {
+
+	/**
+	 * A board path update as sent by a whiteboard peer, with a path of the given
+	 * number of points.
+	 */
+	static String boardPath(int points) {
+		StringBuilder path=new StringBuilder("localhost:3100:board1%12%black");
+		for(int i=0;i<points;i++) path.append(">"+(100+i)+","+(200+2*i));
+		return path.toString();
+	}
+
+	/**
+	 * A message of the given type, with a timeout id as it would have on the
+	 * wire. Events carry a 40 point board path.
+	 */
+	static Message message(String type) {
+		Message msg;
+		switch(type) {
+		case "SessionStartRequest": msg=new SessionStartRequest(); break;
+		case "SessionStartReply": msg=new SessionStartReply(); break;
+		case "SessionStopRequest": msg=new SessionStopRequest(); break;
+		case "SessionStopReply": msg=new SessionStopReply(); break;
+		case "KeepAliveRequest": msg=new KeepAliveRequest(); break;
+		case "KeepAliveReply": msg=new KeepAliveReply(); break;
+		case "EventRequest": msg=new EventRequest("BOARD_PATH_UPDATE",boardPath(40)); break;
+		case "EventReply": msg=new EventReply(); break;
+		default: throw new IllegalArgumentException("unknown message type: "+type);
+		}
+		msg.setTimeoutId(42);
+		return msg;
+	}
+
+	/**
+	 * The bytes of a frame as written by writeUTF, without the length prefix.
+	 */
+	static byte[] frame(String json) {
+		try {
+			ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+			new DataOutputStream(bytes).writeUTF(json);
+			byte[] frame=bytes.toByteArray();
+			return Arrays.copyOfRange(frame,2,frame.length);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package pb.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import pb.protocols.InvalidMessage;
+import pb.protocols.Message;
+import pb.protocols.MessageView;
+import pb.protocols.event.EventReply;
+import pb.protocols.event.EventRequest;
+import pb.protocols.keepalive.KeepAliveReply;
+import pb.protocols.keepalive.KeepAliveRequest;
+import pb.utils.BufferPool;
+
+/**
+ * Measures the bytes allocated per received message, comparing the original
+ * receive path (readUTF, JSON parser, Document, Message) with the pooled
+ * frame buffer and {@link pb.protocols.MessageView} path used by
+ * {@link pb.managers.endpoint.Endpoint#run()}. Both paths do what the
+ * endpoint and protocols do with a message: check its type and timeout id,
+ * and for events, get the event name and data.
+ * <br/>
+ * Run with: {@code mvn -P bench package} and then
+ * {@code java -cp target/pb3-0.0.1-SNAPSHOT-jar-with-dependencies.jar pb.bench.ReceiveAllocationBenchmark}
+ */
+public class ReceiveAllocationBenchmark {
+
+	private static final int iterations = 200000;
+
+	/**
+	 * A stream of frames, as they would arrive on a socket: mostly events
+	 * carrying a board path, with keep alives and event replies mixed in.
+	 */
+	private static byte[] frames() throws IOException {
+		StringBuilder path=new StringBuilder("localhost:3100:board1%12%black");
+		for(int i=0;i<40;i++) path.append(">"+(100+i)+","+(200+2*i));
+		ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+		DataOutputStream out=new DataOutputStream(bytes);
+		Message event=new EventRequest("BOARD_PATH_UPDATE",path.toString());
+		event.setTimeoutId(42);
+		Message reply=new EventReply();
+		reply.setTimeoutId(42);
+		out.writeUTF(event.toJsonString());
+		out.writeUTF(reply.toJsonString());
+		out.writeUTF(new KeepAliveRequest().toJsonString());
+		out.writeUTF(new KeepAliveReply().toJsonString());
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * What a protocol does with a received message.
+	 */
+	private static long consume(Message msg) {
+		long sink=msg.getTimeoutId();
+		if(msg.getType()==Message.Type.Request && msg instanceof EventRequest) {
+			EventRequest event=(EventRequest)msg;
+			sink+=event.getEventName().length()+event.getEventData().length();
+		}
+		return sink;
+	}
+
+	private static long legacy(byte[] frames,int messages) throws IOException, InvalidMessage {
+		long sink=0;
+		DataInputStream in=new DataInputStream(new ByteArrayInputStream(frames));
+		in.mark(frames.length);
+		for(int i=0;i<messages;i++) {
+			if(in.available()==0) in.reset();
+			sink+=consume(Message.toMessage(in.readUTF()));
+		}
+		return sink;
+	}
+
+	private static long pooled(byte[] frames,int messages) throws IOException, InvalidMessage {
+		long sink=0;
+		DataInputStream in=new DataInputStream(new ByteArrayInputStream(frames));
+		in.mark(frames.length);
+		byte[] frame=BufferPool.getFramePool().acquire();
+		MessageView view=new MessageView();
+		for(int i=0;i<messages;i++) {
+			if(in.available()==0) in.reset();
+			int length=in.readUnsignedShort();
+			in.readFully(frame,0,length);
+			sink+=consume(Message.toMessage(view.reset(frame,length)));
+		}
+		BufferPool.getFramePool().release(frame);
+		return sink;
+	}
+
+	private interface Receiver {
+		long receive(byte[] frames,int messages) throws IOException, InvalidMessage;
+	}
+
+	/**
+	 * @return bytes allocated per message by the current thread
+	 */
+	private static double measure(Receiver receiver,byte[] frames) throws IOException, InvalidMessage {
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id=Thread.currentThread().getId();
+		receiver.receive(frames,iterations); // warm up
+		long before=threads.getThreadAllocatedBytes(id);
+		long start=System.nanoTime();
+		long sink=receiver.receive(frames,iterations);
+		long elapsed=System.nanoTime()-start;
+		long after=threads.getThreadAllocatedBytes(id);
+		System.out.printf("  %,.0f ns/message (sink %d)%n",(double)elapsed/iterations,sink);
+		return (double)(after-before)/iterations;
+	}
+
+	public static void main(String[] args) throws IOException, InvalidMessage {
+		byte[] frames=frames();
+		System.out.println("legacy readUTF + JSON parser:");
+		double legacy=measure(ReceiveAllocationBenchmark::legacy,frames);
+		System.out.printf("  %,.1f bytes/message%n",legacy);
+		System.out.println("pooled frame + message view:");
+		double pooled=measure(ReceiveAllocationBenchmark::pooled,frames);
+		System.out.printf("  %,.1f bytes/message%n",pooled);
+		System.out.printf("allocation reduced %.1fx%n",legacy/pooled);
+	}
+}
@@ -0,0 +1,137 @@
+package pb.bench;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pb.app.Bounds;
+import pb.app.Whiteboard;
+import pb.app.WhiteboardPath;
+
+/**
+ * Frame time of drawing a synthetic board of about 100,000 segments onto
+ * headless antialiased tiles covering the board, as the draw area does when
+ * a board is selected, with the paths crossing each tile found from the
+ * board: with a drawLine call per segment and the color set once per run of
+ * paths of the same color, as {@link WhiteboardPath#drawOnBoard(Graphics2D, List, int, int)}
+ * does, and with one draw call per path of a {@link Path2D} cached for it.
+ * With a tile the size of the board the frame is a single image.
+ *
+ * @see {@link pb.bench.SyntheticBoards}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(value=1, jvmArgsAppend={"-Djava.awt.headless=true"})
+@State(Scope.Thread)
+public class RenderBenchmark {
+
+	/**
+	 * Points on the board, about as many segments.
+	 */
+	@Param({"100000"})
+	public int points;
+
+	/**
+	 * Width and height of the tiles.
+	 */
+	@Param({"256","1024"})
+	public int tileSize;
+
+	private Whiteboard board;
+	private Map<WhiteboardPath, Path2D> shapes;
+	private BufferedImage[] tiles;
+	private Graphics2D[] graphics;
+	private Bounds[] bounds;
+
+	@Setup
+	public void setup() {
+		List<WhiteboardPath> paths=SyntheticBoards.paths(points,1);
+		board=SyntheticBoards.board(paths);
+		shapes=new IdentityHashMap<>();
+		for(WhiteboardPath path : paths) {
+			Path2D shape=new Path2D.Float(Path2D.WIND_NON_ZERO,path.length());
+			shape.moveTo(path.getX(0),path.getY(0));
+			for(int i=1;i<path.length();i++) shape.lineTo(path.getX(i),path.getY(i));
+			shapes.put(path,shape);
+		}
+		int columns=(SyntheticBoards.width+tileSize-1)/tileSize;
+		int rows=(SyntheticBoards.height+tileSize-1)/tileSize;
+		tiles=new BufferedImage[columns*rows];
+		graphics=new Graphics2D[tiles.length];
+		bounds=new Bounds[tiles.length];
+		for(int i=0;i<tiles.length;i++) {
+			int x=(i%columns)*tileSize, y=(i/columns)*tileSize;
+			tiles[i]=new BufferedImage(tileSize,tileSize,BufferedImage.TYPE_INT_RGB);
+			graphics[i]=tiles[i].createGraphics();
+			graphics[i].setRenderingHint(RenderingHints.KEY_ANTIALIASING,RenderingHints.VALUE_ANTIALIAS_ON);
+			graphics[i].translate(-x,-y);
+			// with room for the lines of paths just outside the tile
+			bounds[i]=new Bounds(x,y,x+tileSize-1,y+tileSize-1).grow(2);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		for(Graphics2D g2 : graphics) g2.dispose();
+	}
+
+	/**
+	 * A drawLine call per segment.
+	 */
+	@Benchmark
+	public BufferedImage[] segments() {
+		for(int i=0;i<tiles.length;i++) {
+			Graphics2D g2=clear(i);
+			List<WhiteboardPath> paths=board.getPathsIn(bounds[i]);
+			WhiteboardPath.drawOnBoard(g2,paths,0,paths.size());
+		}
+		return tiles;
+	}
+
+	/**
+	 * A draw call per path, of its cached shape.
+	 */
+	@Benchmark
+	public BufferedImage[] shapes() {
+		for(int i=0;i<tiles.length;i++) {
+			Graphics2D g2=clear(i);
+			String color=null;
+			for(WhiteboardPath path : board.getPathsIn(bounds[i])) {
+				if(!path.getColorName().equals(color)) {
+					color=path.getColorName();
+					g2.setColor(path.getColor());
+				}
+				g2.draw(shapes.get(path));
+			}
+		}
+		return tiles;
+	}
+
+	private Graphics2D clear(int tile) {
+		Graphics2D g2=graphics[tile];
+		g2.setPaint(Color.white);
+		g2.fillRect(bounds[tile].minX+2,bounds[tile].minY+2,tileSize,tileSize);
+		return g2;
+	}
+}
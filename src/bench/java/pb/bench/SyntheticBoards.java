@@ -0,0 +1,86 @@
+package pb.bench;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import pb.app.Whiteboard;
+import pb.app.WhiteboardPath;
+
+/**
+ * Generates boards that look like ones drawn by hand, for benchmarking. The
+ * board is filled with strokes until it has the requested number of points.
+ * Stroke lengths follow a log-normal distribution with a median of about 40
+ * points, between 2 and 600 points, like mouse drags sampled by
+ * {@link pb.app.DrawArea}, and each stroke is a smooth random walk of small
+ * steps within a {@link #width} by {@link #height} area. Most strokes are
+ * black, some are red. The same seed always gives the same board.
+ */
+public class SyntheticBoards {
+
+	public static final int width = 1024;
+	public static final int height = 768;
+
+	public static final String boardName = "localhost:3100:board1";
+
+	/**
+	 * Generate the paths of a board.
+	 * @param points total number of points over all of the paths
+	 * @param seed
+	 * @return the paths
+	 */
+	public static List<WhiteboardPath> paths(int points, long seed) {
+		Random random=new Random(seed);
+		List<WhiteboardPath> paths=new ArrayList<>();
+		int remaining=points;
+		while(remaining>0) {
+			int length=(int)Math.round(Math.exp(Math.log(40)+0.9*random.nextGaussian()));
+			length=Math.min(remaining,Math.max(2,Math.min(600,length)));
+			// don't leave a single point for the last stroke
+			if(remaining-length==1) length++;
+			paths.add(stroke(random,length));
+			remaining-=length;
+		}
+		return paths;
+	}
+
+	/**
+	 * Generate a board with the given paths, as it would be after each path
+	 * was drawn in turn.
+	 * @param paths
+	 * @return the board
+	 */
+	public static Whiteboard board(List<WhiteboardPath> paths) {
+		Whiteboard board=new Whiteboard(boardName,false);
+		for(WhiteboardPath path : paths) board.addPath(path,board.getVersion());
+		return board;
+	}
+
+	/**
+	 * A stroke is a random walk whose direction changes gradually, with steps
+	 * of 1 to 6 pixels, bouncing off the edges.
+	 */
+	private static WhiteboardPath stroke(Random random, int length) {
+		WhiteboardPath path=new WhiteboardPath(random.nextInt(5)==0 ? Color.red : Color.black);
+		double x=random.nextInt(width);
+		double y=random.nextInt(height);
+		double direction=random.nextDouble()*2*Math.PI;
+		for(int i=0;i<length;i++) {
+			path.addPoint((int)x,(int)y);
+			direction+=random.nextGaussian()*0.3;
+			double step=1+random.nextInt(6);
+			x+=step*Math.cos(direction);
+			y+=step*Math.sin(direction);
+			if(x<0 || x>=width) {
+				direction=Math.PI-direction;
+				x=Math.max(0,Math.min(width-1,x));
+			}
+			if(y<0 || y>=height) {
+				direction=-direction;
+				y=Math.max(0,Math.min(height-1,y));
+			}
+		}
+		return path;
+	}
+}
@@ -0,0 +1,169 @@
+package pb.bench;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pb.app.Bounds;
+import pb.app.CheckpointCache;
+import pb.app.TiledCanvas;
+import pb.app.Whiteboard;
+import pb.app.WhiteboardOp;
+import pb.app.WhiteboardPath;
+
+/**
+ * Whole board operations on synthetic boards of 10 to 1,000,000 points:
+ * {@link Whiteboard#toString()} as done when a board is shared or fetched,
+ * {@link Whiteboard#whiteboardFromString(String, String)} as done when a
+ * board is received, and drawing every path onto a headless image as
+ * {@link Whiteboard#draw(pb.app.DrawArea)} did on every remote change, and
+ * redrawing after an undo from a {@link CheckpointCache} checkpoint, and
+ * undoing and redoing the last path on the tiles of a {@link TiledCanvas},
+ * as the draw area now does, and painting the whole board on tiles drawn
+ * from scratch, at full scale and zoomed out to a quarter with simplified
+ * paths.
+ *
+ * @see {@link pb.bench.SyntheticBoards}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(value=1, jvmArgsAppend={"-Djava.awt.headless=true","-Xmx2g"})
+@State(Scope.Thread)
+public class WhiteboardBenchmark {
+
+	@Param({"10","1000","100000","1000000"})
+	public int points;
+
+	private List<WhiteboardPath> paths;
+	private Whiteboard board;
+	private String data;
+	private BufferedImage image;
+	private Graphics2D g2;
+	private CheckpointCache checkpoints;
+	private List<WhiteboardPath> undone;
+	private TiledCanvas canvas;
+	private TiledCanvas fresh;
+	private Bounds all;
+
+	@Setup
+	public void setup() {
+		paths=SyntheticBoards.paths(points,1);
+		board=SyntheticBoards.board(paths);
+		// the board data, without the name, as received in a board data event
+		data=board.toString().substring(SyntheticBoards.boardName.length()+1);
+		image=new BufferedImage(SyntheticBoards.width,SyntheticBoards.height,BufferedImage.TYPE_INT_RGB);
+		g2=image.createGraphics();
+		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,RenderingHints.VALUE_ANTIALIAS_ON);
+		// checkpoints kept as the board was drawn
+		checkpoints=new CheckpointCache(Long.MAX_VALUE);
+		checkpoints.render(SyntheticBoards.boardName,paths,image,g2);
+		undone=paths.subList(0,Math.max(0,paths.size()-1));
+		// the tiles as painted in a window the size of the board
+		canvas=new TiledCanvas(new CheckpointCache(Long.MAX_VALUE),Long.MAX_VALUE);
+		canvas.setBoard(board);
+		all=new Bounds(0,0,SyntheticBoards.width-1,SyntheticBoards.height-1);
+		canvas.paint(g2,all);
+		// tiles drawn from scratch, without checkpoints
+		fresh=new TiledCanvas(new CheckpointCache(0),Long.MAX_VALUE);
+	}
+
+	@TearDown
+	public void tearDown() {
+		g2.dispose();
+	}
+
+	@Benchmark
+	public String serialize() {
+		return board.toString();
+	}
+
+	@Benchmark
+	public Whiteboard parse() {
+		Whiteboard parsed=new Whiteboard(SyntheticBoards.boardName,true);
+		parsed.whiteboardFromString(SyntheticBoards.boardName,data);
+		return parsed;
+	}
+
+	/**
+	 * What {@link Whiteboard#draw(pb.app.DrawArea)} does, on an image rather than
+	 * a component so that it runs headless.
+	 */
+	@Benchmark
+	public BufferedImage raster() {
+		g2.setPaint(Color.white);
+		g2.fillRect(0,0,SyntheticBoards.width,SyntheticBoards.height);
+		for(WhiteboardPath path : paths) path.drawOnBoard(g2);
+		return image;
+	}
+
+	/**
+	 * Redraw the board without its last path, as after an undo, from the
+	 * latest checkpoint.
+	 */
+	@Benchmark
+	public BufferedImage undoFromCheckpoint() {
+		checkpoints.render(SyntheticBoards.boardName,undone,image,g2);
+		return image;
+	}
+
+	/**
+	 * Undo the last path and add it again, applying both changes to the
+	 * tiles and repainting the regions they changed, which leaves the board
+	 * as it was.
+	 */
+	@Benchmark
+	public BufferedImage undoOnTiles() {
+		WhiteboardOp undo=WhiteboardOp.undo(board.getVersion());
+		board.apply(undo);
+		Bounds changed=canvas.apply(undo);
+		if(changed!=null) canvas.paint(g2,changed);
+		WhiteboardOp redo=WhiteboardOp.addPath(undo.getPath(),board.getVersion());
+		board.apply(redo);
+		changed=canvas.apply(redo);
+		if(changed!=null) canvas.paint(g2,changed);
+		return image;
+	}
+
+	/**
+	 * Paint the whole board at full scale on tiles drawn from scratch, in
+	 * parallel, waiting for them as there is no repaint listener.
+	 */
+	@Benchmark
+	public BufferedImage paintTiles() {
+		return paint(0);
+	}
+
+	/**
+	 * Paint the whole board zoomed out to a quarter on tiles drawn from
+	 * scratch, drawing each path at the level of detail for the scale.
+	 */
+	@Benchmark
+	public BufferedImage paintTilesZoomedOut() {
+		return paint(-2);
+	}
+
+	private BufferedImage paint(int zoom) {
+		fresh.setZoom(zoom);
+		fresh.setBoard(board);
+		fresh.paint(g2,fresh.toView(all));
+		return image;
+	}
+}
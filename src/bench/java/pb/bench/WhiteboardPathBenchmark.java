@@ -0,0 +1,100 @@
+package pb.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pb.app.StrokeCodec;
+import pb.app.WhiteboardPath;
+import pb.app.WhiteboardPoint;
+
+/**
+ * Single path and point conversions, {@link WhiteboardPath#WhiteboardPath(String)},
+ * {@link WhiteboardPath#toString()} and {@link WhiteboardPoint#WhiteboardPoint(String)},
+ * as done for every path update, and the binary {@link StrokeCodec} encoding,
+ * raw and as sent on the wire.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Thread)
+public class WhiteboardPathBenchmark {
+
+	/**
+	 * Points in the path.
+	 */
+	@Param({"10","40","400"})
+	public int length;
+
+	private WhiteboardPath path;
+	private String pathString;
+	private String pointString;
+	private byte[] pathBytes;
+	private String pathWireString;
+
+	@Setup
+	public void setup() {
+		path=null;
+		// take the first generated stroke that is long enough, cut to length
+		for(WhiteboardPath candidate : SyntheticBoards.paths(100000,2)) {
+			if(candidate.length()>=length) {
+				String[] parts=candidate.toString().split(">");
+				StringBuilder sb=new StringBuilder(parts[0]);
+				for(int i=1;i<=length;i++) sb.append(">").append(parts[i]);
+				path=new WhiteboardPath(sb.toString());
+				break;
+			}
+		}
+		pathString=path.toString();
+		pointString=pathString.substring(pathString.lastIndexOf('>')+1);
+		pathBytes=StrokeCodec.encode(path);
+		pathWireString=StrokeCodec.toWireString(path);
+	}
+
+	@Benchmark
+	public String serializePath() {
+		return path.toString();
+	}
+
+	@Benchmark
+	public WhiteboardPath parsePath() {
+		return new WhiteboardPath(pathString);
+	}
+
+	@Benchmark
+	public WhiteboardPoint parsePoint() {
+		return new WhiteboardPoint(pointString);
+	}
+
+	@Benchmark
+	public byte[] encodePath() {
+		return StrokeCodec.encode(path);
+	}
+
+	@Benchmark
+	public WhiteboardPath decodePath() {
+		return StrokeCodec.decode(pathBytes);
+	}
+
+	@Benchmark
+	public String serializePathBinary() {
+		return StrokeCodec.toWireString(path);
+	}
+
+	@Benchmark
+	public WhiteboardPath parsePathBinary() {
+		return new WhiteboardPath(pathWireString);
+	}
+}
@@ -0,0 +1,442 @@
+package pb;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import pb.app.Whiteboard;
+import pb.app.WhiteboardCore;
+import pb.app.WhiteboardPath;
+import pb.utils.Histogram;
+import pb.utils.Utils;
+
+/**
+ * Headless load generator for a whiteboard server and whiteboard peers. It
+ * starts a number of simulated peers in this JVM, each a
+ * {@link pb.app.WhiteboardCore} connected to a running
+ * {@link pb.WhiteboardServer}. The first peers each host and share a board,
+ * and every other peer selects one of those boards when the server tells it
+ * the board is shared. All peers then draw strokes on their board at a given
+ * rate, exactly as a user of {@link pb.app.WhiteboardApp} would, so the host
+ * either accepts a stroke and sends it on to the other listeners, or rejects
+ * it if the board changed in between. Hosts clear their board when it has
+ * {@code -maxPaths} paths.
+ * <br/>
+ * Every few seconds, and at the end, it reports the strokes submitted,
+ * accepted by the host and rejected, the latency from submitting a stroke to
+ * it being received by each other peer, and the threads and heap used.
+ * Since all peers are in one JVM, latency is measured by remembering when
+ * each stroke was submitted.
+ * <br/>
+ * Start a whiteboard server and then, for example:
+ * {@code java -cp ... pb.WhiteboardLoadGenerator -peers 50 -boards 5 -rate 2 -duration 60}
+ */
+public class WhiteboardLoadGenerator {
+	private static Logger log = Logger.getLogger(WhiteboardLoadGenerator.class.getName());
+
+	/**
+	 * port to use when contacting the whiteboard server
+	 */
+	private static int whiteboardServerPort=Utils.indexServerPort;
+
+	/**
+	 * host to use when contacting the whiteboard server
+	 */
+	private static String host=Utils.serverHost;
+
+	/**
+	 * Peer i uses port basePort+i for its server.
+	 */
+	private static int basePort=4000;
+
+	private static int numPeers=10;
+
+	private static int numBoards=1;
+
+	/**
+	 * Strokes per second drawn by each peer.
+	 */
+	private static double rate=1;
+
+	/**
+	 * Seconds to draw for.
+	 */
+	private static int duration=60;
+
+	/**
+	 * Seconds between reports.
+	 */
+	private static int reportInterval=5;
+
+	/**
+	 * Points in each stroke.
+	 */
+	private static int strokePoints=20;
+
+	/**
+	 * Paths on a board before its host clears it.
+	 */
+	private static int maxPaths=100;
+
+	/**
+	 * Fragments each stroke is sent in while it is drawn, before it is
+	 * submitted, see {@link WhiteboardCore#boardPathFragmentUpdate}.
+	 */
+	private static int fragments=0;
+
+	/*
+	 * Counters over all peers.
+	 */
+
+	private static final AtomicLong submitted=new AtomicLong();
+	private static final AtomicLong accepted=new AtomicLong();
+	private static final AtomicLong rejected=new AtomicLong();
+	private static final AtomicLong delivered=new AtomicLong();
+	private static final AtomicLong clears=new AtomicLong();
+	private static final AtomicLong fragmentsDelivered=new AtomicLong();
+
+	/**
+	 * {@link System#nanoTime()} when each stroke was submitted, by
+	 * "host:port:boardid%PATH".
+	 */
+	private static final Map<String,Long> submitTimes=new ConcurrentHashMap<>();
+
+	/**
+	 * Latency in microseconds, over the whole run and for the current interval.
+	 */
+	private static final Histogram totalLatency=new Histogram();
+	private static volatile Histogram intervalLatency=new Histogram();
+
+	/**
+	 * Where reports are printed, since the peers print to standard output.
+	 */
+	private static final PrintStream out=System.out;
+
+	/**
+	 * Counted down as each peer connects to the whiteboard server.
+	 */
+	private static CountDownLatch connected;
+
+	/**
+	 * Counted down as each listener gets its board.
+	 */
+	private static CountDownLatch listening;
+
+	/**
+	 * A peer has received a stroke drawn by another peer.
+	 * @param boardName
+	 * @param path
+	 */
+	private static void strokeDelivered(String boardName, WhiteboardPath path) {
+		Long submitTime=submitTimes.get(boardName+"%"+path);
+		if(submitTime==null) return;
+		long micros=(System.nanoTime()-submitTime)/1000;
+		totalLatency.record(micros);
+		intervalLatency.record(micros);
+		delivered.incrementAndGet();
+	}
+
+	/**
+	 * A whiteboard peer, with no user interface, that either hosts a board or
+	 * listens to a board hosted by another peer, and draws on it.
+	 */
+	private static class SimulatedPeer {
+		final WhiteboardCore core;
+
+		/**
+		 * The peer:port of the peer hosting the board that this peer draws on.
+		 */
+		final String boardHost;
+
+		/**
+		 * Whether this peer has its board and can draw on it.
+		 */
+		volatile boolean ready=false;
+
+		final Random random;
+
+		SimulatedPeer(int index) {
+			core=new WhiteboardCore(basePort+index,host,whiteboardServerPort);
+			boardHost=host+":"+(basePort+index%numBoards);
+			random=new Random(index);
+		}
+
+		boolean isHost() {
+			return boardHost.equals(core.getPeerport());
+		}
+
+		void start() {
+			core.on(WhiteboardCore.serverConnected, (args)->{
+				connected.countDown();
+			}).on(WhiteboardCore.boardListChanged, (args)->{
+				if(isHost() || core.getSelectedBoard()!=null) return;
+				for(String boardName : core.getBoardNames()) {
+					if(boardName.startsWith(boardHost+":")) {
+						core.selectBoard(boardName);
+						return;
+					}
+				}
+			}).on(WhiteboardCore.boardChanged, (args)->{
+				if(!isHost() && !ready) {
+					ready=true;
+					listening.countDown();
+				}
+			}).on(WhiteboardCore.pathAdded, (args)->{
+				String boardName=(String)args[0];
+				WhiteboardPath path=(WhiteboardPath)args[1];
+				strokeDelivered(boardName,path);
+				if(isHost()) {
+					accepted.incrementAndGet();
+					clearIfFull();
+				}
+			}).on(WhiteboardCore.updateRejected, (args)->{
+				rejected.incrementAndGet();
+			}).on(WhiteboardCore.provisionalChanged, (args)->{
+				if(args[1]!=null) fragmentsDelivered.incrementAndGet();
+			});
+			core.startPeerManager();
+		}
+
+		/**
+		 * Create and share the board.
+		 */
+		void shareBoard() {
+			core.createBoard();
+			core.setShare(true);
+			ready=true;
+		}
+
+		/**
+		 * Clear the board when it is full, as a user would, so that the boards
+		 * fetched by listeners after a conflict stay a realistic size.
+		 */
+		void clearIfFull() {
+			Whiteboard board=core.getSelectedBoard();
+			if(board!=null && board.getPathCount()>=maxPaths && core.clearedLocally()) {
+				clears.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Draw a stroke, as the user does with the mouse.
+		 */
+		void drawStroke() {
+			Whiteboard board=core.getSelectedBoard();
+			if(!ready || board==null) return;
+			WhiteboardPath path=stroke();
+			if(fragments>0) {
+				String strokeId=core.newStrokeId();
+				int[] coords=path.getCoordinates();
+				for(int i=0;i<fragments;i++) {
+					int from=path.length()*i/fragments;
+					int to=path.length()*(i+1)/fragments;
+					WhiteboardPath fragment=WhiteboardPath.ofColor(path.getColorName());
+					fragment.addPoints(coords,2*from,to-from);
+					core.pathFragmentLocally(strokeId,fragment);
+				}
+			}
+			submitTimes.put(board.getName()+"%"+path,System.nanoTime());
+			submitted.incrementAndGet();
+			if(!core.pathCreatedLocally(path)) {
+				// another peer's update arrived in between
+				rejected.incrementAndGet();
+				return;
+			}
+			if(isHost()) {
+				accepted.incrementAndGet();
+				clearIfFull();
+			}
+		}
+
+		/**
+		 * A random walk of small steps, like a mouse drag.
+		 */
+		WhiteboardPath stroke() {
+			WhiteboardPath path=WhiteboardPath.ofColor(random.nextInt(5)==0 ? "red" : "black");
+			int x=random.nextInt(600);
+			int y=random.nextInt(600);
+			for(int i=0;i<strokePoints;i++) {
+				path.addPoint(x,y);
+				x=Math.max(0,Math.min(599,x+random.nextInt(11)-5));
+				y=Math.max(0,Math.min(599,y+random.nextInt(11)-5));
+			}
+			return path;
+		}
+	}
+
+	/**
+	 * Print the counters so far. Rates are since the last report and the
+	 * rejection rate is of all strokes submitted.
+	 * @param label
+	 * @param elapsed seconds since drawing started
+	 * @param latency latencies to report
+	 * @param last submitted, delivered and elapsed milliseconds at the last
+	 * report, updated
+	 */
+	private static void report(String label, double elapsed, Histogram latency, long[] last) {
+		long s=submitted.get(), a=accepted.get(), r=rejected.get(), d=delivered.get();
+		double seconds=Math.max(0.001,elapsed-last[2]/1000.0);
+		ThreadMXBean threads=ManagementFactory.getThreadMXBean();
+		MemoryUsage heap=ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		out.printf("%s t=%.0fs submitted=%d (%.1f/s) accepted=%d rejected=%d (%.1f%%) delivered=%d (%.1f/s) clears=%d fragments=%d%n",
+				label,elapsed,s,(s-last[0])/seconds,a,r,s==0 ? 0.0 : 100.0*r/s,
+				d,(d-last[1])/seconds,clears.get(),fragmentsDelivered.get());
+		out.printf("%s   latency ms p50=%.2f p90=%.2f p99=%.2f max=%.2f (%d samples) threads=%d (peak %d) heap=%dMB/%dMB%n",
+				label,latency.getValueAtPercentile(50)/1000.0,latency.getValueAtPercentile(90)/1000.0,
+				latency.getValueAtPercentile(99)/1000.0,latency.getMax()/1000.0,latency.getCount(),
+				threads.getThreadCount(),threads.getPeakThreadCount(),
+				heap.getUsed()>>20,heap.getCommitted()>>20);
+		last[0]=s;
+		last[1]=d;
+		last[2]=(long)(elapsed*1000);
+	}
+
+	private static void help(Options options){
+		String header = "Whiteboard load generator for Unimelb COMP90015\n\n";
+		String footer = "\ncontact aharwood@unimelb.edu.au for issues.";
+		HelpFormatter formatter = new HelpFormatter();
+		formatter.printHelp("pb.WhiteboardLoadGenerator", header, options, footer, true);
+		System.exit(-1);
+	}
+
+	private static int intOption(CommandLine cmd, Options options, String name, int value) {
+		if(!cmd.hasOption(name)) return value;
+		try {
+			return Integer.parseInt(cmd.getOptionValue(name));
+		} catch (NumberFormatException e) {
+			out.println("-"+name+" requires an integer, parsed: "+cmd.getOptionValue(name));
+			help(options);
+			return value;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		// set a nice log format
+		System.setProperty("java.util.logging.SimpleFormatter.format",
+                "[%1$tl:%1$tM:%1$tS:%1$tL] %2$s %4$s: %5$s%n");
+		// per message logging and output would swamp the results
+		Logger.getLogger("").setLevel(Level.WARNING);
+		Logger.getLogger("").getHandlers()[0].setLevel(Level.WARNING);
+
+		Options options = new Options();
+		options.addOption("host",true,"whiteboard server hostname, a string");
+		options.addOption("whiteboardServerPort",true,"whiteboard server port, an integer");
+		options.addOption("port",true,"first port for the peers' servers, an integer");
+		options.addOption("peers",true,"number of peers, an integer");
+		options.addOption("boards",true,"number of boards, hosted by the first peers, an integer");
+		options.addOption("rate",true,"strokes per second drawn by each peer, a number");
+		options.addOption("points",true,"points in each stroke, an integer");
+		options.addOption("maxPaths",true,"paths on a board before it is cleared, an integer");
+		options.addOption("fragments",true,"fragments each stroke is streamed in before it is submitted, an integer");
+		options.addOption("duration",true,"seconds to draw for, an integer");
+		options.addOption("interval",true,"seconds between reports, an integer");
+
+		CommandLineParser parser = new DefaultParser();
+		CommandLine cmd = null;
+		try {
+			cmd = parser.parse( options, args);
+		} catch (ParseException e1) {
+			help(options);
+		}
+
+		if(cmd.hasOption("host")) host=cmd.getOptionValue("host");
+		whiteboardServerPort=intOption(cmd,options,"whiteboardServerPort",whiteboardServerPort);
+		basePort=intOption(cmd,options,"port",basePort);
+		numPeers=intOption(cmd,options,"peers",numPeers);
+		numBoards=Math.max(1,Math.min(numPeers,intOption(cmd,options,"boards",numBoards)));
+		strokePoints=Math.max(2,intOption(cmd,options,"points",strokePoints));
+		maxPaths=intOption(cmd,options,"maxPaths",maxPaths);
+		fragments=Math.max(0,Math.min(strokePoints,intOption(cmd,options,"fragments",fragments)));
+		duration=intOption(cmd,options,"duration",duration);
+		reportInterval=Math.max(1,intOption(cmd,options,"interval",reportInterval));
+		if(cmd.hasOption("rate")) {
+			try {
+				rate=Double.parseDouble(cmd.getOptionValue("rate"));
+			} catch (NumberFormatException e) {
+				out.println("-rate requires a number, parsed: "+cmd.getOptionValue("rate"));
+				help(options);
+			}
+		}
+
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		out.printf("starting %d peers on ports %d-%d, %d boards, whiteboard server %s:%d%n",
+				numPeers,basePort,basePort+numPeers-1,numBoards,host,whiteboardServerPort);
+		connected=new CountDownLatch(numPeers);
+		listening=new CountDownLatch(numPeers-numBoards);
+		List<SimulatedPeer> peers=new ArrayList<>();
+		for(int i=0;i<numPeers;i++) {
+			SimulatedPeer peer=new SimulatedPeer(i);
+			peers.add(peer);
+			peer.start();
+		}
+		if(!connected.await(30,TimeUnit.SECONDS)) {
+			out.println("only "+(numPeers-connected.getCount())+" of "+numPeers
+					+" peers connected to the whiteboard server");
+		}
+		for(SimulatedPeer peer : peers) {
+			if(peer.isHost()) {
+				peer.shareBoard();
+				// the whiteboard server can deadlock when boards are shared at the same time
+				Thread.sleep(200);
+			}
+		}
+		if(!listening.await(30,TimeUnit.SECONDS)) {
+			out.println("only "+(numPeers-numBoards-listening.getCount())+" of "
+					+(numPeers-numBoards)+" listeners got their board, drawing anyway");
+		}
+
+		out.printf("drawing %.2f strokes/s per peer of %d points for %ds%n",rate,strokePoints,duration);
+		ScheduledExecutorService drawers=Executors.newScheduledThreadPool(
+				Math.max(1,Runtime.getRuntime().availableProcessors()/2));
+		long period=Math.max(1,(long)(1000000/rate));
+		Random random=new Random();
+		for(SimulatedPeer peer : peers) {
+			drawers.scheduleAtFixedRate(peer::drawStroke,(long)(random.nextDouble()*period),period,
+					TimeUnit.MICROSECONDS);
+		}
+
+		long start=System.nanoTime();
+		long[] last=new long[3];
+		long end=start+TimeUnit.SECONDS.toNanos(duration);
+		while(System.nanoTime()<end) {
+			Thread.sleep(Math.min(reportInterval*1000L,Math.max(1,(end-System.nanoTime())/1000000)));
+			Histogram latency=intervalLatency;
+			intervalLatency=new Histogram();
+			report("interval",(System.nanoTime()-start)/1e9,latency,last);
+			// forget strokes that will not be delivered to anyone else
+			long old=System.nanoTime()-TimeUnit.SECONDS.toNanos(30);
+			submitTimes.values().removeIf((time)->time<old);
+		}
+		drawers.shutdownNow();
+		// give the last updates a moment to arrive
+		Thread.sleep(1000);
+		report("total",(System.nanoTime()-start)/1e9,totalLatency,new long[3]);
+
+		peers.forEach((peer)->{
+			peer.core.shutdown();
+		});
+		Utils.getInstance().cleanUp();
+		System.exit(0);
+	}
+}
@@ -1,6 +1,11 @@
 package pb;
 
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
 import java.util.logging.Logger;
 
 import org.apache.commons.cli.CommandLine;
@@ -11,10 +16,14 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
 import pb.app.WhiteboardApp;
+import pb.app.WhiteboardCore;
+import pb.app.WhiteboardShell;
 import pb.utils.Utils;
 
 /**
- * Just a bootstrap class for the actual whiteboard app.
+ * Just a bootstrap class for the actual whiteboard app. With -headless the
+ * peer has no GUI and is driven by {@link pb.app.WhiteboardShell} commands on
+ * standard input, so AWT and Swing are never loaded.
  * @author aaron
  *
  */
@@ -37,6 +46,11 @@ public class WhiteboardPeer {
 	 */
 	private static String host=Utils.serverHost; // default host for the index server
 	
+	/**
+	 * directory to keep the boards created on this peer in, or null
+	 */
+	private static File dataDir=null;
+	
 	/**
 	 * Print some help.
 	 * @param options
@@ -49,6 +63,30 @@ public class WhiteboardPeer {
 		System.exit(-1);
 	}
 	
+	/**
+	 * Run the peer without a GUI, with an initial board as the GUI has.
+	 */
+	private static void runHeadless() {
+		System.setProperty("java.awt.headless", "true");
+		WhiteboardCore core = new WhiteboardCore(peerPort,host,whiteboardServerPort,dataDir);
+		WhiteboardShell shell = new WhiteboardShell(core, System.out);
+		core.startPeerManager();
+		List<String> restored = core.restoreBoards();
+		if(restored.isEmpty()) {
+			System.out.println("created "+core.createBoard());
+		} else {
+			restored.forEach((boardName)->System.out.println("restored "+boardName));
+			core.selectBoard(restored.get(0));
+		}
+		try {
+			shell.run(new BufferedReader(new InputStreamReader(System.in)));
+		} catch (IOException e) {
+			log.warning("could not read commands: "+e.getMessage());
+		}
+		core.waitToFinish();
+		Utils.getInstance().cleanUp();
+	}
+	
 	public static void main(String[] args) {
 		// set a nice log format
 		System.setProperty("java.util.logging.SimpleFormatter.format",
@@ -58,6 +96,8 @@ public class WhiteboardPeer {
         options.addOption("port",true,"peer server port, an integer");
         options.addOption("host",true,"whiteboard server hostname, a string");
         options.addOption("whiteboardServerPort",true,"whiteboard server port, an integer");
+        options.addOption("headless",false,"run without a GUI, reading commands from standard input");
+        options.addOption("dataDir",true,"directory to keep the boards created on this peer in, restored on restart");
 		
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = null;
@@ -91,7 +131,16 @@ public class WhiteboardPeer {
         	host = cmd.getOptionValue("host");
         }
         
-		WhiteboardApp whiteboard = new WhiteboardApp(peerPort,host,whiteboardServerPort);
+        if(cmd.hasOption("dataDir")) {
+        	dataDir = new File(cmd.getOptionValue("dataDir"));
+        }
+        
+        if(cmd.hasOption("headless")) {
+        	runHeadless();
+        	return;
+        }
+        
+		WhiteboardApp whiteboard = new WhiteboardApp(peerPort,host,whiteboardServerPort,dataDir);
 		whiteboard.waitToFinish();
 		Utils.getInstance().cleanUp();
 
@@ -0,0 +1,231 @@
+package pb.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the boards hosted by a peer in a data directory, so that they are
+ * still there when the peer is restarted. Each board has a
+ * {@link WriteAheadLog} that every operation accepted by the board is
+ * appended to, and the logs of all boards are forced to disk together every
+ * {@link #commitInterval} milliseconds, so that a burst of operations costs
+ * one sync rather than one each.
+ * <br/>
+ * The boards found in the directory are restored by name only, see
+ * {@link #restore()}, and each is only read, from its latest snapshot and
+ * the operations after it, when it is first selected, see
+ * {@link #load(Whiteboard)}. A board is only written once something is drawn
+ * on it, so empty boards are not kept. Boards from other peers are never
+ * kept.
+ * <br/>
+ * The intervals are set by the system properties {@code pb.wal.commit}, by
+ * default 20 milliseconds, {@code pb.wal.snapshot}, by default a snapshot
+ * every 1000 operations, and {@code pb.wal.segment}, the bytes first mapped
+ * for a segment of a log, by default 1 megabyte.
+ */
+public class BoardStore {
+	private static Logger log = Logger.getLogger(BoardStore.class.getName());
+
+	/**
+	 * Milliseconds between forcing the logs to disk.
+	 */
+	public static final int commitInterval = Math.max(1, Integer.getInteger("pb.wal.commit", 20));
+
+	/**
+	 * Operations between snapshots of a board.
+	 */
+	public static final int snapshotInterval = Math.max(1, Integer.getInteger("pb.wal.snapshot", 1000));
+
+	/**
+	 * Bytes first mapped for a segment of a log, doubled as needed.
+	 */
+	public static final int segmentSize = Math.max(4096, Integer.getInteger("pb.wal.segment", 1<<20));
+
+	private final File dataDir;
+
+	/**
+	 * Logs of the boards loaded or created, by board id.
+	 */
+	private final Map<String, WriteAheadLog> logs=new HashMap<>();
+
+	/**
+	 * Ids of the boards restored but not loaded yet.
+	 */
+	private final Set<String> unloaded=new HashSet<>();
+
+	/**
+	 * Forces the logs and writes snapshots, in the order they are queued.
+	 */
+	private final ScheduledExecutorService writer=Executors.newSingleThreadScheduledExecutor((runnable)->{
+		Thread thread=new Thread(runnable, "board-store");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Initialise the store, creating the data directory if needed.
+	 * @param dataDir
+	 * @throws IOException if the directory can't be created
+	 */
+	public BoardStore(File dataDir) throws IOException {
+		this.dataDir=dataDir;
+		if(!dataDir.isDirectory() && !dataDir.mkdirs()) {
+			throw new IOException("could not create data directory "+dataDir);
+		}
+		writer.scheduleWithFixedDelay(this::commit, commitInterval, commitInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Find the boards in the data directory, without reading them.
+	 * @return the ids of the boards, sorted
+	 */
+	public synchronized List<String> restore() {
+		Set<String> ids=new TreeSet<>();
+		String[] names=dataDir.list();
+		if(names!=null) {
+			for(String name : names) {
+				if(name.endsWith(WriteAheadLog.segmentSuffix) || name.endsWith(WriteAheadLog.snapshotSuffix)) {
+					int dash=name.lastIndexOf('-');
+					if(dash>0) ids.add(name.substring(0, dash));
+				} else if(name.endsWith(".tmp")) {
+					// a snapshot that was not finished
+					new File(dataDir, name).delete();
+				}
+			}
+		}
+		for(String id : ids) {
+			if(!logs.containsKey(id)) unloaded.add(id);
+		}
+		return new ArrayList<>(ids);
+	}
+
+	/**
+	 * Read a restored board, if it is not read yet, and keep it from then on.
+	 * @param board a board named after a restored board, with nothing drawn on it
+	 */
+	public void load(Whiteboard board) {
+		String id=boardId(board.getName());
+		synchronized(this) {
+			if(!unloaded.remove(id)) return;
+		}
+		WriteAheadLog wal=new WriteAheadLog(this, id);
+		wal.recover(board);
+		board.setWriteAheadLog(wal);
+		synchronized(this) {
+			logs.put(id, wal);
+		}
+	}
+
+	/**
+	 * Keep a board created on this peer.
+	 * @param board
+	 */
+	public void track(Whiteboard board) {
+		WriteAheadLog wal=new WriteAheadLog(this, boardId(board.getName()));
+		board.setWriteAheadLog(wal);
+		synchronized(this) {
+			logs.put(boardId(board.getName()), wal);
+		}
+	}
+
+	/**
+	 *
+	 * @param boardName
+	 * @return true if the board was restored but is not read yet
+	 */
+	public synchronized boolean isUnloaded(String boardName) {
+		return unloaded.contains(boardId(boardName));
+	}
+
+	/**
+	 * Delete a board and its files, e.g. when the user deletes it.
+	 * @param boardName
+	 */
+	public void delete(String boardName) {
+		String id=boardId(boardName);
+		WriteAheadLog wal;
+		synchronized(this) {
+			wal=logs.remove(id);
+			if(wal==null && unloaded.remove(id)) {
+				wal=new WriteAheadLog(this, id);
+			}
+		}
+		if(wal!=null) wal.delete();
+	}
+
+	/**
+	 * Force the logs of all boards to disk, and stop, waiting for snapshots
+	 * being written.
+	 */
+	public void close() {
+		List<WriteAheadLog> closing;
+		synchronized(this) {
+			closing=new ArrayList<>(logs.values());
+			logs.clear();
+		}
+		for(WriteAheadLog wal : closing) wal.close();
+		writer.shutdown();
+		try {
+			writer.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			log.warning("interrupted while writing snapshots");
+		}
+	}
+
+	/**
+	 *
+	 * @return the data directory
+	 */
+	public File getDataDir() {
+		return dataDir;
+	}
+
+	/**
+	 * Queue a task on the thread that writes the files, e.g. a snapshot.
+	 */
+	void execute(Runnable task) {
+		try {
+			writer.execute(task);
+		} catch (RejectedExecutionException e) {
+			// closing, run it now
+			task.run();
+		}
+	}
+
+	/**
+	 * Force the operations appended to all logs since the last commit.
+	 */
+	private void commit() {
+		List<WriteAheadLog> committing;
+		synchronized(this) {
+			committing=new ArrayList<>(logs.values());
+		}
+		for(WriteAheadLog wal : committing) {
+			try {
+				wal.commit();
+			} catch (RuntimeException e) {
+				log.warning("could not commit a board log: "+e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @param boardName peer:port:boardid
+	 * @return the boardid, which the files of the board are named after
+	 */
+	static String boardId(String boardName) {
+		return boardName.substring(boardName.lastIndexOf(':')+1);
+	}
+}
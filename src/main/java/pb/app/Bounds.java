@@ -0,0 +1,86 @@
+package pb.app;
+
+/**
+ * An axis aligned rectangle of board coordinates, from (minX,minY) to
+ * (maxX,maxY) inclusive, e.g. the bounding box of a path. Used instead of
+ * {@link java.awt.Rectangle} so that boards can be indexed without loading
+ * AWT.
+ */
+public class Bounds {
+
+	public final int minX;
+
+	public final int minY;
+
+	public final int maxX;
+
+	public final int maxY;
+
+	/**
+	 * Initialize the bounds.
+	 * @param minX
+	 * @param minY
+	 * @param maxX at least minX
+	 * @param maxY at least minY
+	 */
+	public Bounds(int minX, int minY, int maxX, int maxY) {
+		this.minX=minX;
+		this.minY=minY;
+		this.maxX=maxX;
+		this.maxY=maxY;
+	}
+
+	/**
+	 *
+	 * @param other
+	 * @return true if the bounds overlap the other bounds
+	 */
+	public boolean intersects(Bounds other) {
+		return minX<=other.maxX && other.minX<=maxX && minY<=other.maxY && other.minY<=maxY;
+	}
+
+	/**
+	 *
+	 * @param other
+	 * @return true if the other bounds are entirely within these bounds
+	 */
+	public boolean contains(Bounds other) {
+		return minX<=other.minX && other.maxX<=maxX && minY<=other.minY && other.maxY<=maxY;
+	}
+
+	/**
+	 *
+	 * @param x
+	 * @param y
+	 * @return true if the point is within the bounds
+	 */
+	public boolean contains(int x, int y) {
+		return minX<=x && x<=maxX && minY<=y && y<=maxY;
+	}
+
+	/**
+	 *
+	 * @param other
+	 * @return the smallest bounds containing both these and the other bounds
+	 */
+	public Bounds union(Bounds other) {
+		return new Bounds(Math.min(minX,other.minX),Math.min(minY,other.minY),
+				Math.max(maxX,other.maxX),Math.max(maxY,other.maxY));
+	}
+
+	/**
+	 *
+	 * @param margin
+	 * @return these bounds grown by the margin on every side
+	 */
+	public Bounds grow(int margin) {
+		return new Bounds(minX-margin,minY-margin,maxX+margin,maxY+margin);
+	}
+
+	/**
+	 * @return bounds as a string in format minX,minY-maxX,maxY
+	 */
+	public String toString() {
+		return minX+","+minY+"-"+maxX+","+maxY;
+	}
+}
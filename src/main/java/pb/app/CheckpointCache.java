@@ -0,0 +1,237 @@
+package pb.app;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Raster checkpoints of boards, so that a board can be redrawn, e.g. after
+ * an undo, from the image of its first paths plus the few paths after them,
+ * rather than by drawing every path. A checkpoint is kept after every
+ * {@link #interval} paths of a board, and is used for as long as the board
+ * still starts with the same paths. Since paths are only removed from the
+ * end of a board, and a path added after an undo or a fetch is always a new
+ * object, the board starts with the same paths as long as the last path of
+ * the checkpoint is still at the same position on the board.
+ * <br/>
+ * Checkpoints are evicted least recently used first when their images take
+ * more than the memory limit. The interval and limit are set by the system
+ * properties {@code pb.checkpoints.interval}, by default every 50 paths, and
+ * {@code pb.checkpoints.memory}, by default 64 megabytes.
+ */
+public class CheckpointCache {
+	private static Logger log = Logger.getLogger(CheckpointCache.class.getName());
+
+	/**
+	 * Paths between checkpoints.
+	 */
+	public static final int interval = Math.max(1, Integer.getInteger("pb.checkpoints.interval", 50));
+
+	/**
+	 * Most bytes of checkpoint images to keep.
+	 */
+	public static final long maxMemory = Long.getLong("pb.checkpoints.memory", 64)<<20;
+
+	/**
+	 * The image of a board after its first paths.
+	 */
+	private static class Checkpoint {
+		final BufferedImage image;
+		final WhiteboardPath lastPath;
+
+		Checkpoint(BufferedImage image, WhiteboardPath lastPath) {
+			this.image=image;
+			this.lastPath=lastPath;
+		}
+
+		long bytes() {
+			return 4L*image.getWidth()*image.getHeight();
+		}
+	}
+
+	/**
+	 * Checkpoints by "peer:port:boardid#paths", or "peer:port:boardid@zoom:tx,ty#paths"
+	 * for tiles, least recently used first.
+	 */
+	private final LinkedHashMap<String, Checkpoint> checkpoints=new LinkedHashMap<>(16, 0.75f, true);
+
+	private final long memoryLimit;
+
+	private long memory=0;
+
+	private long hits=0;
+
+	private long misses=0;
+
+	/**
+	 * Initialise with the default memory limit.
+	 */
+	public CheckpointCache() {
+		this(maxMemory);
+	}
+
+	/**
+	 * Initialise the cache.
+	 * @param memoryLimit most bytes of checkpoint images to keep
+	 */
+	public CheckpointCache(long memoryLimit) {
+		this.memoryLimit=memoryLimit;
+	}
+
+	/**
+	 * Draw the paths of a board onto an image, from the latest checkpoint
+	 * that is still valid, keeping checkpoints of the image as the paths are
+	 * drawn. Images can be drawn from any number of threads at once, the
+	 * cache is only locked to look up and keep checkpoints.
+	 * @param boardName the board, or a tile of it, see {@link #tileKey(String, int, int, int)}
+	 * @param paths the paths of the board, in order
+	 * @param image the image to draw on
+	 * @param g2 graphics of the image, translated to where the paths are drawn
+	 */
+	public void render(String boardName, List<WhiteboardPath> paths, BufferedImage image, Graphics2D g2) {
+		int from=0;
+		BufferedImage start=null;
+		synchronized(this) {
+			for(int count=paths.size()/interval*interval;count>0;count-=interval) {
+				Checkpoint checkpoint=checkpoints.get(key(boardName,count));
+				if(checkpoint!=null && checkpoint.lastPath==paths.get(count-1)
+						&& checkpoint.image.getWidth()==image.getWidth()
+						&& checkpoint.image.getHeight()==image.getHeight()) {
+					// checkpoint images are never drawn on once kept
+					start=checkpoint.image;
+					from=count;
+					break;
+				}
+			}
+			if(start==null) misses++;
+			else hits++;
+		}
+		AffineTransform transform=g2.getTransform();
+		g2.setTransform(new AffineTransform());
+		if(start!=null) {
+			g2.drawImage(start, 0, 0, null);
+		} else {
+			g2.setPaint(Color.white);
+			g2.fillRect(0, 0, image.getWidth(), image.getHeight());
+		}
+		g2.setTransform(transform);
+		for(int i=from;i<paths.size();) {
+			// the paths up to the next checkpoint, as one run
+			int to=Math.min(paths.size(), (i/interval+1)*interval);
+			WhiteboardPath.drawOnBoard(g2, paths, i, to);
+			i=to;
+			checkpoint(boardName, i, paths.get(i-1), image);
+		}
+	}
+
+	/**
+	 * Keep a checkpoint of a board, if its number of paths is a multiple of
+	 * {@link #interval}.
+	 * @param boardName
+	 * @param pathCount number of paths drawn on the image
+	 * @param lastPath the last path drawn on the image
+	 * @param image
+	 */
+	public void checkpoint(String boardName, int pathCount, WhiteboardPath lastPath, BufferedImage image) {
+		if(pathCount==0 || pathCount%interval!=0) return;
+		BufferedImage copy=new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g=copy.createGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+		keep(key(boardName,pathCount), new Checkpoint(copy, lastPath));
+	}
+
+	/**
+	 * Keep a checkpoint, evicting the least recently used beyond the memory
+	 * limit.
+	 */
+	private synchronized void keep(String key, Checkpoint checkpoint) {
+		Checkpoint old=checkpoints.put(key, checkpoint);
+		if(old!=null) memory-=old.bytes();
+		memory+=checkpoint.bytes();
+		Iterator<Checkpoint> it=checkpoints.values().iterator();
+		while(memory>memoryLimit && it.hasNext()) {
+			memory-=it.next().bytes();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Remove the checkpoints of a board and of its tiles, e.g. when it is
+	 * deleted.
+	 * @param boardName
+	 */
+	public synchronized void remove(String boardName) {
+		Iterator<Map.Entry<String, Checkpoint>> it=checkpoints.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<String, Checkpoint> entry=it.next();
+			if(entry.getKey().startsWith(boardName+"#") || entry.getKey().startsWith(boardName+"@")) {
+				memory-=entry.getValue().bytes();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Remove all checkpoints.
+	 */
+	public synchronized void clear() {
+		checkpoints.clear();
+		memory=0;
+		log.fine("checkpoints cleared");
+	}
+
+	/**
+	 *
+	 * @return bytes of checkpoint images kept
+	 */
+	public synchronized long getMemory() {
+		return memory;
+	}
+
+	/**
+	 *
+	 * @return number of checkpoints kept
+	 */
+	public synchronized int size() {
+		return checkpoints.size();
+	}
+
+	/**
+	 *
+	 * @return number of renders that started from a checkpoint
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 *
+	 * @return number of renders that started from a blank image
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 *
+	 * @param boardName
+	 * @param zoom zoom level the tile is drawn at
+	 * @param tx column of the tile
+	 * @param ty row of the tile
+	 * @return the name to keep checkpoints of a tile of a board under
+	 */
+	public static String tileKey(String boardName, int zoom, int tx, int ty) {
+		return boardName+"@"+zoom+":"+tx+","+ty;
+	}
+
+	private static String key(String boardName, int pathCount) {
+		return boardName+"#"+pathCount;
+	}
+}
@@ -1,109 +1,330 @@
 package pb.app;
 
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
 import java.awt.Color;
+import java.awt.Composite;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.event.MouseMotionAdapter;
+import java.awt.event.MouseWheelEvent;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Logger;
 
 import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 /**
  * Initial code obtained from:
  * https://www.ssaurel.com/blog/learn-how-to-make-a-swing-painting-and-drawing-application/
- * 
- * You probably don't need to modify this class.
+ * <br/>
+ * The board is painted from a {@link TiledCanvas}, which draws the tiles of
+ * the board as they are painted and keeps them, so only the tiles in the
+ * region being repainted are ever drawn. Changes to the board are applied to
+ * the tiles they touch, see {@link #apply(String, WhiteboardOp)}, and only
+ * the region they changed is repainted, as is only the new segment of the
+ * path being drawn. The path being drawn and the paths being drawn by other
+ * peers are not part of the board, so they are painted over the tiles.
+ * Tiles that are not drawn yet are drawn in parallel in the background, and
+ * what was painted before is shown until they are ready, so redrawing a big
+ * board, e.g. when it is selected, doesn't block the GUI thread.
+ * <br/>
+ * The draw area is a viewport on the board: dragging with the right or
+ * middle button pans it, and the mouse wheel zooms in and out around the
+ * cursor, by powers of two. Points are drawn in board coordinates whatever
+ * the viewport.
  */
 @SuppressWarnings("serial")
 public class DrawArea extends JComponent {
 	private static Logger log = Logger.getLogger(DrawArea.class.getName());
-
-	// Image in which we're going to draw
-	private Image image;
-	// Graphics2D object ==> used to draw on
-	private Graphics2D g2;
+	
 	// Mouse coordinates
 	private int currentX, currentY, oldX, oldY;
 	
 	private WhiteboardPath currentPath;
 	
+	// View coordinates at the top left of the draw area, see TiledCanvas
+	private int panX, panY;
+	
+	// Whether the viewport is being dragged
+	private boolean panning;
+	
+	// Images of tiles after every so many paths, to redraw them from
+	private final CheckpointCache checkpoints=new CheckpointCache();
+	
+	// Tiles of the board drawn
+	private final TiledCanvas canvas=new TiledCanvas(checkpoints);
+	
+	// Paths being drawn by other peers
+	private volatile List<WhiteboardPath> provisionalPaths=Collections.emptyList();
+	
+	private final WhiteboardApp whiteboardApp;
+	
+	// Id of the current path for its fragments, and how many of its points have been sent
+	private String strokeId;
+	private int sentPoints;
+	
+	// Sends fragments of the current path while it is drawn
+	private final Timer fragmentTimer;
+	
 	private Color currentColor=Color.black;
 	
 	public DrawArea(WhiteboardApp whiteboardApp) {
 		setDoubleBuffered(false);
-		addMouseListener(new MouseAdapter() {
+		this.whiteboardApp = whiteboardApp;
+		// tiles are drawn off the GUI thread, and repainted when they are ready
+		canvas.setRepaintListener(this::repaintView);
+		fragmentTimer = new Timer(Math.max(1, WhiteboardCore.fragmentInterval), (e)->{
+			sendFragment(whiteboardApp);
+		});
+		MouseAdapter mouse = new MouseAdapter() {
 			public void mousePressed(MouseEvent e) {
+				if (!SwingUtilities.isLeftMouseButton(e)) {
+					// drag the viewport
+					panning = true;
+					oldX = e.getX();
+					oldY = e.getY();
+					return;
+				}
 				// save coord x,y when mouse is pressed
-				oldX = e.getX();
-				oldY = e.getY();
+				oldX = toBoardX(e.getX());
+				oldY = toBoardY(e.getY());
 				currentPath = new WhiteboardPath(currentColor);
 				currentPath.addPoint(oldX, oldY);
-				if(g2!=null) {
-					g2.setPaint(currentColor);
+				strokeId = whiteboardApp.newStrokeId();
+				sentPoints = 0;
+				if(WhiteboardCore.fragmentInterval>0) {
+					fragmentTimer.start();
 				}
 			}
 			
 			public void mouseReleased(MouseEvent e) {
+				if (panning) {
+					panning = false;
+					return;
+				}
+				fragmentTimer.stop();
 				if(currentPath!=null && currentPath.length()>1) {
+					// send the last points, so the path is shown up to its end
+					if(WhiteboardCore.fragmentInterval>0) {
+						sendFragment(whiteboardApp);
+					}
 					// a path has been created
 					log.info("path created: "+currentPath.toString());
 					whiteboardApp.pathCreatedLocally(currentPath);
-					currentPath=null;
 				}
+				if(currentPath!=null) {
+					repaint(currentPath.getBounds());
+				}
+				currentPath=null;
 			}
-		});
-
-		addMouseMotionListener(new MouseMotionAdapter() {
+			
 			public void mouseDragged(MouseEvent e) {
-				currentX = e.getX();
-				currentY = e.getY();
-				if (g2 != null) {
-					g2.drawLine(oldX, oldY, currentX, currentY);
+				if (panning) {
+					panX -= e.getX() - oldX;
+					panY -= e.getY() - oldY;
+					oldX = e.getX();
+					oldY = e.getY();
 					repaint();
+					return;
+				}
+				currentX = toBoardX(e.getX());
+				currentY = toBoardY(e.getY());
+				if (currentPath != null) {
+					// only the new segment needs painting
+					repaint(new Bounds(Math.min(oldX, currentX), Math.min(oldY, currentY),
+							Math.max(oldX, currentX), Math.max(oldY, currentY)));
 					oldX = currentX;
 					oldY = currentY;
 					currentPath.addPoint(oldX, oldY);
 				}
 			}
-		});
+			
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				if (currentPath == null && !panning) {
+					zoom(canvas.getZoom() - e.getWheelRotation(), e.getX(), e.getY());
+				}
+			}
+		};
+		addMouseListener(mouse);
+		addMouseMotionListener(mouse);
+		addMouseWheelListener(mouse);
 	}
 
 	protected void paintComponent(Graphics g) {
-		if (image == null) {
-			image = createImage(getSize().width, getSize().height);
-			g2 = (Graphics2D) image.getGraphics();
-			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-			clear();
+		Rectangle clip = g.getClipBounds();
+		if (clip == null) {
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
 		}
-
-		g.drawImage(image, 0, 0, null);
+		if (clip.isEmpty()) return;
+		Graphics2D view = (Graphics2D) g.create();
+		view.translate(-panX, -panY);
+		canvas.paint(view, new Bounds(clip.x + panX, clip.y + panY,
+				clip.x + panX + clip.width - 1, clip.y + panY + clip.height - 1));
+		
+		// the overlays are drawn like the tiles, only where they show
+		Bounds visible = canvas.toBoard(new Bounds(clip.x + panX, clip.y + panY,
+				clip.x + panX + clip.width - 1, clip.y + panY + clip.height - 1));
+		double scale = canvas.getScale();
+		int level = canvas.getLevelOfDetail();
+		Graphics2D overlay = view;
+		overlay.scale(scale, scale);
+		overlay.setStroke(new BasicStroke((float)Math.max(1, 1/scale)));
+		overlay.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		List<WhiteboardPath> provisional = provisionalPaths;
+		if (!provisional.isEmpty()) {
+			Composite composite = overlay.getComposite();
+			overlay.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.5f));
+			for (WhiteboardPath path : provisional) {
+				Bounds bounds = path.getBounds();
+				if (bounds != null && bounds.intersects(visible)) {
+					path.getLevelOfDetail(level).drawOnBoard(overlay);
+				}
+			}
+			overlay.setComposite(composite);
+		}
+		WhiteboardPath current = currentPath;
+		if (current != null) {
+			current.drawOnBoard(overlay);
+		}
+		view.dispose();
+	}
+	
+	/**
+	 * Draw a board, replacing what was drawn. Its tiles are drawn from the
+	 * board when they are painted.
+	 * @param board the board, or null to just clear the draw area
+	 */
+	public void redraw(Whiteboard board) {
+		canvas.setBoard(board);
+		repaint();
+	}
+	
+	/**
+	 * Zoom in or out, keeping the board point under a point of the draw area
+	 * where it is.
+	 * @param zoom the zoom level, see {@link TiledCanvas#setZoom(int)}
+	 * @param x
+	 * @param y
+	 */
+	public void zoom(int zoom, int x, int y) {
+		double oldScale = canvas.getScale();
+		if (!canvas.setZoom(zoom)) return;
+		double ratio = canvas.getScale() / oldScale;
+		panX = (int) Math.round((x + panX) * ratio) - x;
+		panY = (int) Math.round((y + panY) * ratio) - y;
+		log.fine("zoomed to scale "+canvas.getScale());
+		repaint();
 	}
 	
 	/**
-	 * Draw a whiteboard path on the board.
-	 * @param whiteboardPath
+	 * Show the board at scale 1, with the board origin at the top left.
 	 */
-	public void drawPath(WhiteboardPath whiteboardPath) {
-		whiteboardPath.drawOnBoard(g2);
+	public void resetView() {
+		canvas.setZoom(0);
+		panX = 0;
+		panY = 0;
 		repaint();
 	}
+	
+	/**
+	 * Forget the checkpoints of a board, e.g. when it is deleted.
+	 * @param boardName
+	 */
+	public void forgetBoard(String boardName) {
+		checkpoints.remove(boardName);
+	}
+	
+	/**
+	 * Apply a change to a board to the tiles it touches, if the board is
+	 * drawn, and repaint the region it changed.
+	 * @param boardName
+	 * @param op the change, already applied to the board
+	 * @return true if the draw area is up to date with the change, false if
+	 * the board is not the one drawn
+	 */
+	public boolean apply(String boardName, WhiteboardOp op) {
+		Bounds changed;
+		synchronized (canvas) {
+			if (!canvas.shows(boardName)) return false;
+			changed = canvas.apply(op);
+		}
+		if (changed != null) {
+			repaintView(changed);
+		}
+		return true;
+	}
+	
+	/**
+	 * Set the paths being drawn by other peers, painted half transparent over
+	 * the board.
+	 * @param paths
+	 */
+	public void setProvisionalPaths(List<WhiteboardPath> paths) {
+		List<WhiteboardPath> old = provisionalPaths;
+		provisionalPaths = paths;
+		Bounds changed = null;
+		for (List<WhiteboardPath> list : Arrays.asList(old, paths)) {
+			for (WhiteboardPath path : list) {
+				Bounds bounds = path.getBounds();
+				if (bounds != null) {
+					changed = changed == null ? bounds : changed.union(bounds);
+				}
+			}
+		}
+		if (changed != null) {
+			repaint(changed);
+		}
+	}
+	
+	/**
+	 * Repaint a region of the board, with room for the lines in it.
+	 */
+	private void repaint(Bounds bounds) {
+		if (bounds == null) return;
+		repaintView(canvas.toView(bounds));
+	}
+	
+	/**
+	 * Repaint a region in view coordinates.
+	 */
+	private void repaintView(Bounds bounds) {
+		repaint(bounds.minX - panX, bounds.minY - panY,
+				bounds.maxX - bounds.minX + 1, bounds.maxY - bounds.minY + 1);
+	}
+	
+	private int toBoardX(int x) {
+		return (int) Math.floor((x + panX) / canvas.getScale());
+	}
+	
+	private int toBoardY(int y) {
+		return (int) Math.floor((y + panY) / canvas.getScale());
+	}
+	
+	/**
+	 * Send the points of the current path drawn since the last fragment.
+	 */
+	private void sendFragment(WhiteboardApp whiteboardApp) {
+		if(currentPath==null || currentPath.length()==sentPoints) return;
+		WhiteboardPath fragment=WhiteboardPath.ofColor(currentPath.getColorName());
+		fragment.addPoints(currentPath.getCoordinates(), 2*sentPoints, currentPath.length()-sentPoints);
+		sentPoints=currentPath.length();
+		whiteboardApp.pathFragmentLocally(strokeId, fragment);
+	}
 
 	// now we create exposed methods
 	public void clear() {
-		if(g2!=null) {
-			g2.setPaint(Color.white);
-			// draw white on entire draw area to clear
-			g2.fillRect(0, 0, getSize().width, getSize().height);
-			repaint();
-		}
+		redraw(null);
 	}
 
 	public void setColor(Color color) {
 		currentColor=color;
 	}
 
-}
\ No newline at end of file
+}
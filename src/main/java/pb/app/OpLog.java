@@ -0,0 +1,187 @@
+package pb.app;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The operations applied to a board, in order, each kept at the version it
+ * was applied to, so that the changes to the board since a version can be
+ * found, with snapshots of the paths of the board every
+ * {@link #snapshotInterval} operations, so that the paths of the board at a
+ * version can be worked out by replaying only the operations after the
+ * snapshot before it.
+ * <br/>
+ * The log is compacted as it grows: only the last {@link #maxSnapshots}
+ * snapshots are kept, and the operations before the oldest of them are
+ * dropped. A clear compacts the log to start at the clear, since nothing
+ * before it is needed to work out the board after it. The intervals are set
+ * by the system properties {@code pb.oplog.snapshot}, by default every 1000
+ * operations, and {@code pb.oplog.snapshots}, by default 4.
+ * <br/>
+ * Not thread safe, the board locks it.
+ */
+class OpLog {
+
+	/**
+	 * Operations between snapshots.
+	 */
+	static final int snapshotInterval = Math.max(1, Integer.getInteger("pb.oplog.snapshot", 1000));
+
+	/**
+	 * Snapshots to keep, with the operations since the oldest of them.
+	 */
+	static final int maxSnapshots = Math.max(1, Integer.getInteger("pb.oplog.snapshots", 4));
+
+	private static final WhiteboardPath[] noPaths = new WhiteboardPath[0];
+
+	/**
+	 * The paths of the board at a version.
+	 */
+	private static class Snapshot {
+		final long version;
+		final WhiteboardPath[] paths;
+
+		Snapshot(long version, WhiteboardPath[] paths) {
+			this.version=version;
+			this.paths=paths;
+		}
+	}
+
+	/**
+	 * Operations kept, the first applied to {@link #firstVersion}.
+	 */
+	private final ArrayList<WhiteboardOp> ops=new ArrayList<>();
+
+	/**
+	 * Snapshots kept, oldest first, none older than {@link #firstVersion}.
+	 */
+	private final ArrayDeque<Snapshot> snapshots=new ArrayDeque<>();
+
+	/**
+	 * Version of the board that the first operation kept applied to.
+	 */
+	private long firstVersion;
+
+	/**
+	 * Initialise the log of an empty board at version 0.
+	 */
+	OpLog() {
+		reset(0, Arrays.asList(noPaths));
+	}
+
+	/**
+	 * Forget all operations, starting again from a board, e.g. one received
+	 * from another peer.
+	 * @param version the version of the board
+	 * @param paths the paths of the board
+	 */
+	void reset(long version, List<WhiteboardPath> paths) {
+		ops.clear();
+		snapshots.clear();
+		firstVersion=version;
+		snapshots.add(new Snapshot(version, paths.toArray(noPaths)));
+	}
+
+	/**
+	 * Add an operation just applied to the board.
+	 * @param op the operation, applied to {@link #getVersion()}
+	 * @param paths the paths of the board after the operation
+	 */
+	void append(WhiteboardOp op, List<WhiteboardPath> paths) {
+		if(op.getType()==WhiteboardOp.Type.CLEAR) {
+			// nothing before the clear is needed to work out the board after it
+			ops.clear();
+			snapshots.clear();
+			firstVersion=op.getBaseVersion();
+			ops.add(op);
+			snapshots.add(new Snapshot(getVersion(), noPaths));
+			return;
+		}
+		ops.add(op);
+		if(getVersion()-snapshots.getLast().version>=snapshotInterval) {
+			snapshots.add(new Snapshot(getVersion(), paths.toArray(noPaths)));
+			if(snapshots.size()>maxSnapshots) {
+				compact();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the version of the board after the last operation
+	 */
+	long getVersion() {
+		return firstVersion+ops.size();
+	}
+
+	/**
+	 *
+	 * @return the oldest version that the operations since it are kept for
+	 */
+	long getFirstVersion() {
+		return firstVersion;
+	}
+
+	/**
+	 *
+	 * @return number of operations kept
+	 */
+	int size() {
+		return ops.size();
+	}
+
+	/**
+	 * Get the operations applied since a version.
+	 * @param version
+	 * @return the operations in the order they were applied, the first
+	 * applied to the version, or null if they are not kept
+	 */
+	List<WhiteboardOp> opsSince(long version) {
+		if(version<firstVersion || version>getVersion()) return null;
+		return new ArrayList<>(ops.subList((int)(version-firstVersion), ops.size()));
+	}
+
+	/**
+	 * Work out the paths of the board at a version, from the latest snapshot
+	 * at or before it and the operations after the snapshot.
+	 * @param version
+	 * @return the paths, in order, or null if the version can't be worked out
+	 */
+	List<WhiteboardPath> pathsAt(long version) {
+		if(version>getVersion()) return null;
+		Snapshot from=null;
+		for(Snapshot snapshot : snapshots) {
+			if(snapshot.version>version) break;
+			from=snapshot;
+		}
+		if(from==null) return null;
+		ArrayList<WhiteboardPath> paths=new ArrayList<>(Arrays.asList(from.paths));
+		for(long v=from.version;v<version;v++) {
+			WhiteboardOp op=ops.get((int)(v-firstVersion));
+			switch(op.getType()) {
+			case ADD_PATH:
+				paths.add(op.getPath());
+				break;
+			case UNDO:
+				if(!paths.isEmpty()) paths.remove(paths.size()-1);
+				break;
+			case CLEAR:
+				paths.clear();
+				break;
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * Drop the oldest snapshot and the operations before the snapshot after it.
+	 */
+	private void compact() {
+		snapshots.removeFirst();
+		long oldest=snapshots.getFirst().version;
+		ops.subList(0, (int)(oldest-firstVersion)).clear();
+		firstVersion=oldest;
+	}
+}
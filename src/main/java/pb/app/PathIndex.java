@@ -0,0 +1,225 @@
+package pb.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A quadtree of the bounding boxes of the paths of a board, so that the
+ * paths in a region, or near a point, can be found without looking at every
+ * path. Each path is kept in the smallest node whose square contains its
+ * bounding box, and a node is split into four when it has more than
+ * {@link #nodeCapacity} paths. The root square starts at (0,0) and doubles
+ * in size to take in paths outside it, so paths can be anywhere.
+ * <br/>
+ * Paths are kept with their position on the board, so that queries return
+ * them in the order they are drawn. Not thread safe, the board locks it.
+ */
+class PathIndex {
+
+	/**
+	 * Paths in a node before it is split.
+	 */
+	static final int nodeCapacity = 8;
+
+	/**
+	 * Size of the root square to start with.
+	 */
+	private static final int initialSize = 1024;
+
+	/**
+	 * Nodes no smaller than this are split.
+	 */
+	private static final int minNodeSize = 8;
+
+	/**
+	 * A path and its position on the board.
+	 */
+	static class Entry {
+		final WhiteboardPath path;
+		final Bounds bounds;
+		final int position;
+
+		Entry(WhiteboardPath path, Bounds bounds, int position) {
+			this.path=path;
+			this.bounds=bounds;
+			this.position=position;
+		}
+	}
+
+	/**
+	 * A square of the board, from (x,y) to (x+size-1,y+size-1).
+	 */
+	private static class Node {
+		final long x;
+		final long y;
+		final long size;
+		final List<Entry> entries=new ArrayList<>(2);
+		Node[] children;
+
+		Node(long x, long y, long size) {
+			this.x=x;
+			this.y=y;
+			this.size=size;
+		}
+
+		boolean contains(Bounds b) {
+			return x<=b.minX && b.maxX<x+size && y<=b.minY && b.maxY<y+size;
+		}
+
+		boolean intersects(Bounds b) {
+			return x<=b.maxX && b.minX<x+size && y<=b.maxY && b.minY<y+size;
+		}
+
+		/**
+		 * @return the index of the child whose square contains the bounds, or -1
+		 */
+		int childFor(Bounds b) {
+			long half=size/2;
+			int col, row;
+			if(b.maxX<x+half) col=0;
+			else if(b.minX>=x+half) col=1;
+			else return -1;
+			if(b.maxY<y+half) row=0;
+			else if(b.minY>=y+half) row=1;
+			else return -1;
+			return row*2+col;
+		}
+
+		Node child(int i) {
+			if(children[i]==null) {
+				long half=size/2;
+				children[i]=new Node(x+(i%2)*half, y+(i/2)*half, half);
+			}
+			return children[i];
+		}
+	}
+
+	private Node root=new Node(0, 0, initialSize);
+
+	private int size=0;
+
+	/**
+	 * Add a path.
+	 * @param path
+	 * @param position of the path on the board
+	 */
+	void add(WhiteboardPath path, int position) {
+		Bounds bounds=path.getBounds();
+		if(bounds==null) return;
+		while(!root.contains(bounds)) grow(bounds);
+		insert(root, new Entry(path, bounds, position));
+		size++;
+	}
+
+	/**
+	 * Remove a path.
+	 * @param path
+	 * @return true if the path was found and removed
+	 */
+	boolean remove(WhiteboardPath path) {
+		Bounds bounds=path.getBounds();
+		if(bounds==null || !root.contains(bounds)) return false;
+		Node node=root;
+		while(true) {
+			for(int i=0;i<node.entries.size();i++) {
+				if(node.entries.get(i).path==path) {
+					node.entries.remove(i);
+					size--;
+					return true;
+				}
+			}
+			int child=node.children==null ? -1 : node.childFor(bounds);
+			if(child<0 || node.children[child]==null) return false;
+			node=node.children[child];
+		}
+	}
+
+	/**
+	 * Remove all paths.
+	 */
+	void clear() {
+		root=new Node(0, 0, initialSize);
+		size=0;
+	}
+
+	/**
+	 *
+	 * @return number of paths in the index
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Find the paths whose bounding boxes intersect a region.
+	 * @param region
+	 * @param result the paths found are added to it, in no particular order
+	 */
+	void query(Bounds region, List<Entry> result) {
+		query(root, region, result);
+	}
+
+	private static void query(Node node, Bounds region, List<Entry> result) {
+		if(!node.intersects(region)) return;
+		for(Entry entry : node.entries) {
+			if(entry.bounds.intersects(region)) result.add(entry);
+		}
+		if(node.children!=null) {
+			for(Node child : node.children) {
+				if(child!=null) query(child, region, result);
+			}
+		}
+	}
+
+	private static void insert(Node node, Entry entry) {
+		while(true) {
+			if(node.children!=null) {
+				int child=node.childFor(entry.bounds);
+				if(child>=0) {
+					node=node.child(child);
+					continue;
+				}
+			}
+			node.entries.add(entry);
+			if(node.children==null && node.entries.size()>nodeCapacity && node.size>=2*minNodeSize) {
+				split(node);
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Move the entries of a node that fit in one of its quarters down to it.
+	 */
+	private static void split(Node node) {
+		node.children=new Node[4];
+		List<Entry> entries=new ArrayList<>(node.entries);
+		node.entries.clear();
+		for(Entry entry : entries) {
+			int child=node.childFor(entry.bounds);
+			if(child>=0) insert(node.child(child), entry);
+			else node.entries.add(entry);
+		}
+	}
+
+	/**
+	 * Double the root square towards the bounds, keeping the old root as
+	 * one of its quarters.
+	 */
+	private void grow(Bounds bounds) {
+		long x=root.x, y=root.y, size=root.size;
+		int col=0, row=0;
+		if(bounds.minX<x) {
+			x-=size;
+			col=1;
+		}
+		if(bounds.minY<y) {
+			y-=size;
+			row=1;
+		}
+		Node grown=new Node(x, y, 2*size);
+		grown.children=new Node[4];
+		grown.children[row*2+col]=root;
+		root=grown;
+	}
+}
@@ -0,0 +1,169 @@
+package pb.app;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Simplifies paths drawn with the mouse, which has a point for every mouse
+ * motion sample, so that a slow stroke can have thousands of nearly
+ * collinear points. Uses the Ramer-Douglas-Peucker algorithm: the first and
+ * last points are kept, and the point furthest from the line between them is
+ * kept if it is more than the tolerance away from it, recursively on either
+ * side of it. No point of the original path is more than the tolerance from
+ * the simplified path.
+ * <br/>
+ * The tolerance in pixels is set by the system property
+ * {@code pb.paths.tolerance}, by default 1, and 0 turns simplification off.
+ * The number of points before and after simplification are counted, so that
+ * the reduction can be weighed against the fidelity of the strokes.
+ */
+public class PathSimplifier {
+	private static Logger log = Logger.getLogger(PathSimplifier.class.getName());
+
+	/**
+	 * The default tolerance, set by the system property {@code pb.paths.tolerance}.
+	 */
+	public static final double defaultTolerance = getDefaultTolerance();
+
+	private final double tolerance;
+
+	/**
+	 * Points in the paths given to be simplified.
+	 */
+	private long pointsIn=0;
+
+	/**
+	 * Points in the simplified paths.
+	 */
+	private long pointsOut=0;
+
+	/**
+	 * Initialise with the default tolerance.
+	 */
+	public PathSimplifier() {
+		this(defaultTolerance);
+	}
+
+	/**
+	 * Initialise the simplifier.
+	 * @param tolerance in pixels, 0 to not simplify
+	 */
+	public PathSimplifier(double tolerance) {
+		this.tolerance=tolerance;
+	}
+
+	/**
+	 * Simplify a path, logging the reduction.
+	 * @param path
+	 * @return the simplified path, or the path itself if no points were removed
+	 */
+	public WhiteboardPath simplify(WhiteboardPath path) {
+		WhiteboardPath simplified=simplify(path,tolerance);
+		synchronized(this) {
+			pointsIn+=path.length();
+			pointsOut+=simplified.length();
+		}
+		log.info("path simplified from "+path.length()+" to "+simplified.length()
+				+" points, "+String.format("%.1f",getReductionRatio())+"x overall");
+		return simplified;
+	}
+
+	/**
+	 *
+	 * @return the tolerance in pixels
+	 */
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 *
+	 * @return points in over points out of all paths simplified so far, 1 if none
+	 */
+	public synchronized double getReductionRatio() {
+		return pointsOut==0 ? 1 : (double)pointsIn/pointsOut;
+	}
+
+	/**
+	 * Simplify a path.
+	 * @param path
+	 * @param tolerance in pixels
+	 * @return the simplified path, or the path itself if no points were removed
+	 */
+	public static WhiteboardPath simplify(WhiteboardPath path, double tolerance) {
+		int n=path.length();
+		if(n<=2 || tolerance<=0) return path;
+		int[] coords=path.coords;
+		boolean[] keep=new boolean[n];
+		keep[0]=true;
+		keep[n-1]=true;
+		int kept=2;
+		double tolerance2=tolerance*tolerance;
+		// ranges still to be simplified, as first,last pairs
+		int[] stack=new int[64];
+		int top=0;
+		stack[top++]=0;
+		stack[top++]=n-1;
+		while(top>0) {
+			int last=stack[--top];
+			int first=stack[--top];
+			int furthest=-1;
+			double furthest2=tolerance2;
+			for(int i=first+1;i<last;i++) {
+				double d2=distance2(coords,i,first,last);
+				if(d2>furthest2) {
+					furthest=i;
+					furthest2=d2;
+				}
+			}
+			if(furthest<0) continue;
+			keep[furthest]=true;
+			kept++;
+			if(top+4>stack.length) stack=Arrays.copyOf(stack,2*stack.length);
+			if(furthest-first>1) {
+				stack[top++]=first;
+				stack[top++]=furthest;
+			}
+			if(last-furthest>1) {
+				stack[top++]=furthest;
+				stack[top++]=last;
+			}
+		}
+		if(kept==n) return path;
+		WhiteboardPath simplified=WhiteboardPath.ofColor(path.getColorName());
+		int[] simplifiedCoords=new int[2*kept];
+		int j=0;
+		for(int i=0;i<n;i++) {
+			if(keep[i]) {
+				simplifiedCoords[j++]=coords[2*i];
+				simplifiedCoords[j++]=coords[2*i+1];
+			}
+		}
+		simplified.addPoints(simplifiedCoords,0,kept);
+		return simplified;
+	}
+
+	/**
+	 * @return the square of the distance from point i to the line segment
+	 * from point first to point last
+	 */
+	private static double distance2(int[] coords, int i, int first, int last) {
+		double x=coords[2*i], y=coords[2*i+1];
+		double x1=coords[2*first], y1=coords[2*first+1];
+		double dx=coords[2*last]-x1, dy=coords[2*last+1]-y1;
+		double length2=dx*dx+dy*dy;
+		double t=length2==0 ? 0 : Math.max(0,Math.min(1,((x-x1)*dx+(y-y1)*dy)/length2));
+		double px=x1+t*dx-x, py=y1+t*dy-y;
+		return px*px+py*py;
+	}
+
+	private static double getDefaultTolerance() {
+		String tolerance=System.getProperty("pb.paths.tolerance","1");
+		try {
+			return Double.parseDouble(tolerance);
+		} catch (NumberFormatException e) {
+			log.warning("invalid pb.paths.tolerance "+tolerance+", using 1");
+			return 1;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package pb.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import javax.swing.Timer;
+
+/**
+ * Draws changes to boards on the event dispatch thread, at most once per
+ * frame. Changes are marked from any thread, e.g. the endpoint threads that
+ * receive them, and are queued until the next frame, when they are all
+ * drawn together: a burst of changes costs one repaint rather than one each,
+ * and Swing is never touched from another thread.
+ * <br/>
+ * A frame applies the queued board changes in order, unless the board must
+ * be redrawn, e.g. because it was selected or a change could not be
+ * applied, in which case the board is redrawn once and the queued changes
+ * are dropped, since the redraw has them. The frame interval in milliseconds
+ * is set by the system property {@code pb.render.frame}, by default 16, about
+ * 60 frames per second.
+ */
+public class RenderScheduler implements RenderSchedulerMXBean {
+	private static Logger log = Logger.getLogger(RenderScheduler.class.getName());
+
+	/**
+	 * Least milliseconds between frames.
+	 */
+	public static final int frameInterval = Math.max(1, Integer.getInteger("pb.render.frame", 16));
+
+	/**
+	 * A change to a board to draw.
+	 */
+	private static class Change {
+		final String boardName;
+		final WhiteboardOp op;
+
+		Change(String boardName, WhiteboardOp op) {
+			this.boardName=boardName;
+			this.op=op;
+		}
+	}
+
+	/**
+	 * Draws a change to a board, returning false if the board must be
+	 * redrawn instead.
+	 */
+	private final BiPredicate<String, WhiteboardOp> apply;
+
+	/**
+	 * Redraws the selected board.
+	 */
+	private final Runnable redraw;
+
+	/**
+	 * Draws the paths being drawn on a board by other peers.
+	 */
+	private final Consumer<String> provisional;
+
+	private final Timer timer;
+
+	/*
+	 * What the next frame draws, guarded by this.
+	 */
+
+	private List<Change> changes=new ArrayList<>();
+	private boolean redrawNeeded=false;
+	private String provisionalBoard=null;
+	private int marked=0;
+	private boolean scheduled=false;
+	private long lastFrame=0;
+
+	/*
+	 * Counters, guarded by this.
+	 */
+
+	private long totalChanges=0;
+	private long frames=0;
+	private long coalescedFrames=0;
+	private long coalescedChanges=0;
+	private long droppedChanges=0;
+	private long redraws=0;
+	private long maxChangesPerFrame=0;
+
+	/**
+	 * Initialise the scheduler.
+	 * @param apply draws a change to a board, returning false if the board
+	 * must be redrawn instead
+	 * @param redraw redraws the selected board
+	 * @param provisional draws the paths being drawn on a board by other peers
+	 */
+	public RenderScheduler(BiPredicate<String, WhiteboardOp> apply, Runnable redraw,
+			Consumer<String> provisional) {
+		this.apply=apply;
+		this.redraw=redraw;
+		this.provisional=provisional;
+		timer=new Timer(frameInterval, (e)->{
+			frame();
+		});
+		timer.setRepeats(false);
+	}
+
+	/**
+	 * Mark a change to a board to be drawn in the next frame.
+	 * @param boardName
+	 * @param op the change, already applied to the board, or null if the
+	 * board must be redrawn
+	 */
+	public synchronized void boardChanged(String boardName, WhiteboardOp op) {
+		if(op==null) redrawNeeded=true;
+		else changes.add(new Change(boardName, op));
+		mark();
+	}
+
+	/**
+	 * Mark the whole selected board to be redrawn in the next frame.
+	 */
+	public synchronized void redraw() {
+		redrawNeeded=true;
+		mark();
+	}
+
+	/**
+	 * Mark the paths being drawn on a board by other peers to be drawn in
+	 * the next frame.
+	 * @param boardName
+	 */
+	public synchronized void provisionalChanged(String boardName) {
+		provisionalBoard=boardName;
+		mark();
+	}
+
+	/**
+	 * Count a change and schedule a frame for it, if there isn't one
+	 * already, as soon as a frame interval has passed since the last one.
+	 */
+	private void mark() {
+		marked++;
+		totalChanges++;
+		if(scheduled) return;
+		scheduled=true;
+		long wait=lastFrame+frameInterval-System.currentTimeMillis();
+		timer.setInitialDelay((int)Math.max(0, Math.min(frameInterval, wait)));
+		timer.restart();
+	}
+
+	/**
+	 * Draw everything marked since the last frame, on the event dispatch
+	 * thread.
+	 */
+	private void frame() {
+		List<Change> frameChanges;
+		boolean frameRedraw;
+		String frameProvisional;
+		int frameMarked;
+		synchronized(this) {
+			frameChanges=changes;
+			frameRedraw=redrawNeeded;
+			frameProvisional=provisionalBoard;
+			frameMarked=marked;
+			changes=new ArrayList<>();
+			redrawNeeded=false;
+			provisionalBoard=null;
+			marked=0;
+			scheduled=false;
+			lastFrame=System.currentTimeMillis();
+		}
+		int dropped=0;
+		if(!frameRedraw) {
+			for(int i=0;i<frameChanges.size();i++) {
+				Change change=frameChanges.get(i);
+				if(!apply.test(change.boardName, change.op)) {
+					// the redraw has this change and the ones after it
+					frameRedraw=true;
+					dropped=frameChanges.size()-i-1;
+					break;
+				}
+			}
+		} else {
+			dropped=frameChanges.size();
+		}
+		if(frameRedraw) {
+			// the redraw draws the paths being drawn as well
+			redraw.run();
+		} else if(frameProvisional!=null) {
+			provisional.accept(frameProvisional);
+		}
+		synchronized(this) {
+			frames++;
+			if(frameMarked>1) coalescedFrames++;
+			coalescedChanges+=Math.max(0, frameMarked-1);
+			droppedChanges+=dropped;
+			if(frameRedraw) redraws++;
+			maxChangesPerFrame=Math.max(maxChangesPerFrame, frameMarked);
+		}
+		if(frameMarked>1) {
+			log.fine("frame drew "+frameMarked+" changes"+(frameRedraw ? ", redrawing the board" : ""));
+		}
+	}
+
+	@Override
+	public synchronized long getChanges() {
+		return totalChanges;
+	}
+
+	@Override
+	public synchronized long getFrames() {
+		return frames;
+	}
+
+	@Override
+	public synchronized long getCoalescedFrames() {
+		return coalescedFrames;
+	}
+
+	@Override
+	public synchronized long getCoalescedChanges() {
+		return coalescedChanges;
+	}
+
+	@Override
+	public synchronized long getDroppedChanges() {
+		return droppedChanges;
+	}
+
+	@Override
+	public synchronized long getRedraws() {
+		return redraws;
+	}
+
+	@Override
+	public synchronized long getMaxChangesPerFrame() {
+		return maxChangesPerFrame;
+	}
+}
@@ -0,0 +1,53 @@
+package pb.app;
+
+/**
+ * Counters for the frames drawn by a whiteboard peer's user interface,
+ * published over JMX under the name {@code pb:type=RenderScheduler,port=<peer port>}.
+ *
+ * @see {@link pb.app.RenderScheduler}
+ */
+public interface RenderSchedulerMXBean {
+
+	/**
+	 *
+	 * @return changes to draw that have been marked, from any thread
+	 */
+	public long getChanges();
+
+	/**
+	 *
+	 * @return frames drawn on the event dispatch thread
+	 */
+	public long getFrames();
+
+	/**
+	 *
+	 * @return frames that drew more than one change
+	 */
+	public long getCoalescedFrames();
+
+	/**
+	 *
+	 * @return changes that did not get a frame of their own
+	 */
+	public long getCoalescedChanges();
+
+	/**
+	 *
+	 * @return board changes that were never drawn on their own, because the
+	 * board was redrawn in the same frame
+	 */
+	public long getDroppedChanges();
+
+	/**
+	 *
+	 * @return frames that redrew the whole board
+	 */
+	public long getRedraws();
+
+	/**
+	 *
+	 * @return the most changes drawn in one frame
+	 */
+	public long getMaxChangesPerFrame();
+}
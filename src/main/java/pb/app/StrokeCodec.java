@@ -0,0 +1,194 @@
+package pb.app;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.logging.Logger;
+
+/**
+ * Binary encoding of a {@link WhiteboardPath}, for the wire, for snapshots
+ * and for storage. A stroke is encoded as:
+ * <ul>
+ * <li>a header byte, with the format version in the high 4 bits and the
+ * color in the low 4 bits, 0 for black and 1 for red</li>
+ * <li>the number of points, as a varint</li>
+ * <li>the x and y of the first point, and then the difference in x and y
+ * from each point to the next, as zig-zag varints</li>
+ * </ul>
+ * Varints are 7 bits per byte, least significant first, with the high bit
+ * set on all but the last byte. Zig-zag maps small negative and positive
+ * numbers to small unsigned numbers, so a freehand stroke, whose points are
+ * a few pixels apart, takes about 2 bytes per point instead of about 8 as
+ * text. Strokes are self delimiting, so they can be written one after the
+ * other to a buffer.
+ * <br/>
+ * On the wire a stroke is sent in place of the text form of the path as
+ * {@code $} followed by the stroke in base 64, which doesn't contain the
+ * {@code %} and {@code >} separators of the text forms. Paths received in
+ * either form are understood, but paths are only sent in binary when the
+ * system property {@code pb.paths.binary} is true, since older peers only
+ * understand text.
+ */
+public class StrokeCodec {
+	private static Logger log = Logger.getLogger(StrokeCodec.class.getName());
+
+	/**
+	 * Whether to send paths in binary, set by the system property
+	 * {@code pb.paths.binary}.
+	 */
+	public static final boolean binary = Boolean.getBoolean("pb.paths.binary");
+
+	/**
+	 * Prefix of a binary path on the wire.
+	 */
+	public static final char wirePrefix = '$';
+
+	private static final int formatVersion = 1;
+
+	private static final String[] colors = {"black","red"};
+
+	/**
+	 *
+	 * @param path
+	 * @return an upper bound on the number of bytes to encode the path
+	 */
+	public static int maxEncodedLength(WhiteboardPath path) {
+		// header, count and two coordinates of up to 5 bytes each per point
+		return 1+5+10*path.size;
+	}
+
+	/**
+	 * Encode a path.
+	 * @param path
+	 * @return the encoded path
+	 */
+	public static byte[] encode(WhiteboardPath path) {
+		ByteBuffer buffer=ByteBuffer.allocate(maxEncodedLength(path));
+		encode(path,buffer);
+		byte[] encoded=new byte[buffer.position()];
+		buffer.flip();
+		buffer.get(encoded);
+		return encoded;
+	}
+
+	/**
+	 * Encode a path into a buffer, at its position.
+	 * @param path
+	 * @param buffer with at least {@link #maxEncodedLength(WhiteboardPath)}
+	 * bytes remaining
+	 */
+	public static void encode(WhiteboardPath path, ByteBuffer buffer) {
+		int color=path.color.equals("red") ? 1 : 0;
+		buffer.put((byte)(formatVersion<<4 | color));
+		int[] coords=path.coords;
+		int n=path.size;
+		putVarint(buffer,n);
+		int x=0;
+		int y=0;
+		for(int i=0;i<2*n;i+=2) {
+			putVarint(buffer,zigzag(coords[i]-x));
+			putVarint(buffer,zigzag(coords[i+1]-y));
+			x=coords[i];
+			y=coords[i+1];
+		}
+	}
+
+	/**
+	 * Decode a path.
+	 * @param data
+	 * @return the path
+	 * @throws IllegalArgumentException if the data is not an encoded path
+	 */
+	public static WhiteboardPath decode(byte[] data) {
+		return decode(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Decode a path from a buffer, at its position, leaving the position
+	 * after the path.
+	 * @param buffer
+	 * @return the path
+	 * @throws IllegalArgumentException if the data is not an encoded path
+	 */
+	public static WhiteboardPath decode(ByteBuffer buffer) {
+		try {
+			int header=buffer.get() & 0xff;
+			if(header>>4!=formatVersion || (header & 0xf)>=colors.length) {
+				throw new IllegalArgumentException("unknown stroke header "+header);
+			}
+			int n=getVarint(buffer);
+			// each point takes at least 2 bytes, don't trust a larger count
+			if(n<0 || n>buffer.remaining()/2) {
+				throw new IllegalArgumentException("invalid stroke length "+n);
+			}
+			WhiteboardPath path=WhiteboardPath.ofColor(colors[header & 0xf]);
+			int[] coords=new int[2*n];
+			int x=0;
+			int y=0;
+			for(int i=0;i<2*n;i+=2) {
+				x+=unzigzag(getVarint(buffer));
+				y+=unzigzag(getVarint(buffer));
+				coords[i]=x;
+				coords[i+1]=y;
+			}
+			path.coords=coords;
+			path.size=n;
+			return path;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("truncated stroke");
+		}
+	}
+
+	/**
+	 *
+	 * @param path
+	 * @return the path as sent on the wire in binary, $BASE64
+	 */
+	public static String toWireString(WhiteboardPath path) {
+		return wirePrefix+Base64.getEncoder().encodeToString(encode(path));
+	}
+
+	/**
+	 *
+	 * @param data a path as sent on the wire in binary, $BASE64
+	 * @return the path, or an empty black path if the data is malformed
+	 */
+	public static WhiteboardPath fromWireString(String data) {
+		try {
+			return decode(Base64.getDecoder().decode(data.substring(1)));
+		} catch (IllegalArgumentException e) {
+			log.severe("invalid binary path ["+data+"]: "+e.getMessage());
+			return WhiteboardPath.ofColor("black");
+		}
+	}
+
+	/*
+	 * Private methods for varints.
+	 */
+
+	private static int zigzag(int n) {
+		return (n<<1)^(n>>31);
+	}
+
+	private static int unzigzag(int n) {
+		return (n>>>1)^-(n&1);
+	}
+
+	private static void putVarint(ByteBuffer buffer, int n) {
+		while((n & ~0x7f)!=0) {
+			buffer.put((byte)((n & 0x7f)|0x80));
+			n>>>=7;
+		}
+		buffer.put((byte)n);
+	}
+
+	private static int getVarint(ByteBuffer buffer) {
+		int n=0;
+		for(int shift=0;shift<35;shift+=7) {
+			byte b=buffer.get();
+			n|=(b & 0x7f)<<shift;
+			if(b>=0) return n;
+		}
+		throw new IllegalArgumentException("varint too long");
+	}
+}
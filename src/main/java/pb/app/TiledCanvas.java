@@ -0,0 +1,640 @@
+package pb.app;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * The image of a board, as square tiles of {@link #tileSize} pixels, so that
+ * the board can be any size. Tiles are drawn when they are first painted,
+ * from the paths in them found with {@link Whiteboard#getPathsIn(Bounds)}
+ * and from their latest {@link CheckpointCache checkpoint}, and are evicted
+ * least recently used first when they take more than the memory limit.
+ * <br/>
+ * The board is drawn at a zoom level, at a scale of 2^zoom, and tiles are in
+ * view coordinates, which are board coordinates times the scale. Paths are
+ * drawn at the {@link WhiteboardPath#getLevelOfDetail(int) level of detail}
+ * for the scale, with lines one pixel wide when zoomed out, so drawing a tile
+ * costs about the same at any zoom. Only the paths crossing a tile are drawn
+ * on it, so paths outside the part of the board painted cost nothing.
+ * <br/>
+ * Changes to the board are applied to the tiles they touch: an added path is
+ * drawn on the tiles it crosses, and an undo drops the tiles that the path it
+ * removed crossed, to be drawn again when next painted. Each change returns
+ * the region that must be repainted, so the cost of a change follows the size
+ * of the change rather than the size of the board. If changes were missed,
+ * the few since the tiles were drawn are found in the log of the board, see
+ * {@link Whiteboard#opsSince(long)}, and applied in turn.
+ * <br/>
+ * The tiles missing from a paint are drawn in parallel on a
+ * {@link ForkJoinPool}. With a {@link #setRepaintListener(Consumer) repaint
+ * listener}, e.g. for a component painted on the Swing event thread, they are
+ * drawn in the background: the paint shows what was there before, a dropped
+ * tile or white, and the tiles are swapped in together once all of them are
+ * drawn, and the listener told to repaint them. Without one, a paint waits
+ * for them.
+ * <br/>
+ * The tile size and memory limit are set by the system properties
+ * {@code pb.tiles.size}, by default 256 pixels, and {@code pb.tiles.memory},
+ * by default 32 megabytes, and the number of threads drawing tiles by
+ * {@code pb.render.threads}, by default the number of processors.
+ */
+public class TiledCanvas {
+	private static Logger log = Logger.getLogger(TiledCanvas.class.getName());
+
+	/**
+	 * Width and height of a tile in pixels.
+	 */
+	public static final int tileSize = Math.max(16, Integer.getInteger("pb.tiles.size", 256));
+
+	/**
+	 * Most bytes of tile images to keep.
+	 */
+	public static final long maxMemory = Long.getLong("pb.tiles.memory", 32)<<20;
+
+	/**
+	 * The most zoomed out level, drawn with the simplest level of detail.
+	 */
+	public static final int minZoom = 1-WhiteboardPath.levelsOfDetail;
+
+	/**
+	 * The most zoomed in level.
+	 */
+	public static final int maxZoom = 3;
+
+	/**
+	 * Threads drawing tiles.
+	 */
+	public static final int renderThreads = Math.max(1, Integer.getInteger("pb.render.threads",
+			Runtime.getRuntime().availableProcessors()));
+
+	/**
+	 * Draws the tiles of all canvases. Its threads are daemons, so it never
+	 * keeps the application running.
+	 */
+	private static final ForkJoinPool pool = new ForkJoinPool(renderThreads);
+
+	/**
+	 * Most missed changes applied to the tiles, beyond which they are all
+	 * drawn again.
+	 */
+	private static final int maxMissedOps = CheckpointCache.interval;
+
+	/**
+	 * A drawn tile.
+	 */
+	private static class Tile {
+		final int tx;
+		final int ty;
+		final BufferedImage image;
+		final Graphics2D g2;
+
+		/**
+		 * The board version the tile shows, changes with a lower base version
+		 * are already on it.
+		 */
+		long version;
+
+		/**
+		 * Number of paths drawn on the tile.
+		 */
+		int pathCount;
+
+		Tile(int tx, int ty, double scale) {
+			this.tx=tx;
+			this.ty=ty;
+			image=new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_RGB);
+			g2=image.createGraphics();
+			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			// draw in board coordinates
+			g2.translate(-tx*tileSize, -ty*tileSize);
+			g2.scale(scale, scale);
+			g2.setStroke(stroke(scale));
+		}
+	}
+
+	/**
+	 * Tiles to draw together, and what they are drawn from as it was when
+	 * they were asked for.
+	 */
+	private class Batch {
+		final long generation;
+		final Whiteboard board;
+		final int zoom;
+		final double scale;
+		final int level;
+		final List<long[]> positions=new ArrayList<>();
+		final List<Tile> drawn=new ArrayList<>();
+
+		Batch() {
+			generation=TiledCanvas.this.generation;
+			board=TiledCanvas.this.board;
+			zoom=TiledCanvas.this.zoom;
+			scale=TiledCanvas.this.scale;
+			level=getLevelOfDetail();
+		}
+
+		/**
+		 * Draw the tiles in parallel, in the pool.
+		 */
+		void draw() {
+			List<ForkJoinTask<Tile>> tasks=new ArrayList<>(positions.size());
+			for(long[] position : positions) {
+				tasks.add(ForkJoinTask.adapt(()->drawTile(this, (int)position[0], (int)position[1])));
+			}
+			for(ForkJoinTask<Tile> task : ForkJoinTask.invokeAll(tasks)) {
+				drawn.add(task.join());
+			}
+		}
+	}
+
+	/**
+	 * Tiles by {@link #key(int, int)}, least recently used first.
+	 */
+	private final LinkedHashMap<Long, Tile> tiles=new LinkedHashMap<>(64, 0.75f, true);
+
+	/**
+	 * Tiles that were dropped, painted until they are drawn again.
+	 */
+	private final LinkedHashMap<Long, Tile> stale=new LinkedHashMap<>(64, 0.75f, true);
+
+	/**
+	 * Tiles being drawn, and those of them that a change touched since they
+	 * were asked for, which must be drawn again.
+	 */
+	private final Set<Long> pending=new HashSet<>();
+	private final Set<Long> touched=new HashSet<>();
+
+	/**
+	 * Counts the times all tiles were dropped, so that tiles asked for before
+	 * then are thrown away when drawn.
+	 */
+	private long generation=0;
+
+	private final CheckpointCache checkpoints;
+
+	private final int maxTiles;
+
+	/**
+	 * Tiles in the last region painted, which are kept whatever the memory limit.
+	 */
+	private int paintedTiles=0;
+
+	private Consumer<Bounds> repaintListener;
+
+	/**
+	 * The board drawn, or null.
+	 */
+	private Whiteboard board;
+
+	/**
+	 * The board version that all tiles show, see {@link #apply(WhiteboardOp)}.
+	 */
+	private long version;
+
+	private int zoom=0;
+
+	private double scale=1;
+
+	/**
+	 * Pixels around a path in view coordinates that its lines may paint.
+	 */
+	private int viewSpill=spill(1);
+
+	private long tilesDrawn=0;
+
+	/**
+	 * Initialise the canvas with the default memory limit.
+	 * @param checkpoints checkpoints of tiles to draw from
+	 */
+	public TiledCanvas(CheckpointCache checkpoints) {
+		this(checkpoints, maxMemory);
+	}
+
+	/**
+	 * Initialise the canvas.
+	 * @param checkpoints checkpoints of tiles to draw from
+	 * @param memoryLimit most bytes of tile images to keep
+	 */
+	public TiledCanvas(CheckpointCache checkpoints, long memoryLimit) {
+		this.checkpoints=checkpoints;
+		this.maxTiles=(int)Math.max(1, memoryLimit/(4L*tileSize*tileSize));
+	}
+
+	/**
+	 * Draw tiles in the background from now on, telling the listener the
+	 * region to repaint, in view coordinates, when they are drawn. The
+	 * listener is called from a thread of the pool.
+	 * @param repaintListener
+	 */
+	public synchronized void setRepaintListener(Consumer<Bounds> repaintListener) {
+		this.repaintListener=repaintListener;
+	}
+
+	/**
+	 * Draw a board, dropping all tiles so they are drawn again from the board
+	 * when next painted. Until then the dropped tiles are painted.
+	 * @param board the board, or null to draw nothing
+	 */
+	public synchronized void setBoard(Whiteboard board) {
+		dropTiles(true);
+		this.board=board;
+		version=board==null ? 0 : board.getVersion();
+	}
+
+	/**
+	 * Set the zoom level, dropping all tiles if it changes. The checkpoints
+	 * of tiles are kept by zoom level, so going back to a zoom level redraws
+	 * its tiles from them.
+	 * @param zoom from {@link #minZoom} to {@link #maxZoom}, clamped
+	 * @return true if the zoom level changed
+	 */
+	public synchronized boolean setZoom(int zoom) {
+		zoom=Math.max(minZoom, Math.min(maxZoom, zoom));
+		if(zoom==this.zoom) return false;
+		// tiles at another scale don't fit
+		dropTiles(false);
+		this.zoom=zoom;
+		scale=Math.scalb(1.0, zoom);
+		viewSpill=spill(scale);
+		return true;
+	}
+
+	/**
+	 *
+	 * @return the zoom level
+	 */
+	public synchronized int getZoom() {
+		return zoom;
+	}
+
+	/**
+	 *
+	 * @return the scale from board coordinates to view coordinates
+	 */
+	public synchronized double getScale() {
+		return scale;
+	}
+
+	/**
+	 * @return the level of detail to draw paths at, see
+	 * {@link WhiteboardPath#getLevelOfDetail(int)}
+	 */
+	public synchronized int getLevelOfDetail() {
+		return Math.max(0, -zoom);
+	}
+
+	/**
+	 * @param bounds in board coordinates
+	 * @return the view coordinates that the lines of a path with the bounds
+	 * may paint
+	 */
+	public synchronized Bounds toView(Bounds bounds) {
+		return new Bounds((int)Math.floor(bounds.minX*scale), (int)Math.floor(bounds.minY*scale),
+				(int)Math.ceil((bounds.maxX+1)*scale)-1, (int)Math.ceil((bounds.maxY+1)*scale)-1)
+				.grow(viewSpill);
+	}
+
+	/**
+	 * @param bounds in view coordinates
+	 * @return the board coordinates of paths that may paint the bounds
+	 */
+	public synchronized Bounds toBoard(Bounds bounds) {
+		return toBoard(bounds, scale);
+	}
+
+	/**
+	 *
+	 * @param boardName
+	 * @return true if the board is drawn
+	 */
+	public synchronized boolean shows(String boardName) {
+		return board!=null && board.getName().equals(boardName);
+	}
+
+	/**
+	 * Apply a change to the board to the tiles.
+	 * @param op the change, already applied to the board
+	 * @return the region that changed, in view coordinates, or null if none
+	 */
+	public synchronized Bounds apply(WhiteboardOp op) {
+		if(board==null || op.getBaseVersion()<version) {
+			// the tiles were drawn from the board after the change
+			return null;
+		}
+		if(op.getBaseVersion()>version) {
+			// changes were missed, catch up from the log of the board
+			List<WhiteboardOp> missed=board.opsSince(version);
+			if(missed==null || missed.size()>maxMissedOps) {
+				log.fine("canvas at version "+version+", can't apply "+op+", redrawing");
+				Bounds dropped=dropTiles(true);
+				version=board.getVersion();
+				return dropped;
+			}
+			Bounds changed=null;
+			for(WhiteboardOp m : missed) {
+				Bounds bounds=apply(m);
+				if(bounds!=null) changed=changed==null ? bounds : changed.union(bounds);
+			}
+			return changed;
+		}
+		version++;
+		switch(op.getType()) {
+		case ADD_PATH: {
+			if(op.getPath().getBounds()==null) return null;
+			Bounds bounds=toView(op.getPath().getBounds());
+			touchPending(bounds);
+			WhiteboardPath path=op.getPath().getLevelOfDetail(getLevelOfDetail());
+			for(Tile tile : tilesIn(bounds)) {
+				// a tile drawn after the path was added already has it
+				if(tile.version>op.getBaseVersion()) continue;
+				path.drawOnBoard(tile.g2);
+				tile.pathCount++;
+				tile.version=version;
+				checkpoints.checkpoint(tileKey(board, zoom, tile), tile.pathCount, path, tile.image);
+			}
+			return bounds;
+		}
+		case UNDO: {
+			if(op.getPath()==null || op.getPath().getBounds()==null) return null;
+			Bounds bounds=toView(op.getPath().getBounds());
+			touchPending(bounds);
+			// drawn again from the board when next painted
+			for(Tile tile : tilesIn(bounds)) {
+				tiles.remove(key(tile.tx, tile.ty));
+				keepStale(tile);
+			}
+			return bounds;
+		}
+		case CLEAR:
+			return dropTiles(true);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Paint the tiles in a region, drawing any that are not drawn yet, in the
+	 * background if there is a repaint listener.
+	 * @param g graphics in view coordinates
+	 * @param region the region to paint, in view coordinates
+	 */
+	public void paint(Graphics2D g, Bounds region) {
+		Batch batch=null;
+		synchronized(this) {
+			if(board!=null) {
+				int tx0=Math.floorDiv(region.minX, tileSize), tx1=Math.floorDiv(region.maxX, tileSize);
+				int ty0=Math.floorDiv(region.minY, tileSize), ty1=Math.floorDiv(region.maxY, tileSize);
+				paintedTiles=(tx1-tx0+1)*(ty1-ty0+1);
+				for(int ty=ty0;ty<=ty1;ty++) {
+					for(int tx=tx0;tx<=tx1;tx++) {
+						long key=key(tx, ty);
+						if(tiles.containsKey(key) || pending.contains(key)) continue;
+						if(batch==null) batch=new Batch();
+						batch.positions.add(new long[] {tx, ty});
+						pending.add(key);
+					}
+				}
+			}
+			if(batch!=null && repaintListener!=null) {
+				Batch background=batch;
+				pool.execute(()->{
+					background.draw();
+					swapIn(background);
+				});
+				batch=null;
+			}
+			if(batch==null) {
+				paintTiles(g, region);
+				return;
+			}
+		}
+		// wait for the tiles, without holding the lock
+		pool.invoke(ForkJoinTask.adapt(batch::draw));
+		swapIn(batch);
+		synchronized(this) {
+			paintTiles(g, region);
+		}
+	}
+
+	/**
+	 *
+	 * @return number of tiles kept
+	 */
+	public synchronized int getTileCount() {
+		return tiles.size();
+	}
+
+	/**
+	 *
+	 * @return number of tiles drawn from the board so far
+	 */
+	public synchronized long getTilesDrawn() {
+		return tilesDrawn;
+	}
+
+	/**
+	 * Paint the tiles in a region, the dropped ones where they are not drawn
+	 * yet, and white where there are neither.
+	 */
+	private void paintTiles(Graphics2D g, Bounds region) {
+		if(board==null) {
+			g.setPaint(Color.white);
+			g.fillRect(region.minX, region.minY, region.maxX-region.minX+1, region.maxY-region.minY+1);
+			return;
+		}
+		int tx0=Math.floorDiv(region.minX, tileSize), tx1=Math.floorDiv(region.maxX, tileSize);
+		int ty0=Math.floorDiv(region.minY, tileSize), ty1=Math.floorDiv(region.maxY, tileSize);
+		for(int ty=ty0;ty<=ty1;ty++) {
+			for(int tx=tx0;tx<=tx1;tx++) {
+				Tile tile=tiles.get(key(tx, ty));
+				if(tile==null) tile=stale.get(key(tx, ty));
+				if(tile!=null) {
+					g.drawImage(tile.image, tx*tileSize, ty*tileSize, null);
+				} else {
+					g.setPaint(Color.white);
+					g.fillRect(tx*tileSize, ty*tileSize, tileSize, tileSize);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draw a tile from the board, from its latest checkpoint, in the pool.
+	 */
+	private Tile drawTile(Batch batch, int tx, int ty) {
+		Tile tile=new Tile(tx, ty, batch.scale);
+		Bounds bounds=toBoard(tileBounds(tx, ty), batch.scale);
+		List<WhiteboardPath> paths;
+		synchronized(batch.board) {
+			paths=batch.board.getPathsIn(bounds);
+			tile.version=batch.board.getVersion();
+		}
+		if(batch.level>0) {
+			for(int i=0;i<paths.size();i++) {
+				paths.set(i, paths.get(i).getLevelOfDetail(batch.level));
+			}
+		}
+		checkpoints.render(tileKey(batch.board, batch.zoom, tile), paths, tile.image, tile.g2);
+		tile.pathCount=paths.size();
+		return tile;
+	}
+
+	/**
+	 * Swap in the tiles of a batch together, unless all tiles were dropped
+	 * since it was asked for, and tell the repaint listener.
+	 */
+	private void swapIn(Batch batch) {
+		Consumer<Bounds> listener;
+		Bounds swapped=null;
+		synchronized(this) {
+			if(batch.generation!=generation) {
+				for(Tile tile : batch.drawn) tile.g2.dispose();
+				return;
+			}
+			for(Tile tile : batch.drawn) {
+				long key=key(tile.tx, tile.ty);
+				pending.remove(key);
+				if(touched.remove(key)) {
+					// may not have the change, drawn again when repainted
+					tile.g2.dispose();
+				} else {
+					tiles.put(key, tile);
+					Tile old=stale.remove(key);
+					if(old!=null) old.g2.dispose();
+				}
+				Bounds bounds=tileBounds(tile.tx, tile.ty);
+				swapped=swapped==null ? bounds : swapped.union(bounds);
+				tilesDrawn++;
+			}
+			evict(tiles, Math.max(maxTiles, paintedTiles));
+			listener=repaintListener;
+		}
+		if(listener!=null && swapped!=null) listener.accept(swapped);
+	}
+
+	/**
+	 * Tiles being drawn in a region must be drawn again.
+	 */
+	private void touchPending(Bounds region) {
+		if(pending.isEmpty()) return;
+		int tx0=Math.floorDiv(region.minX, tileSize), tx1=Math.floorDiv(region.maxX, tileSize);
+		int ty0=Math.floorDiv(region.minY, tileSize), ty1=Math.floorDiv(region.maxY, tileSize);
+		for(long key : pending) {
+			int tx=(int)(key>>32), ty=(int)key;
+			if(tx0<=tx && tx<=tx1 && ty0<=ty && ty<=ty1) touched.add(key);
+		}
+	}
+
+	/**
+	 * @return the tiles that are drawn in a region
+	 */
+	private List<Tile> tilesIn(Bounds region) {
+		List<Tile> found=new ArrayList<>();
+		int tx0=Math.floorDiv(region.minX, tileSize), tx1=Math.floorDiv(region.maxX, tileSize);
+		int ty0=Math.floorDiv(region.minY, tileSize), ty1=Math.floorDiv(region.maxY, tileSize);
+		if((long)(tx1-tx0+1)*(ty1-ty0+1)>tiles.size()) {
+			for(Tile tile : tiles.values()) {
+				if(tx0<=tile.tx && tile.tx<=tx1 && ty0<=tile.ty && tile.ty<=ty1) found.add(tile);
+			}
+		} else {
+			for(int ty=ty0;ty<=ty1;ty++) {
+				for(int tx=tx0;tx<=tx1;tx++) {
+					Tile tile=tiles.get(key(tx, ty));
+					if(tile!=null) found.add(tile);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Drop all tiles, and the tiles being drawn.
+	 * @param keep true to paint the tiles until they are drawn again
+	 * @return the region they covered, or null if there were none
+	 */
+	private Bounds dropTiles(boolean keep) {
+		generation++;
+		pending.clear();
+		touched.clear();
+		Bounds dropped=null;
+		for(Tile tile : tiles.values()) {
+			Bounds bounds=tileBounds(tile.tx, tile.ty);
+			dropped=dropped==null ? bounds : dropped.union(bounds);
+			if(keep) keepStale(tile);
+			else tile.g2.dispose();
+		}
+		tiles.clear();
+		if(!keep) {
+			for(Tile tile : stale.values()) tile.g2.dispose();
+			stale.clear();
+		}
+		return dropped;
+	}
+
+	/**
+	 * Keep a dropped tile to paint until it is drawn again.
+	 */
+	private void keepStale(Tile tile) {
+		Tile old=stale.put(key(tile.tx, tile.ty), tile);
+		if(old!=null && old!=tile) old.g2.dispose();
+		evict(stale, maxTiles);
+	}
+
+	private static void evict(LinkedHashMap<Long, Tile> tiles, int limit) {
+		Iterator<Tile> it=tiles.values().iterator();
+		while(tiles.size()>limit && it.hasNext()) {
+			it.next().g2.dispose();
+			it.remove();
+		}
+	}
+
+	private static Bounds tileBounds(int tx, int ty) {
+		return new Bounds(tx*tileSize, ty*tileSize, (tx+1)*tileSize-1, (ty+1)*tileSize-1);
+	}
+
+	/**
+	 * @return the board coordinates of paths that may paint the view bounds
+	 * at the scale
+	 */
+	private static Bounds toBoard(Bounds bounds, double scale) {
+		return new Bounds((int)Math.floor(bounds.minX/scale), (int)Math.floor(bounds.minY/scale),
+				(int)Math.floor(bounds.maxX/scale), (int)Math.floor(bounds.maxY/scale))
+				.grow((int)Math.ceil(spill(scale)/scale));
+	}
+
+	private static String tileKey(Whiteboard board, int zoom, Tile tile) {
+		return CheckpointCache.tileKey(board.getName(), zoom, tile.tx, tile.ty);
+	}
+
+	/**
+	 * Lines are a board pixel wide, and a view pixel wide when zoomed out.
+	 */
+	private static BasicStroke stroke(double scale) {
+		return new BasicStroke((float)Math.max(1, 1/scale));
+	}
+
+	/**
+	 * @return the view pixels around a line, and the square caps at its
+	 * ends, that antialiasing may paint
+	 */
+	private static int spill(double scale) {
+		return (int)Math.ceil(Math.max(1, scale)/2)+1;
+	}
+
+	private static long key(int tx, int ty) {
+		return ((long)tx<<32)|(ty&0xffffffffL);
+	}
+}
@@ -1,11 +1,19 @@
 package pb.app;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
  * Class to maintain whiteboard information. You should probably modify this
  * class.
+ * <br/>
+ * Every operation applied to the board is appended to a log, see
+ * {@link OpLog}, and the paths of the board are the state that the log
+ * materializes, kept up to date as operations are applied. The log answers
+ * what changed since a version, see {@link #opsSince(long)}, and the paths
+ * at a recent version, see {@link #getPathsAt(long)}.
  * @author aaron
  *
  */
@@ -17,6 +25,27 @@ public class Whiteboard {
 	 */
 	private ArrayList<WhiteboardPath> paths;
 	
+	/**
+	 * Spatial index of the paths.
+	 */
+	private final PathIndex index = new PathIndex();
+	
+	/**
+	 * Operations applied to the board, with snapshots of its paths.
+	 */
+	private final OpLog history = new OpLog();
+	
+	/**
+	 * Log on disk that operations are appended to, for boards kept by a
+	 * {@link BoardStore}, or null.
+	 */
+	private WriteAheadLog writeAheadLog;
+	
+	/**
+	 * Bounding box of all paths, or null if it must be worked out again.
+	 */
+	private Bounds extent;
+	
 	/**
 	 * Name of the whiteboard, peer:port:boarid
 	 */
@@ -57,29 +86,59 @@ public class Whiteboard {
 	 * @param name the board name, i.e. peer:port:boardid
 	 * @param data the board data, i.e. version%PATHS 
 	 */
-	public void whiteboardFromString(String name,String data) {
+	public synchronized void whiteboardFromString(String name,String data) {
 		String[] parts = data.split("%");
 		paths = new ArrayList<>();
+		index.clear();
+		extent = null;
 		this.name=name;
 		version=-1;
 		if(parts.length<1) {
 			log.severe("whiteboard data is malformed: "+data);
+			history.reset(version, paths);
 			return;
 		}
 		try {
 			version=Integer.parseInt(parts[0]);
 		} catch (NumberFormatException e) {
 			log.severe("whiteboard data is malformed: "+data);
+			history.reset(version, paths);
 			return;
 		}
 		if(parts.length>1) {
 			for (int i = 1; i < parts.length; i++) {
 				String path = parts[i];
 				if (path.length() > 0) {
-					paths.add(new WhiteboardPath(path));
+					WhiteboardPath newPath = new WhiteboardPath(path);
+					index.add(newPath, paths.size());
+					paths.add(newPath);
 				}
 			}
 		}
+		// the operations that made the board are not known
+		history.reset(version, paths);
+	}
+	
+	/**
+	 * Replace the board with paths at a version, e.g. from a snapshot.
+	 * @param version
+	 * @param paths
+	 */
+	synchronized void restore(long version, List<WhiteboardPath> paths) {
+		this.paths = new ArrayList<>(paths);
+		index.clear();
+		for(int i=0;i<this.paths.size();i++) index.add(this.paths.get(i), i);
+		extent = null;
+		this.version = version;
+		history.reset(version, this.paths);
+	}
+	
+	/**
+	 * Append the operations applied from now on to a log on disk.
+	 * @param writeAheadLog
+	 */
+	synchronized void setWriteAheadLog(WriteAheadLog writeAheadLog) {
+		this.writeAheadLog = writeAheadLog;
 	}
 	
 	/**
@@ -87,48 +146,84 @@ public class Whiteboard {
 	 * 
 	 * @return "name%version%" if the whiteboard has no paths or
 	 *         "name%version%PATHS" for the case when there are one or more paths,
-	 *         where each path is separated by a "%"
+	 *         where each path is separated by a "%", and each path is in
+	 *         the form sent to other peers, see {@link WhiteboardPath#toWireString()}
 	 */
-	public String toString() {
+	public synchronized String toString() {
 		StringBuilder sb = new StringBuilder("");
 		sb.append(getNameAndVersion());
 		if(paths.size()==0) 
 			sb.append("%");
 		else {
 			for (int i = 0; i < paths.size(); i++) {
-				sb.append("%"+paths.get(i));
+				sb.append('%').append(paths.get(i).toWireString());
 			}
 		}
 		return sb.toString();
 	}
 	
 	/**
-	 * Draw the white board on the drawing area. Clears the draw
-	 * area and draws all paths.
+	 * Draw the white board on the drawing area, replacing what was drawn
+	 * on it. The draw area draws the parts of the board it shows when it
+	 * paints them, see {@link TiledCanvas}.
 	 * @param drawArea
 	 */
 	public void draw(DrawArea drawArea) {
-		drawArea.clear();
-		for(WhiteboardPath path : paths) {
-			drawArea.drawPath(path);
-		}
+		drawArea.redraw(this);
 	}
 	
 	////
 	// Methods that update the version of the board
 	////
 	
+	/**
+	 * Apply an operation to the whiteboard, touching only what the operation
+	 * changes, and append it to the log of the board.
+	 * @param op
+	 * @return true if the operation was accepted, false if it was rejected
+	 * because the board is not at the version the operation applies to
+	 */
+	public synchronized boolean apply(WhiteboardOp op) {
+		if(version!=op.getBaseVersion()) return false;
+		switch(op.getType()) {
+		case ADD_PATH: {
+			WhiteboardPath newPath = op.getPath();
+			index.add(newPath, paths.size());
+			paths.add(newPath);
+			Bounds bounds = newPath.getBounds();
+			if(extent!=null && bounds!=null) extent = extent.union(bounds);
+			break;
+		}
+		case UNDO:
+			if(paths.size()>0) {
+				WhiteboardPath last = paths.remove(paths.size()-1);
+				index.remove(last);
+				extent = null;
+				op.setUndonePath(last);
+			}
+			break;
+		case CLEAR:
+			paths = new ArrayList<>();
+			index.clear();
+			extent = null;
+			break;
+		default:
+			return false;
+		}
+		this.version++;
+		history.append(op, paths);
+		if(writeAheadLog!=null) writeAheadLog.append(op, version, paths);
+		return true;
+	}
+	
 	/**
 	 * Add a path to the whiteboard.
 	 * @param newPath
 	 * @param versionBeingUpdated should be the board version that the update applies to
 	 * @return true if the update was accepted, false if it was rejected
 	 */
-	public synchronized boolean addPath(WhiteboardPath newPath,long versionBeingUpdated) {
-		if(version!=versionBeingUpdated) return false;
-		paths.add(newPath);
-		this.version++;
-		return true;
+	public boolean addPath(WhiteboardPath newPath,long versionBeingUpdated) {
+		return apply(WhiteboardOp.addPath(newPath, versionBeingUpdated));
 	}
 	
 	/**
@@ -136,23 +231,104 @@ public class Whiteboard {
 	 * @param versionBeingUpdated should be the board version that the update applies to
 	 * @return true if the update was accepted, false if it was rejected
 	 */
-	public synchronized boolean clear(long versionBeingUpdated) {
-		if(version!=versionBeingUpdated) return false;
-		paths.clear();
-		this.version++;
-		return true;
+	public boolean clear(long versionBeingUpdated) {
+		return apply(WhiteboardOp.clear(versionBeingUpdated));
 	}
 	
 	/**
 	 * Remove the last path from the board.
 	 */
-	public synchronized boolean undo(long versionBeingUpdated) {
-		if(version!=versionBeingUpdated) return false;
-		if(paths.size()>0) {
-			paths.remove(paths.size()-1);
+	public boolean undo(long versionBeingUpdated) {
+		return apply(WhiteboardOp.undo(versionBeingUpdated));
+	}
+	
+	/**
+	 * Get the operations applied to the board since a version, e.g. to bring
+	 * what was drawn of the board at that version up to date, rather than
+	 * drawing the whole board again.
+	 * @param version
+	 * @return the operations in the order they were applied, the first
+	 * applied to the version, or null if they are no longer kept, or the
+	 * version is newer than the board
+	 */
+	public synchronized List<WhiteboardOp> opsSince(long version) {
+		return history.opsSince(version);
+	}
+	
+	/**
+	 * Work out the paths of the board at a recent version, by replaying the
+	 * operations after the snapshot before it.
+	 * @param version
+	 * @return the paths, in order, or null if the operations to work them out
+	 * are no longer kept, or the version is newer than the board
+	 */
+	public synchronized List<WhiteboardPath> getPathsAt(long version) {
+		return history.pathsAt(version);
+	}
+	
+	/**
+	 * 
+	 * @return the number of paths on the board
+	 */
+	public synchronized int getPathCount() {
+		return paths.size();
+	}
+	
+	/**
+	 * Find the paths that may be drawn in a region, i.e. whose bounding boxes
+	 * intersect it, without looking at the other paths.
+	 * @param region
+	 * @return the paths, in the order they are drawn
+	 */
+	public synchronized List<WhiteboardPath> getPathsIn(Bounds region) {
+		List<PathIndex.Entry> entries = new ArrayList<>();
+		index.query(region, entries);
+		entries.sort(Comparator.comparingInt((PathIndex.Entry e) -> e.position));
+		List<WhiteboardPath> found = new ArrayList<>(entries.size());
+		for(PathIndex.Entry entry : entries) found.add(entry.path);
+		return found;
+	}
+	
+	/**
+	 * Find the path drawn at a point, e.g. under the cursor.
+	 * @param x
+	 * @param y
+	 * @param tolerance distance from the point that the path may pass
+	 * @return the last drawn path that passes within the tolerance of the
+	 * point, or null if there is none
+	 */
+	public synchronized WhiteboardPath getPathAt(int x, int y, double tolerance) {
+		List<PathIndex.Entry> entries = new ArrayList<>();
+		int margin = (int)Math.ceil(tolerance);
+		index.query(new Bounds(x-margin, y-margin, x+margin, y+margin), entries);
+		entries.sort(Comparator.comparingInt((PathIndex.Entry e) -> -e.position));
+		for(PathIndex.Entry entry : entries) {
+			if(entry.path.isNear(x, y, tolerance)) return entry.path;
 		}
-		this.version++;
-		return true;
+		return null;
+	}
+	
+	/**
+	 * 
+	 * @return the bounding box of all paths, or null if there are none
+	 */
+	public synchronized Bounds getExtent() {
+		if(extent==null) {
+			// after an undo or a clear
+			for(WhiteboardPath path : paths) {
+				Bounds bounds = path.getBounds();
+				if(bounds!=null) extent = extent==null ? bounds : extent.union(bounds);
+			}
+		}
+		return extent;
+	}
+	
+	/**
+	 * 
+	 * @return the last path on the board, or null if there are none
+	 */
+	public synchronized WhiteboardPath getLastPath() {
+		return paths.isEmpty() ? null : paths.get(paths.size()-1);
 	}
 	
 	/**
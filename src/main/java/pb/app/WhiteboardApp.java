@@ -1,15 +1,5 @@
 package pb.app;
 
-import org.apache.commons.codec.binary.Base64;
-import pb.IndexServer;
-import pb.WhiteboardServer;
-import pb.managers.ClientManager;
-import pb.managers.IOThread;
-import pb.managers.PeerManager;
-import pb.managers.ServerManager;
-import pb.managers.endpoint.Endpoint;
-import pb.utils.Utils;
-
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
@@ -20,12 +10,13 @@ import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.IOException;
-import java.net.UnknownHostException;
-import java.time.Instant;
-import java.util.*;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Logger;
 
+import javax.management.ObjectName;
+
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -35,177 +26,46 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 
+import pb.managers.metrics.Metrics;
+
 
 /**
  * Initial code obtained from:
  * https://www.ssaurel.com/blog/learn-how-to-make-a-swing-painting-and-drawing-application/
+ * <br/>
+ * The Swing user interface of a whiteboard peer. The boards and the network
+ * are handled by a {@link WhiteboardCore}, which this redraws from when
+ * boards change.
  */
 public class WhiteboardApp {
 	private static Logger log = Logger.getLogger(WhiteboardApp.class.getName());
 	
 	/**
-	 * Emitted to another peer to subscribe to updates for the given board. Argument
-	 * must have format "host:port:boardid".
-	 * <ul>
-	 * <li>{@code args[0] instanceof String}</li>
-	 * </ul>
-	 */
-	public static final String listenBoard = "BOARD_LISTEN";
-
-	/**
-	 * Emitted to another peer to unsubscribe to updates for the given board.
-	 * Argument must have format "host:port:boardid".
-	 * <ul>
-	 * <li>{@code args[0] instanceof String}</li>
-	 * </ul>
-	 */
-	public static final String unlistenBoard = "BOARD_UNLISTEN";
-
-	/**
-	 * Emitted to another peer to get the entire board data for a given board.
-	 * Argument must have format "host:port:boardid".
-	 * <ul>
-	 * <li>{@code args[0] instanceof String}</li>
-	 * </ul>
-	 */
-	public static final String getBoardData = "GET_BOARD_DATA";
-
-	/**
-	 * Emitted to another peer to give the entire board data for a given board.
-	 * Argument must have format "host:port:boardid%version%PATHS".
-	 * <ul>
-	 * <li>{@code args[0] instanceof String}</li>
-	 * </ul>
-	 */
-	public static final String boardData = "BOARD_DATA";
-
-	/**
-	 * Emitted to another peer to add a path to a board managed by that peer.
-	 * Argument must have format "host:port:boardid%version%PATH". The numeric value
-	 * of version must be equal to the version of the board without the PATH added,
-	 * i.e. the current version of the board.
-	 * <ul>
-	 * <li>{@code args[0] instanceof String}</li>
-	 * </ul>
-	 */
-	public static final String boardPathUpdate = "BOARD_PATH_UPDATE";
-
-	/**
-	 * Emitted to another peer to indicate a new path has been accepted. Argument
-	 * must have format "host:port:boardid%version%PATH". The numeric value of
-	 * version must be equal to the version of the board without the PATH added,
-	 * i.e. the current version of the board.
-	 * <ul>
-	 * <li>{@code args[0] instanceof String}</li>
-	 * </ul>
-	 */
-	public static final String boardPathAccepted = "BOARD_PATH_ACCEPTED";
-
-	/**
-	 * Emitted to another peer to remove the last path on a board managed by that
-	 * peer. Argument must have format "host:port:boardid%version%". The numeric
-	 * value of version must be equal to the version of the board without the undo
-	 * applied, i.e. the current version of the board.
-	 * <ul>
-	 * <li>{@code args[0] instanceof String}</li>
-	 * </ul>
-	 */
-	public static final String boardUndoUpdate = "BOARD_UNDO_UPDATE";
-
-	/**
-	 * Emitted to another peer to indicate an undo has been accepted. Argument must
-	 * have format "host:port:boardid%version%". The numeric value of version must
-	 * be equal to the version of the board without the undo applied, i.e. the
-	 * current version of the board.
-	 * <ul>
-	 * <li>{@code args[0] instanceof String}</li>
-	 * </ul>
-	 */
-	public static final String boardUndoAccepted = "BOARD_UNDO_ACCEPTED";
-
-	/**
-	 * Emitted to another peer to clear a board managed by that peer. Argument must
-	 * have format "host:port:boardid%version%". The numeric value of version must
-	 * be equal to the version of the board without the clear applied, i.e. the
-	 * current version of the board.
-	 * <ul>
-	 * <li>{@code args[0] instanceof String}</li>
-	 * </ul>
-	 */
-	public static final String boardClearUpdate = "BOARD_CLEAR_UPDATE";
-
-	/**
-	 * Emitted to another peer to indicate an clear has been accepted. Argument must
-	 * have format "host:port:boardid%version%". The numeric value of version must
-	 * be equal to the version of the board without the clear applied, i.e. the
-	 * current version of the board.
-	 * <ul>
-	 * <li>{@code args[0] instanceof String}</li>
-	 * </ul>
-	 */
-	public static final String boardClearAccepted = "BOARD_CLEAR_ACCEPTED";
-
-	/**
-	 * Emitted to another peer to indicate a board no longer exists and should be
-	 * deleted. Argument must have format "host:port:boardid".
-	 * <ul>
-	 * <li>{@code args[0] instanceof String}</li>
-	 * </ul>
-	 */
-	public static final String boardDeleted = "BOARD_DELETED";
-
-	/**
-	 * Emitted to another peer to indicate an error has occurred.
-	 * <ul>
-	 * <li>{@code args[0] instanceof String}</li>
-	 * </ul>
+	 * The boards and connections of this peer.
 	 */
-	public static final String boardError = "BOARD_ERROR";
+	final WhiteboardCore core;
 	
 	/**
-	 * White board map from board name to board object 
+	 * Simplifies paths drawn with the mouse before they are added.
 	 */
-	Map<String,Whiteboard> whiteboards;
+	final PathSimplifier simplifier = new PathSimplifier();
 	
 	/**
-	 * The currently selected white board
+	 * Draws board changes on the GUI thread, at most once per frame.
 	 */
-	Whiteboard selectedBoard = null;
+	final RenderScheduler renderScheduler;
 	
 	/**
-	 * The peer:port string of the peer. This is synonomous with IP:port, host:port,
-	 * etc. where it may appear in comments.
+	 * Name the render counters are published under, see {@link RenderSchedulerMXBean}.
 	 */
-	String peerport="standalone"; // a default value for the non-distributed version
-
-	/**
-	 * port to use when contacting the index server
-	 */
-	private static int whiteboardServerPort; // default port number for index server
-
-	/**
-	 * host to use when contacting the index server
-	 */
-	private static String whiteboardServerHost; // default host for the index server
-
-
-	PeerManager peerManager; // Manages all connections
-	ClientManager indexClientManager; // Client manager that connects to index server
-	Endpoint indexEndpoint; // Endpoint that connects to the index server
-	ClientManager listenClientManager; // Client manager that listens for board from a peer host
-	Endpoint listenEndpoint; //Endpoint that listens for a board from a peer host
-
-	/**
-	 * Maps whiteboard name to endpoints of all peers listening to the whiteboard
-	 */
-	Map<String, Set<Endpoint>> listeningPeers;
+	private ObjectName renderMetricsName;
 	
 	/*
 	 * GUI objects, you probably don't need to modify these things... you don't
 	 * need to modify these things... don't modify these things [LOTR reference?].
 	 */
 	
-	JButton clearBtn, blackBtn, redBtn, createBoardBtn, deleteBoardBtn, undoBtn;
+	JButton clearBtn, blackBtn, redBtn, createBoardBtn, deleteBoardBtn, undoBtn, resetViewBtn;
 	JCheckBox sharedCheckbox ;
 	DrawArea drawArea;
 	JComboBox<String> boardComboBox;
@@ -217,783 +77,90 @@ public class WhiteboardApp {
 	 */
 	public WhiteboardApp(int peerPort,String whiteboardServerHost, 
 			int whiteboardServerPort) {
-		whiteboards=new HashMap<>();
-		listeningPeers=new HashMap<>();
-		this.whiteboardServerPort = whiteboardServerPort;
-		this.whiteboardServerHost = whiteboardServerHost;
-		this.peerport = whiteboardServerHost+":"+peerPort; //Since threads are local, serverIP = peerIP
-		this.peerManager = new PeerManager(peerPort);
-		startPeerManager();
-		show(peerport);
-
-		// Jin: Should heavily reference with the logic for FileSharingPeer
+		this(peerPort, whiteboardServerHost, whiteboardServerPort, null);
 	}
 	
-	/******
-	 * 
-	 * Utility methods to extract fields from argument strings.
-	 * 
-	 ******/
-	
 	/**
-	 * 
-	 * @param data = peer:port:boardid%version%PATHS
-	 * @return peer:port:boardid
+	 * Initialize the white board app, keeping its boards in a data directory,
+	 * see {@link WhiteboardCore#WhiteboardCore(int, String, int, File)}.
 	 */
-	public static String getBoardName(String data) {
-		String[] parts=data.split("%",2);
-		return parts[0];
-	}
-	
-	/**
-	 * 
-	 * @param data = peer:port:boardid%version%PATHS
-	 * @return boardid%version%PATHS
-	 */
-	public static String getBoardIdAndData(String data) {
-		String[] parts=data.split(":");
-		return parts[2];
-	}
-	
-	/**
-	 * 
-	 * @param data = peer:port:boardid%version%PATHS
-	 * @return version%PATHS
-	 */
-	public static String getBoardData(String data) {
-		String[] parts=data.split("%",2);
-		return parts[1];
-	}
-	
-	/**
-	 * 
-	 * @param data = peer:port:boardid%version%PATHS
-	 * @return version
-	 */
-	public static long getBoardVersion(String data) {
-		String[] parts=data.split("%",3);
-		return Long.parseLong(parts[1]);
-	}
-	
-	/**
-	 * 
-	 * @param data = peer:port:boardid%version%PATHS
-	 * @return PATHS
-	 */
-	public static String getBoardPaths(String data) {
-		String[] parts=data.split("%",3);
-		return parts[2];
-	}
-	
-	/**
-	 * 
-	 * @param data = peer:port:boardid%version%PATHS
-	 * @return peer
-	 */
-	public static String getIP(String data) {
-		String[] parts=data.split(":");
-		return parts[0];
-	}
-	
-	/**
-	 * 
-	 * @param data = peer:port:boardid%version%PATHS
-	 * @return port
-	 */
-	public static int getPort(String data) {
-		String[] parts=data.split(":");
-		return Integer.parseInt(parts[1]);
-	}
-
-	/**
-	 *
-	 * @param data = peer:port:boardid%version%PATHS
-	 * @return peer:port:boardid%version
-	 */
-	public static String getNameAndVersion(String data) {
-		return getBoardName(data) + "%" + getBoardVersion(data) + "%";
-	}
-	
-	/******
-	 * 
-	 * Methods called from events.
-	 * 
-	 ******/
-
-	/**
-	 * Start up peer manager
-	 */
-	private void startPeerManager() {
-		peerManager.on(PeerManager.peerStarted, (args)->{
-			Endpoint endpoint = (Endpoint)args[0];
-			onConnectionFromPeerClient(endpoint);
-		}).on(PeerManager.peerStopped,(args)->{
-			Endpoint endpoint = (Endpoint)args[0];
-			System.out.println("Disconnected from whiteboard peer: "+endpoint.getOtherEndpointId());
-		}).on(PeerManager.peerError,(args)->{
-			Endpoint endpoint = (Endpoint)args[0];
-			System.out.println("There was an error communicating with the whiteboard peer: "
-					+endpoint.getOtherEndpointId());
-		}).on(PeerManager.peerServerManager, (args)->{
-			ServerManager serverManager = (ServerManager)args[0];
-			serverManager.on(IOThread.ioThread, (args2)->{
-				String peerport = (String) args2[0];
-				onPeerStartup(peerport);
-			});
-		});
-		peerManager.start();
-	}
-
-	/**
-	 * Actions taken upon peer manager initialisation of its server manager
-	 * @param peerport: IP of peer host, host:port
-	 */
-	private void onPeerStartup(String peerport){
-		log.info(peerport +" successfully established as peer host.");
-		try {
-			indexClientManager = peerManager.connect(whiteboardServerPort, whiteboardServerHost);
-			shareBoards(indexClientManager);
-		} catch (InterruptedException e) {
-			System.out.println("Interrupted while trying to listen from whiteboard server.");
-		} catch (UnknownHostException e) {
-			System.out.println("Unable to locate whiteboard server while trying to listen from it.");
-		}
-	}
-
-	/**
-	 * Subscribe to boards shared from the index server
-	 */
-	private void shareBoards(ClientManager clientManager) {
-		clientManager.on(PeerManager.peerStarted, (args)-> {
-			Endpoint endpoint = (Endpoint) args[0];
-			this.indexEndpoint = endpoint;
-			onConnectionWithServer(indexEndpoint);
-		}).on(WhiteboardServer.error, (args)->{
-			String rejectedBoardName = (String) args[0];
-			System.out.println("Whiteboard server failed to (un)share board: "
-					+rejectedBoardName);
-		}).on(PeerManager.peerStopped, (args)->{
-			Endpoint endpoint = (Endpoint)args[0];
-			System.out.println("Disconnected from the whiteboard server: "+endpoint.getOtherEndpointId());
-		}).on(PeerManager.peerError, (args)->{
-			Endpoint endpoint = (Endpoint)args[0];
-			System.out.println("There was an error communicating with the whiteboard server: "
-					+endpoint.getOtherEndpointId());
-		});
-		clientManager.start();
-		// Thread doesnt end until peerManager.shutdown() called, no need to .join()
-	}
-
-	// From whiteboard server
-	/**
-	 * Peer action upon starting connection with whiteboard server
-	 */
-	private void onConnectionWithServer(Endpoint endpoint) {
-		System.out.println("Connected to whiteboard server: " + endpoint.getOtherEndpointId());
-		System.out.println("Listening to boards shared....");
-		endpoint.on(WhiteboardServer.error, (args2) -> {
-			String errorMessage = (String) args2[0];
-			System.out.println("Whiteboard server failed to share board: "
-					+ errorMessage);
-		}).on(WhiteboardServer.sharingBoard, (args2)-> {
-			String sharedBoardName = (String) args2[0];
-			// create an empty remote board if not in whiteboards list, request from peer only upon board selection
-			if (!whiteboards.containsKey(sharedBoardName)){
-				System.out.println("Received shared board: "+ sharedBoardName);
-				Whiteboard whiteboard = new Whiteboard(sharedBoardName,true);
-				addBoard(whiteboard,false);
-			} else {
-				// Peer is owner of board, or already had this board in menu, do nothing
+	public WhiteboardApp(int peerPort,String whiteboardServerHost, 
+			int whiteboardServerPort, File dataDir) {
+		core = new WhiteboardCore(peerPort, whiteboardServerHost, whiteboardServerPort, dataDir);
+		renderScheduler = new RenderScheduler(
+				(boardName, op) -> drawArea != null && drawArea.apply(boardName, op),
+				this::drawSelectedWhiteboard,
+				(boardName) -> {
+					if (drawArea != null) drawArea.setProvisionalPaths(core.getProvisionalPaths(boardName));
+				});
+		renderMetricsName = Metrics.register(renderScheduler, "type=RenderScheduler,port="+peerPort);
+		core.on(WhiteboardCore.boardListChanged, (args)->{
+			updateComboBox((String)args[0]);
+		}).on(WhiteboardCore.boardChanged, (args)->{
+			String boardName = (String)args[0];
+			WhiteboardOp op = (WhiteboardOp)args[1];
+			// Draw the change in the next frame if the board is selected,
+			// redrawing it if needed
+			Whiteboard selectedBoard = core.getSelectedBoard();
+			if (selectedBoard != null && selectedBoard.getName().equals(boardName)) {
+				renderScheduler.boardChanged(boardName, op);
 			}
-		}).on(WhiteboardServer.unsharingBoard, (args2)-> {
-			String unsharedBoardName = (String) args2[0];
-			System.out.println("Received unshared board: "+unsharedBoardName);
-			// remove a remote board if not in whiteboards list
-			if (whiteboards.containsKey(unsharedBoardName)){
-				deleteBoard(unsharedBoardName);
-			} else {
-				//Board does not exist, log info and do nothing
-				log.info("The unshared board is not present in peer. Continuing...");
+		}).on(WhiteboardCore.updateRejected, (args)->{
+			System.out.println("Host peer rejected update to board "+args[0]+": "+args[1]);
+		}).on(WhiteboardCore.provisionalChanged, (args)->{
+			String boardName = (String)args[0];
+			Whiteboard selectedBoard = core.getSelectedBoard();
+			if (selectedBoard != null && selectedBoard.getName().equals(boardName)) {
+				renderScheduler.provisionalChanged(boardName);
 			}
 		});
+		core.startPeerManager();
+		show(core.getPeerport());
 	}
-
-
-
-	/**
-	 * Emit shared board event using endpoint connected to index server
-	 */
-	private void uploadSharedBoard(String boardName, String peerport) {
-		System.out.println("Transmitting shared board: "+ boardName +" to whiteboard server.");
-		indexEndpoint.emit(WhiteboardServer.shareBoard, boardName);
-		log.info("Peer " + peerport + " successfully shared board "+boardName);
-		log.info("Initialising list of listeners for board: "+boardName);
-		Set<Endpoint> activeEndpoints = new HashSet<Endpoint>();
-		listeningPeers.put(boardName, activeEndpoints);
-	}
-
-	/**
-	 * Emit unshared board event using endpoint connected to index server
-	 */
-	private void uploadUnsharedBoard(String boardName, String peerport) {
-		System.out.println("Transmitting unshared board: "+ boardName +" to whiteboard server.");
-		indexEndpoint.emit(WhiteboardServer.unshareBoard, boardName);
-		log.info("Peer " + peerport + " successfully unshared board "+boardName);
-	}
-
-
-	// From whiteboard peer
-	/**
-	 * Connect to whiteboard peer that is hosting the shared board and obtain board info
-	 * @param boardName Board shared by peer host, peer:port:boardid
-	 */
-	private void getBoardDataFromPeer(String boardName){
-		String host = getIP(boardName) + ":" + getPort(boardName); // For logging purposes
-		ClientManager clientManager;
-		try {
-			clientManager = peerManager.connect(getPort(boardName), getIP(boardName));
-			this.listenClientManager = clientManager;
-		} catch (InterruptedException e) {
-			System.out.println("Interrupted while trying to connect to peer host: "+host);
-			return;
-		} catch (UnknownHostException e) {
-			System.out.println("Could not find the peer host: "+host);
-			return;
-		}
-		clientManager.on(PeerManager.peerStarted, (args)->{
-			Endpoint endpoint = (Endpoint)args[0];
-			System.out.println("Connected to host peer: "+endpoint.getOtherEndpointId());
-			this.listenEndpoint = endpoint;
-			onConnectionToPeerHost(clientManager, listenEndpoint, boardName);
-		}).on(PeerManager.peerStopped, (args)->{
-			Endpoint endpoint = (Endpoint)args[0];
-			System.out.println("Disconnected from peer host: "+endpoint.getOtherEndpointId());
-		}).on(PeerManager.peerError, (args)->{
-			Endpoint endpoint = (Endpoint)args[0];
-			System.out.println("There was error while communication with peer host: "
-					+endpoint.getOtherEndpointId());
-		});
-		clientManager.start();
-	}
-
-	/**
-	 * Peer actions upon starting connection with peer host
-	 * @param clientManager: clientManager responsible for connection to peer host
-	 * @param endpoint: endpoint responsible for connection to peer host
-	 * @param boardName: Board shared by peer host, peer:port:boardid
-	 */
-	private void onConnectionToPeerHost(ClientManager clientManager,
-										Endpoint endpoint, String boardName){
-		endpoint.on(boardData,(args2)->{
-			String receivedData = (String) args2[0];
-			onBoardData(receivedData);
-		}).on(boardPathAccepted, (args2)->{
-			String boardNameAndData = (String) args2[0];
-			onBoardPathAccepted(boardNameAndData);
-		}).on(boardUndoAccepted, (args2)->{
-			String boardNameAndVer = (String) args2[0];
-			onBoardUndoAccepted(boardNameAndVer);
-		}).on(boardClearAccepted, (args2)->{
-			String boardNameAndVer = (String) args2[0];
-			onBoardClearAccepted(boardNameAndVer);
-		}).on(boardDeleted, (args2)->{
-			String deletedBoardName = (String) args2[0];
-			clientOnBoardDeleted(deletedBoardName, endpoint);
-		}).on(boardError, (args2)->{
-			System.out.println("Error receiving board data");
-			clientManager.shutdown();
-		});
-		System.out.println("Getting board "+boardName+" from "+endpoint.getOtherEndpointId());
-		System.out.println("Listening to board from peer host: "+ boardName);
-		endpoint.emit(listenBoard, boardName);
-		System.out.println("Requesting board data from peer host: "+ boardName);
-		endpoint.emit(getBoardData, boardName);
-	}
-
-	/**
-	 * Actions upon receiving boardData event, involves board initialisation
-	 * @param boardNameAndData: string received through boardData event
-	 */
-	private void onBoardData(String boardNameAndData){
-		// Initialise board
-		String boardName = getBoardName(boardNameAndData);
-		String boardData = getBoardData(boardNameAndData);
-		Whiteboard boardToInitialise = whiteboards.get(boardName);
-		boardToInitialise.whiteboardFromString(boardName, boardData);
-		drawSelectedWhiteboard();
-		log.info("selected board: "+selectedBoard.getName());
-	}
-
-	/**
-	 * Actions taken by clients upon receiving board path update by peer host
-	 * Basically, just redraw board according to data received from peer host
-	 *
-	 * @param boardNameAndData: String data received from peer host, host:port:boardid%ver%PATHS
-	 */
-	private void onBoardPathAccepted(String boardNameAndData){
-		String boardName = getBoardName(boardNameAndData);
-		String boardData = getBoardData(boardNameAndData);
-		Whiteboard boardToUpdate = whiteboards.get(boardName);
-		boardToUpdate.whiteboardFromString(boardName, boardData);
-		// Redraw board if selected
-		if (selectedBoard == boardToUpdate) {
-			drawSelectedWhiteboard();
-		}
-	}
-
-	/**
-	 * Actions taken by clients upon receiving board undo by peer host
-	 * Basically, just undo board upon receiving message from peer host
-	 *
-	 * @param boardNameAndVer: String data received from peer host, host:port:boardid%version%
-	 */
-	private void onBoardUndoAccepted(String boardNameAndVer){
-		String boardName = getBoardName(boardNameAndVer);
-		Long boardVer = getBoardVersion(boardNameAndVer);
-		Whiteboard boardToUpdate = whiteboards.get(boardName);
-		boardToUpdate.undo(--boardVer);
-		// Redraw board if selected
-		if (selectedBoard == boardToUpdate) {
-			drawSelectedWhiteboard();
-		}
-	}
-
-	/**
-	 * Actions taken by clients upon receiving board undo by peer host
-	 * Basically, just undo board upon receiving message from peer host
-	 *
-	 * @param boardNameAndVer: String data received from peer host, host:port:boardid%version%
-	 */
-	private void onBoardClearAccepted(String boardNameAndVer){
-		String boardName = getBoardName(boardNameAndVer);
-		Long boardVer = getBoardVersion(boardNameAndVer);
-		Whiteboard boardToUpdate = whiteboards.get(boardName);
-		boardToUpdate.clear(--boardVer);
-		// Redraw board if selected
-		if (selectedBoard == boardToUpdate) {
-			drawSelectedWhiteboard();
-		}
-	}
-
-	/**
-	 * Actions taken by clients upon receiving board delete by peer host
-	 * Basically just logs the information, as a delete message will be followed by unshare
-	 *
-	 * @param boardName: boardName received from peer host, host:port:boardid
-	 * @param endpoint: thread responsible for connection to peer host
-	 */
-	private void clientOnBoardDeleted(String boardName, Endpoint endpoint){
-		System.out.println("Host peer "+endpoint.getOtherEndpointId()+
-				" has deleted board:" + boardName);
-	}
-
-
-	/**
-	 * Actions taken by peer host upon connection from client to listen to a board
-	 * @param endpoint: endpoint responsible for connection to peer client
-	 */
-	private void onConnectionFromPeerClient(Endpoint endpoint){
-		System.out.println("Connection from peer: "+endpoint.getOtherEndpointId());
-		System.out.println("Listening for shared boards from peer....");
-		endpoint.on(listenBoard, (args2)->{
-			String boardToListen = (String) args2[0];
-			onBoardListen(boardToListen, endpoint); // Add endpoint ot list of listening endpoints
-		}).on(unlistenBoard, (args2)->{
-			String boardToUnlisten = (String) args2[0];
-			onBoardUnlisten(boardToUnlisten, endpoint); // Remove endpoint from list of listening endpoints
-		}).on(getBoardData, (args2)->{
-			String boardToGet = (String) args2[0];
-			onGetBoardData(boardToGet, endpoint); // Convert board to string and send to listening client
-		}).on(boardPathUpdate, (args2)->{
-			String boardNameAndData = (String) args2[0];
-			onBoardPathUpdate(boardNameAndData, endpoint); // Add path to hosted board and transmit to all listeners
-		}).on(boardUndoUpdate, (args2)->{
-			String boardNameAndVer = (String) args2[0];
-			onBoardUndoUpdate(boardNameAndVer, endpoint); // Undo hosted board and transmit to all listeners
-		}).on(boardClearUpdate, (args2)->{
-			String boardNameAndVer = (String) args2[0];
-			onBoardClearUpdate(boardNameAndVer, endpoint); // Clear hosted board and transmit to all listeners
-		}).on(boardDeleted, (args2)-> {
-			String boardName = (String) args2[0];
-			// Do nothing, log the information
-			hostOnBoardDeleted(boardName, endpoint);
-		});
-	}
-
-	/**
-	 * Add endpoint to list of endpoints currently listening to the board
-	 * @param boardName: Name of board to be listened
-	 * @param endpoint: Endpoint used to communicate with client listening to board
-	 */
-	private void onBoardListen(String boardName, Endpoint endpoint){
-		log.info("Adding to list of boards available for listening: "+boardName);
-		synchronized (listeningPeers) {
-			if (listeningPeers.containsKey(boardName)) {
-				Set<Endpoint> activeEndpoints = listeningPeers.get(boardName);
-				activeEndpoints.add(endpoint);
-			} else {
-				endpoint.emit(boardError, "Board is not shared!");
-			}
-		}
-	}
-
-	/**
-	 * Remove endpoint to list of endpoints currently listening to the board
-	 * @param boardName: Name of board to be listened
-	 * @param endpoint: Endpoint used to communicate with client listening to board
-	 */
-	private void onBoardUnlisten(String boardName, Endpoint endpoint){
-		log.info("Removing from endpoint from list of active endpoints: "+boardName);
-		synchronized (listeningPeers) {
-			if (listeningPeers.containsKey(boardName)) {
-				Set<Endpoint> activeEndpoints = listeningPeers.get(boardName);
-				activeEndpoints.remove(endpoint);
-			}
-		}
-	}
-
-	/**
-	 * Creating board string and send it (boardData) to receiver
-	 * @param boardName: Name corresponding to board of interest
-	 * @param endpoint: Endpoint that emits to peer
-	 */
-	private void onGetBoardData(String boardName, Endpoint endpoint){
-		Whiteboard boardToGet = whiteboards.get(boardName);
-		System.out.println("Transmitting board data: " + boardName
-				+ " to peer: "+ endpoint.getOtherEndpointId());
-		endpoint.emit(boardData, boardToGet.toString());
-	}
-
-	/**
-	 * Actions taken by host peer upon receiving update by a listening client
-	 * @param boardNameAndData: Info for board to be updated. host:port:boardid%ver%path
-	 * @param endpoint: Endpoint connected to peer that updates the hosted board
-	 */
-	private void onBoardPathUpdate(String boardNameAndData, Endpoint endpoint){
-		String boardName = getBoardName(boardNameAndData);
-		Long updatedBoardVersion = getBoardVersion(boardNameAndData);
-		String boardData = getBoardData(boardNameAndData);
-		synchronized (listeningPeers){
-			if (!listeningPeers.containsKey(boardName)){
-				System.out.println("Peer client updated a board that is not shared!");
-			} else {
-				Whiteboard boardToUpdate = whiteboards.get(boardName);
-				// If hosted board version one less than updated version
-				// add path and transmit to all listening peers
-				if (boardToUpdate.getVersion() == --updatedBoardVersion) {
-					boardToUpdate.whiteboardFromString(boardName, boardData);
-					// Redraw board if selected
-					if (selectedBoard==boardToUpdate) {
-						drawSelectedWhiteboard();
-					}
-					Set<Endpoint> activeEndpoints = listeningPeers.get(boardName);
-					for (Endpoint e: activeEndpoints){
-						// Skip transmission to peer client that first sent the update
-						if (e != endpoint){
-							e.emit(boardPathAccepted, boardNameAndData);
-						}
-					}
-				} else {
-					endpoint.emit(boardError, "Version mismatch with host peer for board add path!");
-				}
-			}
-		}
-	}
-
-	/**
-	 * Actions taken by host peer upon receiving undo update by a listening client
-	 * @param boardNameAndVer: peer:port:boardid%version%
-	 * @param endpoint: endpoint connected to peer that undo-ed the board
-	 */
-	private void onBoardUndoUpdate(String boardNameAndVer, Endpoint endpoint){
-		String boardName = getBoardName(boardNameAndVer);
-		Long updatedBoardVersion = getBoardVersion(boardNameAndVer);
-		synchronized (listeningPeers){
-			if (!listeningPeers.containsKey(boardName)){
-				System.out.println("Peer client undo-ed a board that is not shared!");
-			} else {
-				Whiteboard boardToUpdate = whiteboards.get(boardName);
-				// If hosted board version one less than updated version
-				// undo and transmit to all listening peers
-				if (boardToUpdate.undo(--updatedBoardVersion)) {
-					// Redraw board if selected
-					if (selectedBoard==boardToUpdate) {
-						drawSelectedWhiteboard();
-					}
-					Set<Endpoint> activeEndpoints = listeningPeers.get(boardName);
-					for (Endpoint e: activeEndpoints){
-						// Skip transmission to peer client that first sent the update
-						if (e != endpoint){
-							e.emit(boardUndoAccepted, boardNameAndVer);
-						}
-					}
-				} else {
-					endpoint.emit(boardError, "Version mismatch with host peer for board undo!");
-				}
-			}
-		}
-	}
-
-	/**
-	 * Actions taken by host peer upon receiving clear update by a listening client
-	 * @param boardNameAndVer: peer:port:boardid%version%
-	 * @param endpoint: endpoint connected to peer that cleared the board
-	 */
-	private void onBoardClearUpdate(String boardNameAndVer, Endpoint endpoint){
-		String boardName = getBoardName(boardNameAndVer);
-		Long updatedBoardVersion = getBoardVersion(boardNameAndVer);
-		synchronized (listeningPeers){
-			if (!listeningPeers.containsKey(boardName)){
-				System.out.println("Peer client cleared a board that is not shared!");
-			} else {
-				Whiteboard boardToUpdate = whiteboards.get(boardName);
-				// If hosted board version one less than updated version
-				// clear and transmit to all listening peers
-				if (boardToUpdate.clear(--updatedBoardVersion)) {
-					// Redraw board if selected
-					if (selectedBoard==boardToUpdate) {
-						drawSelectedWhiteboard();
-					}
-					Set<Endpoint> activeEndpoints = listeningPeers.get(boardName);
-					for (Endpoint e: activeEndpoints){
-						// Skip transmission to peer client that first sent the update
-						if (e != endpoint){
-							e.emit(boardClearAccepted, boardNameAndVer);
-						}
-					}
-				} else {
-					endpoint.emit(boardError, "Version mismatch with host peer for board undo!");
-				}
-			}
-		}
-	}
-
-	/**
-	 * Actions taken by host peer upon receiving board delete by peer client
-	 * Basically just logs the information, as a delete message will be followed by unlisten
-	 *
-	 * @param boardName: boardName received from peer client, client:port:boardid
-	 * @param endpoint: thread responsible for connection to peer client
-	 */
-	private void hostOnBoardDeleted(String boardName, Endpoint endpoint){
-		System.out.println("Client peer "+endpoint.getOtherEndpointId()+
-				" has deleted board:" + boardName);
-	}
-
-	/******
-	 * 
-	 * Methods to manipulate data locally. Distributed systems related code has been
-	 * cut from these methods.
-	 * 
-	 ******/
 	
 	/**
 	 * Wait for the peer manager to finish all threads.
 	 */
 	public void waitToFinish() {
-		peerManager.joinWithClientManagers();
-		peerManager.shutdown();
-	}
-	
-	/**
-	 * Add a board to the list that the user can select from. If select is
-	 * true then also select this board.
-	 * @param whiteboard
-	 * @param select
-	 */
-	public void addBoard(Whiteboard whiteboard,boolean select) {
-		synchronized(whiteboards) {
-			whiteboards.put(whiteboard.getName(), whiteboard);
-		}
-		updateComboBox(select?whiteboard.getName():null);
+		core.waitToFinish();
 	}
 	
 	/**
-	 * Delete a board from the list.
-	 * @param boardname must have the form peer:port:boardid
-	 */
-	public void deleteBoard(String boardname) {
-		synchronized(whiteboards) {
-			Whiteboard whiteboard = whiteboards.get(boardname);
-			if(whiteboard!=null) {
-				whiteboards.remove(boardname);
-			}
-			if (whiteboard == selectedBoard && whiteboard.isRemote()){
-				listenEndpoint.emit(boardDeleted,boardname);
-				listenEndpoint.emit(unlistenBoard, boardname); // Tell peer host we are unlistening
-			}
-		}
-		// If board was hosted, emit boardDeleted event to listeners and unshare board
-		synchronized(listeningPeers){
-			if (listeningPeers.containsKey(boardname)){
-				// Unshare board from whiteboard server
-				uploadUnsharedBoard(boardname, peerport);
-				// Remove from list of boards shared
-				listeningPeers.remove(boardname);
-			}
-		}
-		updateComboBox(null);
-	}
-	
-	/**
-	 * Create a new local board with name peer:port:boardid.
-	 * The boardid includes the time stamp that the board was created at.
-	 */
-	public void createBoard() {
-		String name = peerport+":board"+Instant.now().toEpochMilli();
-		Whiteboard whiteboard = new Whiteboard(name,false);
-		addBoard(whiteboard,true);
-	}
-	
-	/**
-	 * Add a path to the selected board. The path has already
-	 * been drawn on the draw area; so if it can't be accepted then
-	 * the board needs to be redrawn without it.
+	 * Add a path to the selected board. The path is simplified first,
+	 * see {@link PathSimplifier}, and the simplified path is drawn on
+	 * the board once it is accepted.
 	 * @param currentPath
 	 */
 	public void pathCreatedLocally(WhiteboardPath currentPath) {
-		if(selectedBoard!=null) {
-			if(!selectedBoard.addPath(currentPath,selectedBoard.getVersion())) {
-				// some other peer modified the board in between
-				System.out.println("Another peer modified the board while drawing." +
-						"Rejecting path drawn and redrawing board according to modification.");
-				drawSelectedWhiteboard(); // just redraw the screen without the path
-			} else {
-				// was accepted locally, so do remote stuff if needed
-				// If is a remote board, emit updated board info to host peer
-				if (selectedBoard.isRemote()) {
-					listenEndpoint.emit(boardPathUpdate, selectedBoard.toString());
-				} else if (listeningPeers.containsKey(selectedBoard.getName())) {
-					// If is board hosted by peer, emit boardPathAcccepted to all listening peers
-					Set<Endpoint> activeEndpoints = listeningPeers.get(selectedBoard.getName());
-					if (!activeEndpoints.isEmpty()) {
-						for (Endpoint e: activeEndpoints){
-							e.emit(boardPathAccepted, selectedBoard.toString());
-						}
-					}
-				}
-				drawSelectedWhiteboard();
-			}
-		} else {
-			log.severe("path created without a selected board: "+currentPath);
-		}
-	}
-	
-	/**
-	 * Clear the selected whiteboard.
-	 */
-	public void clearedLocally() {
-		if(selectedBoard!=null) {
-			if(!selectedBoard.clear(selectedBoard.getVersion())) {
-				// some other peer modified the board in between
-				drawSelectedWhiteboard();
-			} else {
-				// was accepted locally, so do remote stuff if needed
-				// If is a remote board, emit cleared board info to host peer
-				String boardNameAndVer = getNameAndVersion(selectedBoard.toString());
-				if (selectedBoard.isRemote()) {
-					listenEndpoint.emit(boardClearUpdate, boardNameAndVer);
-				} else if (listeningPeers.containsKey(selectedBoard.getName())) {
-					// If is board hosted by peer, emit boardClearAcccepted to all listening peers
-					Set<Endpoint> activeEndpoints = listeningPeers.get(selectedBoard.getName());
-					if (!activeEndpoints.isEmpty()) {
-						for (Endpoint e: activeEndpoints){
-							e.emit(boardClearAccepted, boardNameAndVer);
-						}
-					}
-				}
-				drawSelectedWhiteboard();
-			}
-		} else {
-			log.severe("cleared without a selected board");
-		}
+		core.pathCreatedLocally(simplifier.simplify(currentPath));
 	}
 	
 	/**
-	 * Undo the last path of the selected whiteboard.
+	 * 
+	 * @return an id for a new path being drawn
 	 */
-	public void undoLocally() {
-		if(selectedBoard!=null) {
-			if(!selectedBoard.undo(selectedBoard.getVersion())) {
-				// some other peer modified the board in between
-				System.out.println("Another peer modified the board while drawing." +
-						"Rejecting undo and redrawing board according to modification.");
-				drawSelectedWhiteboard();
-			} else {
-				// If is a remote board, emit undo-ed board info to host peer
-				String boardNameAndVer = getNameAndVersion(selectedBoard.toString());
-				if (selectedBoard.isRemote()) {
-					listenEndpoint.emit(boardUndoUpdate, boardNameAndVer);
-				} else if (listeningPeers.containsKey(selectedBoard.getName())) {
-					// If is board hosted by peer, emit boardUndoAcccepted to all listening peers
-					Set<Endpoint> activeEndpoints = listeningPeers.get(selectedBoard.getName());
-					if (!activeEndpoints.isEmpty()) {
-						for (Endpoint e: activeEndpoints){
-							e.emit(boardUndoAccepted, boardNameAndVer);
-						}
-					}
-				}
-				drawSelectedWhiteboard();
-			}
-		} else {
-			log.severe("undo without a selected board");
-		}
+	public String newStrokeId() {
+		return core.newStrokeId();
 	}
 	
 	/**
-	 * The variable selectedBoard has been set.
+	 * Send the points drawn since the last fragment of the path being drawn
+	 * to other peers, so that they can show it before it is finished.
+	 * @param strokeId
+	 * @param points
 	 */
-	public void selectedABoard() {
-		//Remote: get board data from host peer, then use thread listen to updates
-		if (selectedBoard.isRemote()){
-			getBoardDataFromPeer(selectedBoard.getName());
-		}  else {
-			// Emit unlisten event and terminate previous client session
-			if (listenClientManager!=null){
-				listenEndpoint.emit(unlistenBoard, selectedBoard.getName());
-				listenClientManager.shutdown();
-				listenClientManager=null; // Not sure if needed, but just in case
-			}
-			drawSelectedWhiteboard();
-			log.info("selected board: "+selectedBoard.getName());
-		}
-
-	}
-	
-	/**
-	 * Set the share status on the selected board.
-	 */
-	public void setShare(boolean share) {
-		if(selectedBoard!=null) {
-        	selectedBoard.setShared(share);
-        	if (share){
-				uploadSharedBoard(selectedBoard.getName(), peerport);
-			}
-			else {
-				uploadUnsharedBoard(selectedBoard.getName(), peerport);
-			}
-		} else {
-        	log.severe("there is no selected board");
-        }
+	public void pathFragmentLocally(String strokeId, WhiteboardPath points) {
+		core.pathFragmentLocally(strokeId, points);
 	}
 	
 	/**
 	 * Called by the gui when the user closes the app.
 	 */
 	public void guiShutdown() {
-		// do some final cleanup
-		HashSet<Whiteboard> existingBoards= new HashSet<>(whiteboards.values());
-		existingBoards.forEach((board)->{
-			deleteBoard(board.getName());
-		});
-    	whiteboards.values().forEach((whiteboard)->{
-
-		});
-    	indexClientManager.shutdown(); // should terminate program cleanly
+		Metrics.unregister(renderMetricsName);
+		core.shutdown();
 	}
 	
-	
-
 	/******
 	 * 
 	 * GUI methods and callbacks from GUI for user actions.
@@ -1002,12 +169,17 @@ public class WhiteboardApp {
 	 ******/
 	
 	/**
-	 * Redraw the screen with the selected board
+	 * Redraw the screen with the selected board, on the GUI thread, see
+	 * {@link RenderScheduler#redraw()}.
 	 */
 	public void drawSelectedWhiteboard() {
-		drawArea.clear();
+		if(drawArea==null) return;
+		Whiteboard selectedBoard = core.getSelectedBoard();
+		drawArea.redraw(selectedBoard);
 		if(selectedBoard!=null) {
-			selectedBoard.draw(drawArea);
+			drawArea.setProvisionalPaths(core.getProvisionalPaths(selectedBoard.getName()));
+		} else {
+			drawArea.setProvisionalPaths(Collections.emptyList());
 		}
 	}
 	
@@ -1038,7 +210,7 @@ public class WhiteboardApp {
 
 			public void actionPerformed(ActionEvent e) {
 				if (e.getSource() == clearBtn) {
-					clearedLocally();
+					core.clearedLocally();
 				} else if (e.getSource() == blackBtn) {
 					drawArea.setColor(Color.black);
 				} else if (e.getSource() == redBtn) {
@@ -1047,11 +219,11 @@ public class WhiteboardApp {
 					if(modifyingComboBox) return;
 					if(boardComboBox.getSelectedIndex()==-1) return;
 					String selectedBoardName=(String) boardComboBox.getSelectedItem();
-					if(whiteboards.get(selectedBoardName)==null) {
+					Whiteboard selectedBoard = core.getBoard(selectedBoardName);
+					if(selectedBoard==null) {
 						log.severe("selected a board that does not exist: "+selectedBoardName);
 						return;
 					}
-					selectedBoard = whiteboards.get(selectedBoardName);
 					// remote boards can't have their shared status modified
 					if(selectedBoard.isRemote()) {
 						sharedCheckbox.setEnabled(false);
@@ -1063,21 +235,25 @@ public class WhiteboardApp {
 						sharedCheckbox.setEnabled(true);
 						sharedCheckbox.setVisible(true);
 					}
-					selectedABoard();
+					core.selectBoard(selectedBoardName);
 				} else if (e.getSource() == createBoardBtn) {
-					createBoard();
+					core.createBoard();
 				} else if (e.getSource() == undoBtn) {
-					if(selectedBoard==null) {
+					if(core.getSelectedBoard()==null) {
 						log.severe("there is no selected board to undo");
 						return;
 					}
-					undoLocally();
+					core.undoLocally();
+				} else if (e.getSource() == resetViewBtn) {
+					drawArea.resetView();
 				} else if (e.getSource() == deleteBoardBtn) {
+					Whiteboard selectedBoard = core.getSelectedBoard();
 					if(selectedBoard==null) {
 						log.severe("there is no selected board to delete");
 						return;
 					}
-					deleteBoard(selectedBoard.getName());
+					core.deleteBoard(selectedBoard.getName());
+					drawArea.forgetBoard(selectedBoard.getName());
 				}
 			}
 		};
@@ -1106,10 +282,14 @@ public class WhiteboardApp {
 		undoBtn.addActionListener(actionListener);
 		undoBtn.setToolTipText("Remove the last path drawn on the board - triggers an undo on remote copies as well");
 		undoBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
+		resetViewBtn = new JButton("Reset View");
+		resetViewBtn.addActionListener(actionListener);
+		resetViewBtn.setToolTipText("Show the board unzoomed from its top left - drag with the right button to pan and use the wheel to zoom");
+		resetViewBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
 		sharedCheckbox = new JCheckBox("Shared");
 		sharedCheckbox.addItemListener(new ItemListener() {    
 	         public void itemStateChanged(ItemEvent e) { 
-	            if(!modifyingCheckBox) setShare(e.getStateChange()==1);
+	            if(!modifyingCheckBox) core.setShare(e.getStateChange()==1);
 	         }    
 	      }); 
 		sharedCheckbox.setToolTipText("Toggle whether the board is shared or not - tells the whiteboard server");
@@ -1131,6 +311,7 @@ public class WhiteboardApp {
 		controls.add(redBtn);
 		controls.add(undoBtn);
 		controls.add(clearBtn);
+		controls.add(resetViewBtn);
 
 		// add to content pane
 		content.add(controls, BorderLayout.WEST);
@@ -1138,8 +319,10 @@ public class WhiteboardApp {
 
 		frame.setSize(600, 600);
 		
-		// create an initial board
-		createBoard();
+		// restore the boards kept, or create an initial board
+		if(core.restoreBoards().isEmpty()) {
+			core.createBoard();
+		}
 		
 		// closing the application
 		frame.addWindowListener(new WindowAdapter() {
@@ -1176,29 +359,27 @@ public class WhiteboardApp {
 				modifyingComboBox=true;
 				boardComboBox.removeAllItems();
 				int anIndex=-1;
-				synchronized(whiteboards) {
-					ArrayList<String> boards = new ArrayList<String>(whiteboards.keySet());
-					Collections.sort(boards);
-					for(int i=0;i<boards.size();i++) {
-						String boardname=boards.get(i);
-						boardComboBox.addItem(boardname);
-						if(select!=null && select.equals(boardname)) {
-							anIndex=i;
-						} else if(anIndex==-1 && selectedBoard!=null && 
-								selectedBoard.getName().equals(boardname)) {
-							anIndex=i;
-						} 
-					}
+				Whiteboard selectedBoard = core.getSelectedBoard();
+				List<String> boards = core.getBoardNames();
+				for(int i=0;i<boards.size();i++) {
+					String boardname=boards.get(i);
+					boardComboBox.addItem(boardname);
+					if(select!=null && select.equals(boardname)) {
+						anIndex=i;
+					} else if(anIndex==-1 && selectedBoard!=null && 
+							selectedBoard.getName().equals(boardname)) {
+						anIndex=i;
+					} 
 				}
 				modifyingComboBox=false;
 				if(anIndex!=-1) {
 					boardComboBox.setSelectedIndex(anIndex);
 				} else {
-					if(whiteboards.size()>0) {
+					if(boards.size()>0) {
 						boardComboBox.setSelectedIndex(0);
 					} else {
 						drawArea.clear();
-						createBoard();
+						core.createBoard();
 					}
 				}
 				
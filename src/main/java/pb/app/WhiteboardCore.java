@@ -0,0 +1,1583 @@
+package pb.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import pb.WhiteboardServer;
+import pb.managers.ClientManager;
+import pb.managers.IOThread;
+import pb.managers.PeerManager;
+import pb.managers.ServerManager;
+import pb.managers.endpoint.Endpoint;
+import pb.utils.Eventable;
+
+/**
+ * The board and network logic of a whiteboard peer, without any user
+ * interface. It keeps the peer's boards, hosts the boards that the peer
+ * shares, listens to the selected board when it is shared by another peer,
+ * and tells the whiteboard server about shared boards. A user interface, such
+ * as {@link WhiteboardApp} or {@link WhiteboardShell}, calls its methods for
+ * user actions and listens to its local events to update what it shows:
+ * <ul>
+ * <li>{@link #serverConnected}</li>
+ * <li>{@link #boardListChanged}</li>
+ * <li>{@link #boardChanged}</li>
+ * <li>{@link #pathAdded}</li>
+ * <li>{@link #updateRejected}</li>
+ * <li>{@link #provisionalChanged}</li>
+ * </ul>
+ * No AWT or Swing classes are used, so a peer can run headless.
+ * <br/>
+ * With a data directory, the boards created on this peer are kept in it by
+ * a {@link BoardStore}, and restored when the peer is started again, see
+ * {@link #restoreBoards()}.
+ * <br/>
+ * Events to other peers and the whiteboard server are sent in order by a
+ * single sender thread. Endpoints are locked while their event callbacks run,
+ * so emitting to another endpoint from a callback while holding a lock can
+ * deadlock with that endpoint's thread.
+ */
+public class WhiteboardCore extends Eventable {
+	private static Logger log = Logger.getLogger(WhiteboardCore.class.getName());
+	
+	/**
+	 * Emitted to another peer to subscribe to updates for the given board. Argument
+	 * must have format "host:port:boardid".
+	 * <ul>
+	 * <li>{@code args[0] instanceof String}</li>
+	 * </ul>
+	 */
+	public static final String listenBoard = "BOARD_LISTEN";
+
+	/**
+	 * Emitted to another peer to unsubscribe to updates for the given board.
+	 * Argument must have format "host:port:boardid".
+	 * <ul>
+	 * <li>{@code args[0] instanceof String}</li>
+	 * </ul>
+	 */
+	public static final String unlistenBoard = "BOARD_UNLISTEN";
+
+	/**
+	 * Emitted to another peer to get the entire board data for a given board.
+	 * Argument must have format "host:port:boardid".
+	 * <ul>
+	 * <li>{@code args[0] instanceof String}</li>
+	 * </ul>
+	 */
+	public static final String getBoardData = "GET_BOARD_DATA";
+
+	/**
+	 * Emitted to another peer to give the entire board data for a given board.
+	 * Argument must have format "host:port:boardid%version%PATHS".
+	 * <ul>
+	 * <li>{@code args[0] instanceof String}</li>
+	 * </ul>
+	 */
+	public static final String boardData = "BOARD_DATA";
+
+	/**
+	 * Emitted to another peer to add a path to a board managed by that peer.
+	 * Argument must have format "host:port:boardid%version%PATH". The numeric value
+	 * of version must be equal to the version of the board without the PATH added,
+	 * i.e. the current version of the board.
+	 * <ul>
+	 * <li>{@code args[0] instanceof String}</li>
+	 * </ul>
+	 */
+	public static final String boardPathUpdate = "BOARD_PATH_UPDATE";
+
+	/**
+	 * Emitted to another peer to indicate a new path has been accepted. Argument
+	 * must have format "host:port:boardid%version%PATH". The numeric value of
+	 * version must be equal to the version of the board without the PATH added,
+	 * i.e. the current version of the board.
+	 * <ul>
+	 * <li>{@code args[0] instanceof String}</li>
+	 * </ul>
+	 */
+	public static final String boardPathAccepted = "BOARD_PATH_ACCEPTED";
+
+	/**
+	 * Emitted to another peer to remove the last path on a board managed by that
+	 * peer. Argument must have format "host:port:boardid%version%". The numeric
+	 * value of version must be equal to the version of the board without the undo
+	 * applied, i.e. the current version of the board.
+	 * <ul>
+	 * <li>{@code args[0] instanceof String}</li>
+	 * </ul>
+	 */
+	public static final String boardUndoUpdate = "BOARD_UNDO_UPDATE";
+
+	/**
+	 * Emitted to another peer to indicate an undo has been accepted. Argument must
+	 * have format "host:port:boardid%version%". The numeric value of version must
+	 * be equal to the version of the board without the undo applied, i.e. the
+	 * current version of the board.
+	 * <ul>
+	 * <li>{@code args[0] instanceof String}</li>
+	 * </ul>
+	 */
+	public static final String boardUndoAccepted = "BOARD_UNDO_ACCEPTED";
+
+	/**
+	 * Emitted to another peer to clear a board managed by that peer. Argument must
+	 * have format "host:port:boardid%version%". The numeric value of version must
+	 * be equal to the version of the board without the clear applied, i.e. the
+	 * current version of the board.
+	 * <ul>
+	 * <li>{@code args[0] instanceof String}</li>
+	 * </ul>
+	 */
+	public static final String boardClearUpdate = "BOARD_CLEAR_UPDATE";
+
+	/**
+	 * Emitted to another peer to indicate an clear has been accepted. Argument must
+	 * have format "host:port:boardid%version%". The numeric value of version must
+	 * be equal to the version of the board without the clear applied, i.e. the
+	 * current version of the board.
+	 * <ul>
+	 * <li>{@code args[0] instanceof String}</li>
+	 * </ul>
+	 */
+	public static final String boardClearAccepted = "BOARD_CLEAR_ACCEPTED";
+
+	/**
+	 * Emitted to another peer with the points of a path that is still being
+	 * drawn on a board managed by that peer, so that it can be shown before it
+	 * is finished. Argument must have format "host:port:boardid%strokeid%PATH",
+	 * where strokeid identifies the path being drawn and PATH has the points
+	 * drawn since the last fragment of the path. Fragments are not
+	 * acknowledged, and the host drops fragments from a peer that sends more
+	 * than {@link #fragmentRate} per second.
+	 * <ul>
+	 * <li>{@code args[0] instanceof String}</li>
+	 * </ul>
+	 */
+	public static final String boardPathFragmentUpdate = "BOARD_PATH_FRAGMENT_UPDATE";
+
+	/**
+	 * Emitted to another peer with the points of a path that is still being
+	 * drawn, by the host of the board to the peers listening to it. Argument
+	 * has the format of {@link #boardPathFragmentUpdate}.
+	 * <ul>
+	 * <li>{@code args[0] instanceof String}</li>
+	 * </ul>
+	 */
+	public static final String boardPathFragment = "BOARD_PATH_FRAGMENT";
+
+	/**
+	 * Emitted to another peer to indicate a board no longer exists and should be
+	 * deleted. Argument must have format "host:port:boardid".
+	 * <ul>
+	 * <li>{@code args[0] instanceof String}</li>
+	 * </ul>
+	 */
+	public static final String boardDeleted = "BOARD_DELETED";
+
+	/**
+	 * Emitted to another peer to indicate an error has occurred.
+	 * <ul>
+	 * <li>{@code args[0] instanceof String}</li>
+	 * </ul>
+	 */
+	public static final String boardError = "BOARD_ERROR";
+	/**
+	 * Emitted locally when this peer has connected to the whiteboard server.
+	 * <ul>
+	 * <li>{@code args[0] instanceof String} the whiteboard server, host:port</li>
+	 * </ul>
+	 */
+	public static final String serverConnected = "SERVER_CONNECTED";
+
+	/**
+	 * Emitted locally when the list of boards changes.
+	 * <ul>
+	 * <li>{@code args[0] instanceof String} the board to select, or null</li>
+	 * </ul>
+	 */
+	public static final String boardListChanged = "BOARD_LIST_CHANGED";
+
+	/**
+	 * Emitted locally when the paths of a board change, or when a change made
+	 * locally was rejected, so the board should be redrawn.
+	 * <ul>
+	 * <li>{@code args[0] instanceof String} the board name, peer:port:boardid</li>
+	 * <li>{@code args[1] instanceof WhiteboardOp} the change that was applied
+	 * to the board, or null if the board was replaced or selected, or a change
+	 * was rejected, so it should be redrawn in full</li>
+	 * </ul>
+	 */
+	public static final String boardChanged = "BOARD_CHANGED";
+
+	/**
+	 * Emitted locally when a path drawn by another peer is added to a board,
+	 * either on the host of the board or on a peer listening to it.
+	 * <ul>
+	 * <li>{@code args[0] instanceof String} the board name, peer:port:boardid</li>
+	 * <li>{@code args[1] instanceof WhiteboardPath} the path</li>
+	 * </ul>
+	 */
+	public static final String pathAdded = "PATH_ADDED";
+
+	/**
+	 * Emitted locally when the host of a board rejects an update from this
+	 * peer. The board is fetched again from the host.
+	 * <ul>
+	 * <li>{@code args[0] instanceof String} the board name, peer:port:boardid</li>
+	 * <li>{@code args[1] instanceof String} the error from the host</li>
+	 * </ul>
+	 */
+	public static final String updateRejected = "UPDATE_REJECTED";
+
+	/**
+	 * Emitted locally when the paths still being drawn by other peers on a
+	 * board change, see {@link #getProvisionalPaths(String)}.
+	 * <ul>
+	 * <li>{@code args[0] instanceof String} the board name, peer:port:boardid</li>
+	 * <li>{@code args[1] instanceof WhiteboardPath} the points added to a path,
+	 * from the last point already drawn, or null if paths were removed and the
+	 * board should be redrawn</li>
+	 * </ul>
+	 */
+	public static final String provisionalChanged = "PROVISIONAL_CHANGED";
+
+	/**
+	 * Milliseconds between fragments of a path being drawn, set by the system
+	 * property {@code pb.fragments.interval}. 0 turns off sending fragments.
+	 */
+	public static final int fragmentInterval = Integer.getInteger("pb.fragments.interval", 50);
+
+	/**
+	 * Fragments per second that a host accepts from each listening peer, set by
+	 * the system property {@code pb.fragments.rate}, with bursts of up to a
+	 * second's worth.
+	 */
+	public static final int fragmentRate = Integer.getInteger("pb.fragments.rate", 40);
+
+	/**
+	 * Most points in a fragment that a host accepts.
+	 */
+	public static final int maxFragmentPoints = 500;
+
+	/**
+	 * Milliseconds after its last fragment that a path still being drawn by
+	 * another peer stops being shown, if it wasn't added to the board.
+	 */
+	public static final long provisionalTimeout = 2000;
+
+	/**
+	 * White board map from board name to board object 
+	 */
+	private final Map<String,Whiteboard> whiteboards=new HashMap<>();
+	
+	/**
+	 * Keeps the boards created on this peer, or null if they are not kept.
+	 */
+	private final BoardStore store;
+	
+	/**
+	 * The currently selected white board
+	 */
+	private volatile Whiteboard selectedBoard=null;
+	
+	/**
+	 * The peer:port string of the peer. This is synonomous with IP:port, host:port,
+	 * etc. where it may appear in comments.
+	 */
+	private final String peerport;
+
+	/**
+	 * port to use when contacting the whiteboard server
+	 */
+	private final int whiteboardServerPort;
+
+	/**
+	 * host to use when contacting the whiteboard server
+	 */
+	private final String whiteboardServerHost;
+
+	private final PeerManager peerManager; // Manages all connections
+	private ClientManager indexClientManager; // Client manager that connects to index server
+	private Endpoint indexEndpoint; // Endpoint that connects to the index server
+	private ClientManager listenClientManager; // Client manager that listens for board from a peer host
+	private Endpoint listenEndpoint; //Endpoint that listens for a board from a peer host
+	private String listenBoardName; // Board being listened to, peer:port:boardid
+
+	/**
+	 * Whether the listened board has been received from its host, after which
+	 * errors from the host are rejected updates rather than a failure to listen.
+	 */
+	private boolean listenBoardReceived=false;
+
+	/**
+	 * Maps whiteboard name to endpoints of all peers listening to the whiteboard
+	 */
+	private final Map<String, Set<Endpoint>> listeningPeers=new HashMap<>();
+
+	/**
+	 * Paths being drawn by other peers, from their fragments, by stroke id.
+	 */
+	private final Map<String, ProvisionalPath> provisionalPaths=new HashMap<>();
+
+	/**
+	 * Fragments that each listening peer may still send, see {@link #fragmentRate}.
+	 */
+	private final Map<Endpoint, FragmentBudget> fragmentBudgets=new HashMap<>();
+
+	/**
+	 * Number of paths started on this peer, for stroke ids.
+	 */
+	private long strokeCount=0;
+
+	/**
+	 * Sends events to other peers and the whiteboard server, in order, and
+	 * removes provisional paths that have timed out.
+	 */
+	private final ScheduledExecutorService sender=Executors.newSingleThreadScheduledExecutor((runnable)->{
+		Thread thread=new Thread(runnable,"whiteboard-sender");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * A path being drawn by another peer.
+	 */
+	private static class ProvisionalPath {
+		final String boardName;
+		final WhiteboardPath path;
+		long lastFragment;
+
+		ProvisionalPath(String boardName, WhiteboardPath path) {
+			this.boardName=boardName;
+			this.path=path;
+		}
+	}
+
+	/**
+	 * A token bucket limiting the rate of fragments from a peer.
+	 */
+	private static class FragmentBudget {
+		double tokens=fragmentRate;
+		long lastRefill=System.nanoTime();
+
+		boolean take() {
+			long now=System.nanoTime();
+			tokens=Math.min(fragmentRate, tokens+(now-lastRefill)*fragmentRate/1e9);
+			lastRefill=now;
+			if(tokens<1) return false;
+			tokens--;
+			return true;
+		}
+	}
+
+	/**
+	 * Initialize the peer. Call {@link #startPeerManager()} to start it, after
+	 * adding callbacks for the local events.
+	 * @param peerPort port for this peer's server
+	 * @param whiteboardServerHost
+	 * @param whiteboardServerPort
+	 */
+	public WhiteboardCore(int peerPort,String whiteboardServerHost,
+			int whiteboardServerPort) {
+		this(peerPort, whiteboardServerHost, whiteboardServerPort, null);
+	}
+	
+	/**
+	 * Initialize the peer, keeping its boards in a data directory.
+	 * @param peerPort port for this peer's server
+	 * @param whiteboardServerHost
+	 * @param whiteboardServerPort
+	 * @param dataDir directory to keep the boards created on this peer in, or
+	 * null to not keep them
+	 */
+	public WhiteboardCore(int peerPort,String whiteboardServerHost,
+			int whiteboardServerPort, File dataDir) {
+		this.whiteboardServerPort = whiteboardServerPort;
+		this.whiteboardServerHost = whiteboardServerHost;
+		this.peerport = whiteboardServerHost+":"+peerPort; //Since threads are local, serverIP = peerIP
+		this.peerManager = new PeerManager(peerPort);
+		this.store = openStore(dataDir);
+		sender.scheduleWithFixedDelay(this::expireProvisionalPaths,
+				provisionalTimeout/2, provisionalTimeout/2, TimeUnit.MILLISECONDS);
+	}
+	
+	private static BoardStore openStore(File dataDir) {
+		if(dataDir==null) return null;
+		try {
+			return new BoardStore(dataDir);
+		} catch (IOException e) {
+			log.severe("boards will not be kept: "+e.getMessage());
+			return null;
+		}
+	}
+	
+	/******
+	 * 
+	 * Utility methods to extract fields from argument strings.
+	 * 
+	 ******/
+	
+	/**
+	 * 
+	 * @param data = peer:port:boardid%version%PATHS
+	 * @return peer:port:boardid
+	 */
+	public static String getBoardName(String data) {
+		String[] parts=data.split("%",2);
+		return parts[0];
+	}
+	
+	/**
+	 * 
+	 * @param data = peer:port:boardid%version%PATHS
+	 * @return boardid%version%PATHS
+	 */
+	public static String getBoardIdAndData(String data) {
+		String[] parts=data.split(":");
+		return parts[2];
+	}
+	
+	/**
+	 * 
+	 * @param data = peer:port:boardid%version%PATHS
+	 * @return version%PATHS
+	 */
+	public static String getBoardData(String data) {
+		String[] parts=data.split("%",2);
+		return parts[1];
+	}
+	
+	/**
+	 * 
+	 * @param data = peer:port:boardid%version%PATHS
+	 * @return version
+	 */
+	public static long getBoardVersion(String data) {
+		String[] parts=data.split("%",3);
+		return Long.parseLong(parts[1]);
+	}
+	
+	/**
+	 * 
+	 * @param data = peer:port:boardid%version%PATHS
+	 * @return PATHS
+	 */
+	public static String getBoardPaths(String data) {
+		String[] parts=data.split("%",3);
+		return parts[2];
+	}
+	
+	/**
+	 * 
+	 * @param data = peer:port:boardid%version%PATHS
+	 * @return peer
+	 */
+	public static String getIP(String data) {
+		String[] parts=data.split(":");
+		return parts[0];
+	}
+	
+	/**
+	 * 
+	 * @param data = peer:port:boardid%version%PATHS
+	 * @return port
+	 */
+	public static int getPort(String data) {
+		String[] parts=data.split(":");
+		return Integer.parseInt(parts[1]);
+	}
+
+	/**
+	 *
+	 * @param data = peer:port:boardid%version%PATHS
+	 * @return peer:port:boardid%version
+	 */
+	public static String getNameAndVersion(String data) {
+		return getBoardName(data) + "%" + getBoardVersion(data) + "%";
+	}	
+	/******
+	 * 
+	 * Methods called from events.
+	 * 
+	 ******/
+
+	/**
+	 * Start up peer manager, which connects to the whiteboard server once this
+	 * peer's server is running.
+	 */
+	public void startPeerManager() {
+		peerManager.on(PeerManager.peerStarted, (args)->{
+			Endpoint endpoint = (Endpoint)args[0];
+			onConnectionFromPeerClient(endpoint);
+		}).on(PeerManager.peerStopped,(args)->{
+			Endpoint endpoint = (Endpoint)args[0];
+			System.out.println("Disconnected from whiteboard peer: "+endpoint.getOtherEndpointId());
+			synchronized(this) {
+				listeningPeers.values().forEach((endpoints)->{
+					endpoints.remove(endpoint);
+				});
+				fragmentBudgets.remove(endpoint);
+			}
+		}).on(PeerManager.peerError,(args)->{
+			Endpoint endpoint = (Endpoint)args[0];
+			System.out.println("There was an error communicating with the whiteboard peer: "
+					+endpoint.getOtherEndpointId());
+		}).on(PeerManager.peerServerManager, (args)->{
+			ServerManager serverManager = (ServerManager)args[0];
+			serverManager.on(IOThread.ioThread, (args2)->{
+				String peerport = (String) args2[0];
+				onPeerStartup(peerport);
+			});
+		});
+		peerManager.start();
+	}
+
+	/**
+	 * Actions taken upon peer manager initialisation of its server manager
+	 * @param peerport: IP of peer host, host:port
+	 */
+	private void onPeerStartup(String peerport){
+		log.info(peerport +" successfully established as peer host.");
+		try {
+			ClientManager clientManager = peerManager.connect(whiteboardServerPort, whiteboardServerHost);
+			synchronized(this) {
+				indexClientManager = clientManager;
+			}
+			shareBoards(clientManager);
+		} catch (InterruptedException e) {
+			System.out.println("Interrupted while trying to listen from whiteboard server.");
+		} catch (UnknownHostException e) {
+			System.out.println("Unable to locate whiteboard server while trying to listen from it.");
+		}
+	}
+
+	/**
+	 * Subscribe to boards shared from the index server
+	 */
+	private void shareBoards(ClientManager clientManager) {
+		clientManager.on(PeerManager.peerStarted, (args)-> {
+			Endpoint endpoint = (Endpoint) args[0];
+			onConnectionWithServer(endpoint);
+		}).on(WhiteboardServer.error, (args)->{
+			String rejectedBoardName = (String) args[0];
+			System.out.println("Whiteboard server failed to (un)share board: "
+					+rejectedBoardName);
+		}).on(PeerManager.peerStopped, (args)->{
+			Endpoint endpoint = (Endpoint)args[0];
+			System.out.println("Disconnected from the whiteboard server: "+endpoint.getOtherEndpointId());
+		}).on(PeerManager.peerError, (args)->{
+			Endpoint endpoint = (Endpoint)args[0];
+			System.out.println("There was an error communicating with the whiteboard server: "
+					+endpoint.getOtherEndpointId());
+		});
+		clientManager.start();
+		// Thread doesnt end until peerManager.shutdown() called, no need to .join()
+	}
+
+	// From whiteboard server
+	/**
+	 * Peer action upon starting connection with whiteboard server
+	 */
+	private void onConnectionWithServer(Endpoint endpoint) {
+		System.out.println("Connected to whiteboard server: " + endpoint.getOtherEndpointId());
+		System.out.println("Listening to boards shared....");
+		endpoint.on(WhiteboardServer.error, (args2) -> {
+			String errorMessage = (String) args2[0];
+			System.out.println("Whiteboard server failed to share board: "
+					+ errorMessage);
+		}).on(WhiteboardServer.sharingBoard, (args2)-> {
+			String sharedBoardName = (String) args2[0];
+			onSharingBoard(sharedBoardName);
+		}).on(WhiteboardServer.unsharingBoard, (args2)-> {
+			String unsharedBoardName = (String) args2[0];
+			System.out.println("Received unshared board: "+unsharedBoardName);
+			// remove a remote board if not in whiteboards list
+			if (hasBoard(unsharedBoardName)){
+				deleteBoard(unsharedBoardName);
+			} else {
+				//Board does not exist, log info and do nothing
+				log.info("The unshared board is not present in peer. Continuing...");
+			}
+		});
+		synchronized(this) {
+			indexEndpoint = endpoint;
+			// boards shared before the connection was made
+			for(Whiteboard whiteboard : whiteboards.values()) {
+				if(!whiteboard.isRemote() && whiteboard.isShared()) {
+					uploadSharedBoard(whiteboard.getName());
+				}
+			}
+		}
+		localEmit(serverConnected, endpoint.getOtherEndpointId());
+	}
+
+	/**
+	 * Add a board shared by another peer to the list of boards
+	 * @param sharedBoardName peer:port:boardid
+	 */
+	private void onSharingBoard(String sharedBoardName) {
+		synchronized(this) {
+			// create an empty remote board if not in whiteboards list, request from peer only upon board selection
+			if (whiteboards.containsKey(sharedBoardName)) {
+				// Peer is owner of board, or already had this board in menu, do nothing
+				return;
+			}
+			System.out.println("Received shared board: "+ sharedBoardName);
+			whiteboards.put(sharedBoardName, new Whiteboard(sharedBoardName,true));
+		}
+		localEmit(boardListChanged, (String)null);
+	}
+
+	/**
+	 * Emit shared board event using endpoint connected to index server. Called
+	 * while holding the lock on this peer.
+	 */
+	private void uploadSharedBoard(String boardName) {
+		if(!listeningPeers.containsKey(boardName)) {
+			log.info("Initialising list of listeners for board: "+boardName);
+			listeningPeers.put(boardName, new HashSet<Endpoint>());
+		}
+		if(indexEndpoint==null) {
+			// shared once connected to the whiteboard server
+			return;
+		}
+		System.out.println("Transmitting shared board: "+ boardName +" to whiteboard server.");
+		send(indexEndpoint, WhiteboardServer.shareBoard, boardName);
+		log.info("Peer " + peerport + " successfully shared board "+boardName);
+	}
+
+	/**
+	 * Emit unshared board event using endpoint connected to index server.
+	 * Called while holding the lock on this peer.
+	 */
+	private void uploadUnsharedBoard(String boardName) {
+		listeningPeers.remove(boardName);
+		if(indexEndpoint==null) return;
+		System.out.println("Transmitting unshared board: "+ boardName +" to whiteboard server.");
+		send(indexEndpoint, WhiteboardServer.unshareBoard, boardName);
+		log.info("Peer " + peerport + " successfully unshared board "+boardName);
+	}
+
+
+	// From whiteboard peer
+	/**
+	 * Connect to whiteboard peer that is hosting the shared board and obtain board info
+	 * @param boardName Board shared by peer host, peer:port:boardid
+	 */
+	private void getBoardDataFromPeer(String boardName){
+		String host = getIP(boardName) + ":" + getPort(boardName); // For logging purposes
+		ClientManager clientManager;
+		try {
+			clientManager = peerManager.connect(getPort(boardName), getIP(boardName));
+		} catch (InterruptedException e) {
+			System.out.println("Interrupted while trying to connect to peer host: "+host);
+			return;
+		} catch (UnknownHostException e) {
+			System.out.println("Could not find the peer host: "+host);
+			return;
+		}
+		synchronized(this) {
+			this.listenClientManager = clientManager;
+			this.listenEndpoint = null;
+			this.listenBoardName = boardName;
+			this.listenBoardReceived = false;
+		}
+		clientManager.on(PeerManager.peerStarted, (args)->{
+			Endpoint endpoint = (Endpoint)args[0];
+			System.out.println("Connected to host peer: "+endpoint.getOtherEndpointId());
+			onConnectionToPeerHost(clientManager, endpoint, boardName);
+		}).on(PeerManager.peerStopped, (args)->{
+			Endpoint endpoint = (Endpoint)args[0];
+			System.out.println("Disconnected from peer host: "+endpoint.getOtherEndpointId());
+		}).on(PeerManager.peerError, (args)->{
+			Endpoint endpoint = (Endpoint)args[0];
+			System.out.println("There was error while communication with peer host: "
+					+endpoint.getOtherEndpointId());
+		});
+		clientManager.start();
+	}
+
+	/**
+	 * Peer actions upon starting connection with peer host
+	 * @param clientManager: clientManager responsible for connection to peer host
+	 * @param endpoint: endpoint responsible for connection to peer host
+	 * @param boardName: Board shared by peer host, peer:port:boardid
+	 */
+	private void onConnectionToPeerHost(ClientManager clientManager,
+										Endpoint endpoint, String boardName){
+		endpoint.on(boardData,(args2)->{
+			String receivedData = (String) args2[0];
+			onBoardData(receivedData);
+		}).on(boardPathAccepted, (args2)->{
+			String boardNameAndPath = (String) args2[0];
+			onBoardPathAccepted(boardNameAndPath, endpoint);
+		}).on(boardUndoAccepted, (args2)->{
+			String boardNameAndVer = (String) args2[0];
+			onBoardUndoAccepted(boardNameAndVer, endpoint);
+		}).on(boardClearAccepted, (args2)->{
+			String boardNameAndVer = (String) args2[0];
+			onBoardClearAccepted(boardNameAndVer, endpoint);
+		}).on(boardPathFragment, (args2)->{
+			String fragment = (String) args2[0];
+			onBoardPathFragment(fragment);
+		}).on(boardDeleted, (args2)->{
+			String deletedBoardName = (String) args2[0];
+			clientOnBoardDeleted(deletedBoardName, endpoint);
+		}).on(boardError, (args2)->{
+			String errorMessage = (String) args2[0];
+			onBoardError(clientManager, endpoint, boardName, errorMessage);
+		});
+		synchronized(this) {
+			if(clientManager!=listenClientManager) {
+				// another board was selected in the meantime
+				shutdownLater(clientManager);
+				return;
+			}
+			listenEndpoint = endpoint;
+		}
+		System.out.println("Getting board "+boardName+" from "+endpoint.getOtherEndpointId());
+		System.out.println("Listening to board from peer host: "+ boardName);
+		endpoint.emit(listenBoard, boardName);
+		System.out.println("Requesting board data from peer host: "+ boardName);
+		endpoint.emit(getBoardData, boardName);
+	}
+
+	/**
+	 * Actions upon receiving boardData event, involves board initialisation
+	 * @param boardNameAndData: string received through boardData event
+	 */
+	private void onBoardData(String boardNameAndData){
+		// Initialise board
+		String boardName = getBoardName(boardNameAndData);
+		String boardData = getBoardData(boardNameAndData);
+		synchronized(this) {
+			Whiteboard boardToInitialise = whiteboards.get(boardName);
+			if(boardToInitialise==null) return;
+			boardToInitialise.whiteboardFromString(boardName, boardData);
+			listenBoardReceived = true;
+		}
+		localEmit(boardChanged, boardName, null);
+		log.info("received board: "+boardName);
+	}
+
+	/**
+	 * Actions taken by clients upon receiving a path accepted by the peer host
+	 *
+	 * @param boardNameAndPath: String data received from peer host, host:port:boardid%version%PATH
+	 * @param endpoint: endpoint responsible for connection to peer host
+	 */
+	private void onBoardPathAccepted(String boardNameAndPath, Endpoint endpoint){
+		long baseVersion = getBoardVersion(boardNameAndPath);
+		WhiteboardPath path = new WhiteboardPath(getBoardPaths(boardNameAndPath));
+		applyFromHost(getBoardName(boardNameAndPath), WhiteboardOp.addPath(path, baseVersion), endpoint);
+	}
+
+	/**
+	 * Actions taken by clients upon receiving board undo by peer host
+	 *
+	 * @param boardNameAndVer: String data received from peer host, host:port:boardid%version%
+	 * @param endpoint: endpoint responsible for connection to peer host
+	 */
+	private void onBoardUndoAccepted(String boardNameAndVer, Endpoint endpoint){
+		long boardVer = getBoardVersion(boardNameAndVer);
+		applyFromHost(getBoardName(boardNameAndVer), WhiteboardOp.undo(boardVer-1), endpoint);
+	}
+
+	/**
+	 * Actions taken by clients upon receiving board clear by peer host
+	 *
+	 * @param boardNameAndVer: String data received from peer host, host:port:boardid%version%
+	 * @param endpoint: endpoint responsible for connection to peer host
+	 */
+	private void onBoardClearAccepted(String boardNameAndVer, Endpoint endpoint){
+		long boardVer = getBoardVersion(boardNameAndVer);
+		applyFromHost(getBoardName(boardNameAndVer), WhiteboardOp.clear(boardVer-1), endpoint);
+	}
+
+	/**
+	 * Apply an operation accepted by the peer host to the board listened to.
+	 * If the board is not at the version the operation applies to then this
+	 * peer has missed an update, so it fetches the board again.
+	 * @param boardName: Board shared by peer host, peer:port:boardid
+	 * @param op: the operation
+	 * @param endpoint: endpoint responsible for connection to peer host
+	 */
+	private void applyFromHost(String boardName, WhiteboardOp op, Endpoint endpoint){
+		synchronized(this) {
+			Whiteboard boardToUpdate = whiteboards.get(boardName);
+			if(boardToUpdate==null) return;
+			if(!boardToUpdate.apply(op)) {
+				log.info("board "+boardName+" is at version "+boardToUpdate.getVersion()
+						+", can't apply "+op.getType()+" at "+op.getBaseVersion()+", fetching it again");
+				send(endpoint, getBoardData, boardName);
+				return;
+			}
+		}
+		if(op.getType()==WhiteboardOp.Type.ADD_PATH) {
+			removeProvisionalPath(boardName, op.getPath());
+			localEmit(pathAdded, boardName, op.getPath());
+		}
+		localEmit(boardChanged, boardName, op);
+	}
+
+	/**
+	 * Actions taken by clients upon receiving board delete by peer host
+	 * Basically just logs the information, as a delete message will be followed by unshare
+	 *
+	 * @param boardName: boardName received from peer host, host:port:boardid
+	 * @param endpoint: thread responsible for connection to peer host
+	 */
+	private void clientOnBoardDeleted(String boardName, Endpoint endpoint){
+		System.out.println("Host peer "+endpoint.getOtherEndpointId()+
+				" has deleted board:" + boardName);
+	}
+
+	/**
+	 * Actions taken by clients upon receiving an error from the peer host. Once
+	 * the board has been received an error means that an update from this peer
+	 * was rejected, because another peer changed the board first, so the board
+	 * is fetched again. Before then the board could not be listened to.
+	 * @param clientManager: clientManager responsible for connection to peer host
+	 * @param endpoint: endpoint responsible for connection to peer host
+	 * @param boardName: Board shared by peer host, peer:port:boardid
+	 * @param errorMessage: the error from the peer host
+	 */
+	private void onBoardError(ClientManager clientManager, Endpoint endpoint,
+							  String boardName, String errorMessage){
+		synchronized(this) {
+			if(!listenBoardReceived || clientManager!=listenClientManager) {
+				System.out.println("Error receiving board data: "+errorMessage);
+				shutdownLater(clientManager);
+				return;
+			}
+		}
+		log.info("update rejected by peer host: "+errorMessage);
+		localEmit(updateRejected, boardName, errorMessage);
+		endpoint.emit(getBoardData, boardName);
+	}
+
+
+	/**
+	 * Actions taken by peer host upon connection from client to listen to a board
+	 * @param endpoint: endpoint responsible for connection to peer client
+	 */
+	private void onConnectionFromPeerClient(Endpoint endpoint){
+		System.out.println("Connection from peer: "+endpoint.getOtherEndpointId());
+		System.out.println("Listening for shared boards from peer....");
+		endpoint.on(listenBoard, (args2)->{
+			String boardToListen = (String) args2[0];
+			onBoardListen(boardToListen, endpoint); // Add endpoint ot list of listening endpoints
+		}).on(unlistenBoard, (args2)->{
+			String boardToUnlisten = (String) args2[0];
+			onBoardUnlisten(boardToUnlisten, endpoint); // Remove endpoint from list of listening endpoints
+		}).on(getBoardData, (args2)->{
+			String boardToGet = (String) args2[0];
+			onGetBoardData(boardToGet, endpoint); // Convert board to string and send to listening client
+		}).on(boardPathUpdate, (args2)->{
+			String boardNameAndPath = (String) args2[0];
+			onBoardPathUpdate(boardNameAndPath, endpoint); // Add path to hosted board and transmit to all listeners
+		}).on(boardUndoUpdate, (args2)->{
+			String boardNameAndVer = (String) args2[0];
+			onBoardUndoUpdate(boardNameAndVer, endpoint); // Undo hosted board and transmit to all listeners
+		}).on(boardClearUpdate, (args2)->{
+			String boardNameAndVer = (String) args2[0];
+			onBoardClearUpdate(boardNameAndVer, endpoint); // Clear hosted board and transmit to all listeners
+		}).on(boardPathFragmentUpdate, (args2)->{
+			String fragment = (String) args2[0];
+			onBoardPathFragmentUpdate(fragment, endpoint); // Show path being drawn and transmit to all listeners
+		}).on(boardDeleted, (args2)-> {
+			String boardName = (String) args2[0];
+			// Do nothing, log the information
+			hostOnBoardDeleted(boardName, endpoint);
+		});
+	}
+
+	/**
+	 * Add endpoint to list of endpoints currently listening to the board
+	 * @param boardName: Name of board to be listened
+	 * @param endpoint: Endpoint used to communicate with client listening to board
+	 */
+	private synchronized void onBoardListen(String boardName, Endpoint endpoint){
+		log.info("Adding to list of boards available for listening: "+boardName);
+		if (listeningPeers.containsKey(boardName)) {
+			Set<Endpoint> activeEndpoints = listeningPeers.get(boardName);
+			activeEndpoints.add(endpoint);
+		} else {
+			send(endpoint, boardError, "Board is not shared!");
+		}
+	}
+
+	/**
+	 * Remove endpoint to list of endpoints currently listening to the board
+	 * @param boardName: Name of board to be listened
+	 * @param endpoint: Endpoint used to communicate with client listening to board
+	 */
+	private synchronized void onBoardUnlisten(String boardName, Endpoint endpoint){
+		log.info("Removing from endpoint from list of active endpoints: "+boardName);
+		if (listeningPeers.containsKey(boardName)) {
+			Set<Endpoint> activeEndpoints = listeningPeers.get(boardName);
+			activeEndpoints.remove(endpoint);
+		}
+	}
+
+	/**
+	 * Creating board string and send it (boardData) to receiver
+	 * @param boardName: Name corresponding to board of interest
+	 * @param endpoint: Endpoint that emits to peer
+	 */
+	private synchronized void onGetBoardData(String boardName, Endpoint endpoint){
+		Whiteboard boardToGet = whiteboards.get(boardName);
+		if (boardToGet==null || !listeningPeers.containsKey(boardName)) {
+			send(endpoint, boardError, "Board is not shared!");
+			return;
+		}
+		System.out.println("Transmitting board data: " + boardName
+				+ " to peer: "+ endpoint.getOtherEndpointId());
+		send(endpoint, boardData, boardToGet.toString());
+	}
+
+	/**
+	 * Actions taken by host peer upon receiving update by a listening client
+	 * @param boardNameAndPath: Path to add to the board. host:port:boardid%version%PATH
+	 * @param endpoint: Endpoint connected to peer that updates the hosted board
+	 */
+	private void onBoardPathUpdate(String boardNameAndPath, Endpoint endpoint){
+		long baseVersion = getBoardVersion(boardNameAndPath);
+		WhiteboardPath path = new WhiteboardPath(getBoardPaths(boardNameAndPath));
+		applyFromListener(getBoardName(boardNameAndPath), WhiteboardOp.addPath(path, baseVersion),
+				endpoint, boardPathAccepted, boardNameAndPath);
+	}
+
+	/**
+	 * Actions taken by host peer upon receiving undo update by a listening client
+	 * @param boardNameAndVer: peer:port:boardid%version%
+	 * @param endpoint: endpoint connected to peer that undo-ed the board
+	 */
+	private void onBoardUndoUpdate(String boardNameAndVer, Endpoint endpoint){
+		long updatedBoardVersion = getBoardVersion(boardNameAndVer);
+		applyFromListener(getBoardName(boardNameAndVer), WhiteboardOp.undo(updatedBoardVersion-1),
+				endpoint, boardUndoAccepted, boardNameAndVer);
+	}
+
+	/**
+	 * Actions taken by host peer upon receiving clear update by a listening client
+	 * @param boardNameAndVer: peer:port:boardid%version%
+	 * @param endpoint: endpoint connected to peer that cleared the board
+	 */
+	private void onBoardClearUpdate(String boardNameAndVer, Endpoint endpoint){
+		long updatedBoardVersion = getBoardVersion(boardNameAndVer);
+		applyFromListener(getBoardName(boardNameAndVer), WhiteboardOp.clear(updatedBoardVersion-1),
+				endpoint, boardClearAccepted, boardNameAndVer);
+	}
+
+	/**
+	 * Apply an operation from a listening client to a hosted board. If the
+	 * board is at the version the operation applies to, the operation is
+	 * transmitted as it was received to all other listening peers, otherwise
+	 * it is rejected.
+	 * @param boardName: Name of the hosted board
+	 * @param op: the operation
+	 * @param endpoint: Endpoint connected to peer that updated the board
+	 * @param acceptedEvent: event to transmit to the other listening peers
+	 * @param data: the update as received
+	 */
+	private void applyFromListener(String boardName, WhiteboardOp op, Endpoint endpoint,
+								   String acceptedEvent, String data){
+		synchronized (this){
+			if (!listeningPeers.containsKey(boardName)){
+				System.out.println("Peer client updated a board that is not shared!");
+				return;
+			}
+			Whiteboard boardToUpdate = whiteboards.get(boardName);
+			if (!boardToUpdate.apply(op)) {
+				send(endpoint, boardError, "Version mismatch with host peer for board "+op.getType()+"!");
+				return;
+			}
+			sendToListeners(boardName, endpoint, acceptedEvent, data);
+		}
+		if(op.getType()==WhiteboardOp.Type.ADD_PATH) {
+			removeProvisionalPath(boardName, op.getPath());
+			localEmit(pathAdded, boardName, op.getPath());
+		}
+		localEmit(boardChanged, boardName, op);
+	}
+
+	/**
+	 * Actions taken by host peer upon receiving a fragment of a path being
+	 * drawn by a listening client. The fragment is shown and transmitted as it
+	 * was received to all other listening peers, unless the client is sending
+	 * fragments too fast or the fragment is too large, in which case it is
+	 * dropped, since the path is sent in full once it is finished.
+	 * @param fragment: host:port:boardid%strokeid%PATH
+	 * @param endpoint: Endpoint connected to peer drawing the path
+	 */
+	private void onBoardPathFragmentUpdate(String fragment, Endpoint endpoint){
+		String boardName = getBoardName(fragment);
+		synchronized(this) {
+			Set<Endpoint> listeners = listeningPeers.get(boardName);
+			if (listeners==null || !listeners.contains(endpoint)) return;
+			FragmentBudget budget = fragmentBudgets.get(endpoint);
+			if (budget==null) {
+				budget = new FragmentBudget();
+				fragmentBudgets.put(endpoint, budget);
+			}
+			if (!budget.take()) {
+				log.fine("dropping path fragment from "+endpoint.getOtherEndpointId()+", sent too fast");
+				return;
+			}
+			sendToListeners(boardName, endpoint, boardPathFragment, fragment);
+		}
+		onBoardPathFragment(fragment);
+	}
+
+	/**
+	 * Add a fragment of a path being drawn by another peer to the paths shown
+	 * provisionally, until the path is added to the board or times out.
+	 * @param fragment: host:port:boardid%strokeid%PATH
+	 */
+	private void onBoardPathFragment(String fragment){
+		String[] parts = fragment.split("%",3);
+		if (parts.length<3) {
+			log.severe("path fragment is malformed: "+fragment);
+			return;
+		}
+		WhiteboardPath points = new WhiteboardPath(parts[2]);
+		if (points.length()==0 || points.length()>maxFragmentPoints) return;
+		WhiteboardPath segment;
+		synchronized(this) {
+			if (!whiteboards.containsKey(parts[0])) return;
+			ProvisionalPath provisional = provisionalPaths.get(parts[1]);
+			if (provisional==null) {
+				provisional = new ProvisionalPath(parts[0], WhiteboardPath.ofColor(points.getColorName()));
+				provisionalPaths.put(parts[1], provisional);
+			}
+			provisional.lastFragment = System.currentTimeMillis();
+			// the new points, joined to the points already shown
+			WhiteboardPath path = provisional.path;
+			segment = WhiteboardPath.ofColor(path.getColorName());
+			if (path.length()>0) segment.addPoint(path.getX(path.length()-1), path.getY(path.length()-1));
+			segment.addPoints(points.getCoordinates(), 0, points.length());
+			path.addPoints(points.getCoordinates(), 0, points.length());
+		}
+		localEmit(provisionalChanged, parts[0], segment);
+	}
+
+	/**
+	 * Stop showing the provisional path that became a path added to a board.
+	 * Paths are simplified when they are finished, but keep their first and
+	 * last points, which are used to find the provisional path.
+	 * @param boardName
+	 * @param path the path added
+	 */
+	private void removeProvisionalPath(String boardName, WhiteboardPath path) {
+		int n = path.length();
+		if (n==0) return;
+		boolean removed = false;
+		synchronized(this) {
+			Iterator<ProvisionalPath> it = provisionalPaths.values().iterator();
+			while (it.hasNext()) {
+				ProvisionalPath provisional = it.next();
+				WhiteboardPath p = provisional.path;
+				int m = p.length();
+				if (provisional.boardName.equals(boardName)
+						&& p.getColorName().equals(path.getColorName())
+						&& p.getX(0)==path.getX(0) && p.getY(0)==path.getY(0)
+						&& p.getX(m-1)==path.getX(n-1) && p.getY(m-1)==path.getY(n-1)) {
+					it.remove();
+					removed = true;
+					break;
+				}
+			}
+		}
+		if (removed) localEmit(provisionalChanged, boardName, null);
+	}
+
+	/**
+	 * Stop showing provisional paths that have had no fragments for
+	 * {@link #provisionalTimeout}, e.g. because they were rejected.
+	 */
+	private void expireProvisionalPaths() {
+		Set<String> changed = new HashSet<>();
+		synchronized(this) {
+			long expired = System.currentTimeMillis()-provisionalTimeout;
+			Iterator<ProvisionalPath> it = provisionalPaths.values().iterator();
+			while (it.hasNext()) {
+				ProvisionalPath provisional = it.next();
+				if (provisional.lastFragment<expired) {
+					it.remove();
+					changed.add(provisional.boardName);
+				}
+			}
+		}
+		for (String boardName : changed) localEmit(provisionalChanged, boardName, null);
+	}
+
+	/**
+	 * Actions taken by host peer upon receiving board delete by peer client
+	 * Basically just logs the information, as a delete message will be followed by unlisten
+	 *
+	 * @param boardName: boardName received from peer client, client:port:boardid
+	 * @param endpoint: thread responsible for connection to peer client
+	 */
+	private void hostOnBoardDeleted(String boardName, Endpoint endpoint){
+		System.out.println("Client peer "+endpoint.getOtherEndpointId()+
+				" has deleted board:" + boardName);
+	}
+
+	/**
+	 * Send an event to all peers listening to a hosted board, except the one
+	 * that sent the update. Called while holding the lock on this peer.
+	 * @param boardName
+	 * @param except endpoint to skip, or null
+	 * @param eventName
+	 * @param data
+	 */
+	private void sendToListeners(String boardName, Endpoint except, String eventName, String data) {
+		Set<Endpoint> activeEndpoints = listeningPeers.get(boardName);
+		if (activeEndpoints == null) return;
+		for (Endpoint e: activeEndpoints){
+			// Skip transmission to peer client that first sent the update
+			if (e != except){
+				send(e, eventName, data);
+			}
+		}
+	}
+
+	/**
+	 * Queue an event to another peer or the whiteboard server.
+	 * @param endpoint
+	 * @param eventName
+	 * @param data
+	 */
+	private void send(Endpoint endpoint, String eventName, String data) {
+		sender.execute(()->{
+			endpoint.emit(eventName, data);
+		});
+	}
+
+	/**
+	 * Queue the shutdown of a client manager, after the events queued so far,
+	 * since stopping the session sends on its endpoint.
+	 * @param clientManager
+	 */
+	private void shutdownLater(ClientManager clientManager) {
+		sender.execute(()->{
+			clientManager.shutdown();
+		});
+	}
+	
+	/******
+	 * 
+	 * Methods to manipulate data locally, called by the user interface.
+	 * 
+	 ******/
+	
+	/**
+	 * Wait for the peer manager to finish all threads.
+	 */
+	public void waitToFinish() {
+		peerManager.joinWithClientManagers();
+		peerManager.shutdown();
+	}
+
+	/**
+	 * 
+	 * @return the peer:port string of this peer
+	 */
+	public String getPeerport() {
+		return peerport;
+	}
+
+	/**
+	 * 
+	 * @return the names of all boards, sorted
+	 */
+	public synchronized List<String> getBoardNames() {
+		List<String> boards = new ArrayList<String>(whiteboards.keySet());
+		Collections.sort(boards);
+		return boards;
+	}
+
+	/**
+	 * 
+	 * @param boardName peer:port:boardid
+	 * @return the board, or null if there is no such board
+	 */
+	public synchronized Whiteboard getBoard(String boardName) {
+		return whiteboards.get(boardName);
+	}
+
+	/**
+	 * 
+	 * @param boardName peer:port:boardid
+	 * @return whether there is a board with the name
+	 */
+	public synchronized boolean hasBoard(String boardName) {
+		return whiteboards.containsKey(boardName);
+	}
+
+	/**
+	 * 
+	 * @return the selected board, or null
+	 */
+	public Whiteboard getSelectedBoard() {
+		return selectedBoard;
+	}
+	
+	/**
+	 * Add a board to the list that the user can select from. If select is
+	 * true then also select this board.
+	 * @param whiteboard
+	 * @param select
+	 */
+	public void addBoard(Whiteboard whiteboard,boolean select) {
+		synchronized(this) {
+			whiteboards.put(whiteboard.getName(), whiteboard);
+		}
+		if(select) selectBoard(whiteboard.getName());
+		localEmit(boardListChanged, select?whiteboard.getName():null);
+	}
+	
+	/**
+	 * Delete a board from the list, and from the data directory.
+	 * @param boardname must have the form peer:port:boardid
+	 */
+	public void deleteBoard(String boardname) {
+		deleteBoard(boardname, true);
+	}
+	
+	/**
+	 * Delete a board from the list.
+	 * @param boardname must have the form peer:port:boardid
+	 * @param forget whether to delete it from the data directory too
+	 */
+	private void deleteBoard(String boardname, boolean forget) {
+		synchronized(this) {
+			Whiteboard whiteboard = whiteboards.remove(boardname);
+			if (whiteboard != null && whiteboard == selectedBoard && whiteboard.isRemote()
+					&& listenEndpoint != null && listenClientManager != null){
+				send(listenEndpoint, boardDeleted, boardname);
+				send(listenEndpoint, unlistenBoard, boardname); // Tell peer host we are unlistening
+				shutdownLater(listenClientManager);
+				listenClientManager = null;
+				listenEndpoint = null;
+			}
+			// If board was hosted, emit boardDeleted event to listeners and unshare board
+			if (listeningPeers.containsKey(boardname)){
+				// Unshare board from whiteboard server
+				uploadUnsharedBoard(boardname);
+			}
+			if (whiteboard == selectedBoard) {
+				selectedBoard = null;
+			}
+		}
+		if (forget && store != null) {
+			store.delete(boardname);
+		}
+		localEmit(boardListChanged, (String)null);
+	}
+	
+	/**
+	 * Create a new local board with name peer:port:boardid, and select it.
+	 * The boardid includes the time stamp that the board was created at.
+	 * @return the board name
+	 */
+	public String createBoard() {
+		String name = peerport+":board"+Instant.now().toEpochMilli();
+		Whiteboard whiteboard = new Whiteboard(name,false);
+		if(store!=null) store.track(whiteboard);
+		addBoard(whiteboard,true);
+		return name;
+	}
+	
+	/**
+	 * Add the boards kept in the data directory to the list, named after
+	 * this peer. A board is only read when it is first selected.
+	 * @return the names of the boards restored
+	 */
+	public List<String> restoreBoards() {
+		List<String> restored = new ArrayList<>();
+		if(store==null) return restored;
+		for(String boardId : store.restore()) {
+			String name = peerport+":"+boardId;
+			synchronized(this) {
+				if(whiteboards.containsKey(name)) continue;
+				whiteboards.put(name, new Whiteboard(name,false));
+			}
+			restored.add(name);
+		}
+		if(!restored.isEmpty()) {
+			log.info("restored "+restored.size()+" boards from "+store.getDataDir());
+			localEmit(boardListChanged, (String)null);
+		}
+		return restored;
+	}
+	
+	/**
+	 * 
+	 * @param boardName peer:port:boardid
+	 * @return true if the board was restored from the data directory but has
+	 * not been read yet, as it has not been selected
+	 */
+	public boolean isUnloaded(String boardName) {
+		return store!=null && store.isUnloaded(boardName);
+	}
+	
+	/**
+	 * 
+	 * @return an id for a new path drawn on this peer, for its fragments
+	 */
+	public synchronized String newStrokeId() {
+		return peerport+"/"+(++strokeCount);
+	}
+
+	/**
+	 * Send the points drawn since the last fragment of a path that is still
+	 * being drawn on the selected board to the other peers, see
+	 * {@link #boardPathFragment}.
+	 * @param strokeId from {@link #newStrokeId()}
+	 * @param points the points, in the color of the path
+	 */
+	public void pathFragmentLocally(String strokeId, WhiteboardPath points) {
+		synchronized(this) {
+			Whiteboard board = selectedBoard;
+			if (board==null || points.length()==0) return;
+			String fragment = board.getName()+"%"+strokeId+"%"+points.toWireString();
+			if (board.isRemote()) {
+				if (listenEndpoint!=null && listenBoardReceived) send(listenEndpoint, boardPathFragmentUpdate, fragment);
+			} else {
+				sendToListeners(board.getName(), null, boardPathFragment, fragment);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param boardName peer:port:boardid
+	 * @return copies of the paths still being drawn by other peers on the board
+	 */
+	public synchronized List<WhiteboardPath> getProvisionalPaths(String boardName) {
+		List<WhiteboardPath> paths = new ArrayList<>();
+		for (ProvisionalPath provisional : provisionalPaths.values()) {
+			if (provisional.boardName.equals(boardName)) {
+				WhiteboardPath copy = WhiteboardPath.ofColor(provisional.path.getColorName());
+				copy.addPoints(provisional.path.getCoordinates(), 0, provisional.path.length());
+				paths.add(copy);
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * Add a path to the selected board. If it can't be accepted, because the
+	 * board was modified in the meantime, the board needs to be redrawn
+	 * without it.
+	 * @param currentPath
+	 * @return true if the path was added
+	 */
+	public boolean pathCreatedLocally(WhiteboardPath currentPath) {
+		Whiteboard board;
+		WhiteboardOp op;
+		boolean accepted;
+		synchronized(this) {
+			board = selectedBoard;
+			if(board==null) {
+				log.severe("path created without a selected board: "+currentPath);
+				return false;
+			}
+			long baseVersion = board.getVersion();
+			op = WhiteboardOp.addPath(currentPath,baseVersion);
+			accepted = board.apply(op);
+			if(accepted) {
+				// was accepted locally, so do remote stuff if needed, sending
+				// just the path and the version it was added to
+				String boardNameAndPath = board.getName()+"%"+baseVersion+"%"+currentPath.toWireString();
+				if (board.isRemote()) {
+					// If is a remote board, emit the path to host peer
+					if (listenEndpoint!=null) send(listenEndpoint, boardPathUpdate, boardNameAndPath);
+				} else {
+					// If is board hosted by peer, emit boardPathAcccepted to all listening peers
+					sendToListeners(board.getName(), null, boardPathAccepted, boardNameAndPath);
+				}
+			}
+		}
+		if(!accepted) {
+			// some other peer modified the board in between
+			System.out.println("Another peer modified the board while drawing." +
+					"Rejecting path drawn and redrawing board according to modification.");
+		}
+		localEmit(boardChanged, board.getName(), accepted ? op : null);
+		return accepted;
+	}
+	
+	/**
+	 * Clear the selected whiteboard.
+	 * @return true if the board was cleared
+	 */
+	public boolean clearedLocally() {
+		Whiteboard board;
+		WhiteboardOp op;
+		boolean accepted;
+		synchronized(this) {
+			board = selectedBoard;
+			if(board==null) {
+				log.severe("cleared without a selected board");
+				return false;
+			}
+			op = WhiteboardOp.clear(board.getVersion());
+			accepted = board.apply(op);
+			if(accepted) {
+				// was accepted locally, so do remote stuff if needed
+				// If is a remote board, emit cleared board info to host peer
+				String boardNameAndVer = board.getNameAndVersion()+"%";
+				if (board.isRemote()) {
+					if (listenEndpoint!=null) send(listenEndpoint, boardClearUpdate, boardNameAndVer);
+				} else {
+					// If is board hosted by peer, emit boardClearAcccepted to all listening peers
+					sendToListeners(board.getName(), null, boardClearAccepted, boardNameAndVer);
+				}
+			}
+		}
+		localEmit(boardChanged, board.getName(), accepted ? op : null);
+		return accepted;
+	}
+	
+	/**
+	 * Undo the last path of the selected whiteboard.
+	 * @return true if the undo was made
+	 */
+	public boolean undoLocally() {
+		Whiteboard board;
+		WhiteboardOp op;
+		boolean accepted;
+		synchronized(this) {
+			board = selectedBoard;
+			if(board==null) {
+				log.severe("undo without a selected board");
+				return false;
+			}
+			op = WhiteboardOp.undo(board.getVersion());
+			accepted = board.apply(op);
+			if(accepted) {
+				// If is a remote board, emit undo-ed board info to host peer
+				String boardNameAndVer = board.getNameAndVersion()+"%";
+				if (board.isRemote()) {
+					if (listenEndpoint!=null) send(listenEndpoint, boardUndoUpdate, boardNameAndVer);
+				} else {
+					// If is board hosted by peer, emit boardUndoAcccepted to all listening peers
+					sendToListeners(board.getName(), null, boardUndoAccepted, boardNameAndVer);
+				}
+			}
+		}
+		if(!accepted) {
+			// some other peer modified the board in between
+			System.out.println("Another peer modified the board while drawing." +
+					"Rejecting undo and redrawing board according to modification.");
+		}
+		localEmit(boardChanged, board.getName(), accepted ? op : null);
+		return accepted;
+	}
+	
+	/**
+	 * Select a board. A remote board is fetched from its host and listened to,
+	 * and {@link #boardChanged} is emitted once it has been received, while
+	 * selecting a local board stops listening to any remote board.
+	 * @param boardName peer:port:boardid
+	 * @return the selected board, or null if there is no such board
+	 */
+	public Whiteboard selectBoard(String boardName) {
+		Whiteboard board;
+		if(store!=null) {
+			// a restored board is read when it is first selected
+			board = getBoard(boardName);
+			if(board!=null && !board.isRemote()) store.load(board);
+		}
+		synchronized(this) {
+			board = whiteboards.get(boardName);
+			if(board==null) {
+				log.severe("selected a board that does not exist: "+boardName);
+				return null;
+			}
+			if(board==selectedBoard) return board;
+			selectedBoard = board;
+			// Emit unlisten event and terminate previous client session
+			if (listenClientManager!=null){
+				if (listenEndpoint!=null) {
+					send(listenEndpoint, unlistenBoard, listenBoardName);
+				}
+				shutdownLater(listenClientManager);
+				listenClientManager=null;
+				listenEndpoint=null;
+			}
+		}
+		//Remote: get board data from host peer, then use thread listen to updates
+		if (board.isRemote()){
+			getBoardDataFromPeer(board.getName());
+		} else {
+			log.info("selected board: "+board.getName());
+			localEmit(boardChanged, board.getName(), null);
+		}
+		return board;
+	}
+
+	/**
+	 * Set the share status on the selected board.
+	 */
+	public synchronized void setShare(boolean share) {
+		if(selectedBoard!=null) {
+			if(selectedBoard.isRemote()) {
+				log.severe("remote boards can't have their shared status modified");
+				return;
+			}
+			selectedBoard.setShared(share);
+			if (share){
+				uploadSharedBoard(selectedBoard.getName());
+			}
+			else {
+				uploadUnsharedBoard(selectedBoard.getName());
+			}
+		} else {
+			log.severe("there is no selected board");
+		}
+	}
+	
+	/**
+	 * Called by the user interface when the user closes the app. Deletes all
+	 * boards, which unshares the hosted ones, and disconnects from the
+	 * whiteboard server once those events are sent. Boards kept in the data
+	 * directory stay there.
+	 */
+	public void shutdown() {
+		// do some final cleanup
+		getBoardNames().forEach((boardName)->{
+			deleteBoard(boardName, false);
+		});
+		if(store!=null) store.close();
+		synchronized(this) {
+			if(listenClientManager!=null) shutdownLater(listenClientManager);
+			if(indexClientManager!=null) shutdownLater(indexClientManager); // should terminate program cleanly
+		}
+		sender.shutdown();
+		try {
+			sender.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			log.warning("interrupted while sending final events");
+		}
+	}
+
+}
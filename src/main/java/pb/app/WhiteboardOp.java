@@ -0,0 +1,116 @@
+package pb.app;
+
+/**
+ * An operation on a whiteboard: adding a path, undoing the last path or
+ * clearing the board. Each operation applies to a given version of the board,
+ * the version before the operation, and is rejected by
+ * {@link Whiteboard#apply(WhiteboardOp)} if the board is at any other
+ * version. Applying an operation only touches what the operation changes,
+ * so receivers of an update never re-parse the rest of the board.
+ */
+public class WhiteboardOp {
+
+	public enum Type {
+		ADD_PATH("add path"),
+		UNDO("undo"),
+		CLEAR("clear");
+
+		private final String description;
+
+		Type(String description) {
+			this.description=description;
+		}
+
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+
+	private final Type type;
+
+	/**
+	 * The version of the board that the operation applies to.
+	 */
+	private final long baseVersion;
+
+	/**
+	 * The path to add, the path removed by an applied undo, or null.
+	 */
+	private WhiteboardPath path;
+
+	private WhiteboardOp(Type type, long baseVersion, WhiteboardPath path) {
+		this.type=type;
+		this.baseVersion=baseVersion;
+		this.path=path;
+	}
+
+	/**
+	 *
+	 * @param path the path to add
+	 * @param baseVersion the version of the board without the path
+	 * @return an operation to add the path to the board
+	 */
+	public static WhiteboardOp addPath(WhiteboardPath path, long baseVersion) {
+		return new WhiteboardOp(Type.ADD_PATH,baseVersion,path);
+	}
+
+	/**
+	 *
+	 * @param baseVersion the version of the board before the undo
+	 * @return an operation to remove the last path from the board
+	 */
+	public static WhiteboardOp undo(long baseVersion) {
+		return new WhiteboardOp(Type.UNDO,baseVersion,null);
+	}
+
+	/**
+	 *
+	 * @param baseVersion the version of the board before the clear
+	 * @return an operation to remove all paths from the board
+	 */
+	public static WhiteboardOp clear(long baseVersion) {
+		return new WhiteboardOp(Type.CLEAR,baseVersion,null);
+	}
+
+	/**
+	 *
+	 * @return the type of operation
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 *
+	 * @return the version of the board that the operation applies to
+	 */
+	public long getBaseVersion() {
+		return baseVersion;
+	}
+
+	/**
+	 *
+	 * @return the path to add, for an undo that has been applied the path it
+	 * removed, so that what it changed can be redrawn, otherwise null
+	 */
+	public WhiteboardPath getPath() {
+		return path;
+	}
+
+	/**
+	 * Record the path removed by an undo, when it is applied.
+	 * @param path
+	 */
+	void setUndonePath(WhiteboardPath path) {
+		if(type==Type.UNDO) this.path=path;
+	}
+
+	/**
+	 * @return the operation, e.g. "add path at 3: black>1,2>3,4"
+	 */
+	@Override
+	public String toString() {
+		return type+" at "+baseVersion+(path!=null ? ": "+path : "");
+	}
+}
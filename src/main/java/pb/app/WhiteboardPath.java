@@ -2,7 +2,8 @@ package pb.app;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -15,37 +16,89 @@ public class WhiteboardPath {
 	private static Logger log = Logger.getLogger(WhiteboardPath.class.getName());
 	
 	/**
-	 * List of points in the path.
+	 * Coordinates of the points in the path, packed as x0,y0,x1,y1,... so
+	 * that a point costs 8 bytes rather than a {@link WhiteboardPoint} object
+	 * and a list slot. Only the first {@link #size} points are used, the
+	 * array grows as points are added.
 	 */
-	ArrayList<WhiteboardPoint> points;
+	int[] coords;
 	
 	/**
-	 * Color of the path.
+	 * Number of points in the path.
 	 */
-	Color color;
+	int size;
+	
+	private static final int[] noCoords = new int[0];
+	
+	/**
+	 * Number of levels of detail, see {@link #getLevelOfDetail(int)}.
+	 */
+	public static final int levelsOfDetail = 6;
+	
+	/**
+	 * Bounding box of the points, worked out when first needed.
+	 */
+	private Bounds bounds;
+	
+	/**
+	 * Levels of detail of the path, see {@link #getLevelOfDetail(int)},
+	 * worked out when first needed.
+	 */
+	private WhiteboardPath[] levels;
+	
+	/**
+	 * Name of the color of the path, "black" or "red". The AWT color is only
+	 * looked up when the path is drawn, so that paths can be used without
+	 * loading AWT, e.g. by a headless peer.
+	 */
+	String color;
 	
 	/**
 	 * Create a new path with a color.
 	 * @param color
 	 */
 	public WhiteboardPath(Color color) {
-		this.color=color;
-		points=new ArrayList<>();
+		this.color=colorString(color);
+		coords=noCoords;
+	}
+	
+	/**
+	 * Create a new path with a color given by name.
+	 * @param color "black" or "red", anything else defaults to black
+	 * @return the path
+	 */
+	public static WhiteboardPath ofColor(String color) {
+		WhiteboardPath path=new WhiteboardPath();
+		path.color=parseColor(color);
+		return path;
+	}
+	
+	private WhiteboardPath() {
+		coords=noCoords;
 	}
 	
 	/**
 	 * Initialize a path from a string, in the format color>POINTS, where
-	 * POINTS has format point>point>....
+	 * POINTS has format point>point>..., or in the binary format of
+	 * {@link StrokeCodec#toWireString(WhiteboardPath)}, $BASE64.
 	 * @param data
 	 */
 	public WhiteboardPath(String data) {
+		if(data.length()>0 && data.charAt(0)==StrokeCodec.wirePrefix) {
+			WhiteboardPath decoded=StrokeCodec.fromWireString(data);
+			color=decoded.color;
+			coords=decoded.coords;
+			size=decoded.size;
+			return;
+		}
 		String[] parts = data.split(">");
-		points=new ArrayList<>();
-		this.color=Color.black;
+		this.color="black";
+		coords=noCoords;
 		if(parts.length>=1) {
 			color=parseColor(parts[0]);
+			coords=new int[2*(parts.length-1)];
 			for(int i=1;i<parts.length;i++) {
-				points.add(new WhiteboardPoint(parts[i]));
+				parsePoint(parts[i]);
 			}
 		}
 	}
@@ -56,7 +109,30 @@ public class WhiteboardPath {
 	 * @param y
 	 */
 	public void addPoint(int x, int y) {
-		points.add(new WhiteboardPoint(x,y));
+		if(2*size==coords.length) {
+			coords=Arrays.copyOf(coords,Math.max(16,2*coords.length));
+		}
+		coords[2*size]=x;
+		coords[2*size+1]=y;
+		size++;
+		bounds=null;
+		levels=null;
+	}
+	
+	/**
+	 * Add points to the path.
+	 * @param xy coordinates packed as x0,y0,x1,y1,...
+	 * @param offset index in xy of the x coordinate of the first point
+	 * @param count number of points to add
+	 */
+	public void addPoints(int[] xy, int offset, int count) {
+		if(2*(size+count)>coords.length) {
+			coords=Arrays.copyOf(coords,Math.max(2*(size+count),2*coords.length));
+		}
+		System.arraycopy(xy,offset,coords,2*size,2*count);
+		size+=count;
+		bounds=null;
+		levels=null;
 	}
 	
 	/**
@@ -64,7 +140,123 @@ public class WhiteboardPath {
 	 * @return the length of the path
 	 */
 	public int length() {
-		return points.size();
+		return size;
+	}
+	
+	/**
+	 * 
+	 * @param i
+	 * @return the x coordinate of the i'th point
+	 */
+	public int getX(int i) {
+		return coords[2*i];
+	}
+	
+	/**
+	 * 
+	 * @param i
+	 * @return the y coordinate of the i'th point
+	 */
+	public int getY(int i) {
+		return coords[2*i+1];
+	}
+	
+	/**
+	 * 
+	 * @param i
+	 * @return a copy of the i'th point
+	 */
+	public WhiteboardPoint getPoint(int i) {
+		return new WhiteboardPoint(getX(i),getY(i));
+	}
+	
+	/**
+	 * 
+	 * @return a copy of the coordinates of the points, packed as x0,y0,x1,y1,...
+	 */
+	public int[] getCoordinates() {
+		return Arrays.copyOf(coords,2*size);
+	}
+	
+	/**
+	 * Copy the coordinates of the points into separate arrays, e.g. for
+	 * {@link Graphics2D#drawPolyline(int[], int[], int)}.
+	 * @param xs at least {@link #length()} long
+	 * @param ys at least {@link #length()} long
+	 */
+	public void getCoordinates(int[] xs, int[] ys) {
+		for(int i=0;i<size;i++) {
+			xs[i]=coords[2*i];
+			ys[i]=coords[2*i+1];
+		}
+	}
+	
+	/**
+	 * 
+	 * @return the bounding box of the points, or null if there are none
+	 */
+	public Bounds getBounds() {
+		if(bounds==null && size>0) {
+			int minX=coords[0], minY=coords[1], maxX=minX, maxY=minY;
+			for(int i=2;i<2*size;i+=2) {
+				minX=Math.min(minX,coords[i]);
+				maxX=Math.max(maxX,coords[i]);
+				minY=Math.min(minY,coords[i+1]);
+				maxY=Math.max(maxY,coords[i+1]);
+			}
+			bounds=new Bounds(minX,minY,maxX,maxY);
+		}
+		return bounds;
+	}
+	
+	/**
+	 * Get the path simplified for drawing at a smaller scale, so that a
+	 * zoomed out board isn't drawn with more points than it has pixels. Level
+	 * n is for drawing at scale 1/2^n, and is simplified with a tolerance of
+	 * half a pixel at that scale, see {@link PathSimplifier}. All levels are
+	 * worked out together the first time one is needed, and kept.
+	 * @param level 0 for the path itself, up to {@link #levelsOfDetail}-1
+	 * @return the path at the level of detail
+	 */
+	public synchronized WhiteboardPath getLevelOfDetail(int level) {
+		level=Math.max(0,Math.min(levelsOfDetail-1,level));
+		if(level==0) return this;
+		if(levels==null) {
+			levels=new WhiteboardPath[levelsOfDetail];
+			levels[0]=this;
+			for(int i=1;i<levelsOfDetail;i++) {
+				// a path down to its end points can't be simplified any further
+				levels[i]=levels[i-1].size<=2 ? levels[i-1]
+						: PathSimplifier.simplify(this,(1<<i)/2.0);
+			}
+		}
+		return levels[level];
+	}
+	
+	/**
+	 * 
+	 * @param x
+	 * @param y
+	 * @param tolerance
+	 * @return true if the path passes within the tolerance of the point
+	 */
+	public boolean isNear(int x, int y, double tolerance) {
+		Bounds b=getBounds();
+		if(b==null || !b.grow((int)Math.ceil(tolerance)).contains(x,y)) return false;
+		double tolerance2=tolerance*tolerance;
+		if(size==1) {
+			double dx=coords[0]-x, dy=coords[1]-y;
+			return dx*dx+dy*dy<=tolerance2;
+		}
+		for(int i=2;i<2*size;i+=2) {
+			double x1=coords[i-2], y1=coords[i-1];
+			double dx=coords[i]-x1, dy=coords[i+1]-y1;
+			double length2=dx*dx+dy*dy;
+			double t=length2==0 ? 0 : Math.max(0,Math.min(1,((x-x1)*dx+(y-y1)*dy)/length2));
+			double px=x1+t*dx-x, py=y1+t*dy-y;
+			if(px*px+py*py<=tolerance2) return true;
+		}
+		return false;
 	}
 	
 	/**
@@ -72,48 +264,120 @@ public class WhiteboardPath {
 	 * @param g2
 	 */
 	public void drawOnBoard(Graphics2D g2) {
-		if(points.size()<=1) {
+		if(size<=1) {
 			return;
 		}
-		g2.setPaint(color);
-		for(int i=1;i<points.size();i++) {
-			g2.drawLine(points.get(i-1).x, points.get(i-1).y,
-					points.get(i).x, points.get(i).y);
+		g2.setColor(getColor());
+		drawSegments(g2);
+	}
+	
+	/**
+	 * Draw paths on the given graphics resource, in order, setting the color
+	 * only where it changes from one path to the next. Segments are drawn
+	 * one by one, since thin lines are drawn much faster than a shape of the
+	 * whole path, which is stroked in full even where it is clipped, e.g. on
+	 * a tile, see {@code pb.bench.RenderBenchmark}.
+	 * @param g2
+	 * @param paths
+	 * @param from index of the first path to draw
+	 * @param to index after the last path to draw
+	 */
+	public static void drawOnBoard(Graphics2D g2, List<WhiteboardPath> paths, int from, int to) {
+		String color=null;
+		for(int i=from;i<to;i++) {
+			WhiteboardPath path=paths.get(i);
+			if(path.size<=1) continue;
+			if(!path.color.equals(color)) {
+				color=path.color;
+				g2.setColor(path.getColor());
+			}
+			path.drawSegments(g2);
+		}
+	}
+	
+	private void drawSegments(Graphics2D g2) {
+		for(int i=2;i<2*size;i+=2) {
+			g2.drawLine(coords[i-2], coords[i-1], coords[i], coords[i+1]);
 		}
 	}
 	
+	/**
+	 * 
+	 * @return the name of the color, "black" or "red"
+	 */
+	public String getColorName() {
+		return color;
+	}
+	
+	/**
+	 * 
+	 * @return the color
+	 */
+	public Color getColor() {
+		return color.equals("red") ? Color.red : Color.black;
+	}
+	
 	/**
 	 * 
 	 * @return the path as a string in the format color>POINTS
 	 */
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		sb.append(colorString()+">");
-		for(int i=0;i<points.size();i++) {
-			sb.append(points.get(i).toString());
-			if(i!=points.size()-1) {
-				sb.append(">");
+		sb.append(color).append('>');
+		for(int i=0;i<size;i++) {
+			sb.append(coords[2*i]).append(',').append(coords[2*i+1]);
+			if(i!=size-1) {
+				sb.append('>');
 			}
 		}
 		return sb.toString();
 	}
 	
+	/**
+	 * 
+	 * @return the path as it is sent to other peers, in binary if
+	 * {@link StrokeCodec#binary} is true, otherwise as {@link #toString()}
+	 */
+	public String toWireString() {
+		return StrokeCodec.binary ? StrokeCodec.toWireString(this) : toString();
+	}
+	
+	/*
+	 * Private method to parse a point, in the same way as
+	 * WhiteboardPoint(String) but without creating the point.
+	 */
+	
+	private void parsePoint(String data) {
+		int comma=data.indexOf(',');
+		if(comma>0 && data.indexOf(',',comma+1)<0) {
+			try {
+				addPoint(Integer.parseInt(data,0,comma,10),
+						Integer.parseInt(data,comma+1,data.length(),10));
+				return;
+			} catch (NumberFormatException e) {
+				
+			}
+		}
+		log.severe("invalid point ["+data+"] defaulting to (0,0)");
+		addPoint(0,0);
+	}
+	
 	/*
 	 * Private methods to format/parse color value.
 	 */
 	
-	private Color parseColor(String data) {
+	private static String parseColor(String data) {
 		switch(data) {
-		case "black": return Color.black;
-		case "red": return Color.red;
+		case "black": 
+		case "red": return data;
 		default: log.warning("color defaulting to black");
-			return Color.black;
+			return "black";
 		}
 	}
 	
-	private String colorString() {
-		if(color==Color.black) return "black";
-		if(color==Color.red) return "red";
+	private static String colorString(Color color) {
+		if(Color.black.equals(color)) return "black";
+		if(Color.red.equals(color)) return "red";
 		log.warning("color defaulting to black");
 		return "black";
 	}
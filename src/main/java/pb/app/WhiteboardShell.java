@@ -0,0 +1,159 @@
+package pb.app;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.logging.Logger;
+
+/**
+ * A command line interface to a {@link WhiteboardCore}, so that a peer can
+ * run without a display, e.g. to host boards on a server, and can be driven
+ * by a script on its standard input. Commands are read one per line:
+ * <ul>
+ * <li>{@code boards} lists the boards, marking the selected board with *</li>
+ * <li>{@code new} creates a board and selects it</li>
+ * <li>{@code select <board>} selects a board, listening to it if it is remote</li>
+ * <li>{@code share} and {@code unshare} set whether the selected board is shared</li>
+ * <li>{@code draw <color> x,y x,y ...} adds a path to the selected board</li>
+ * <li>{@code undo} and {@code clear} change the selected board</li>
+ * <li>{@code delete [board]} deletes a board, by default the selected one</li>
+ * <li>{@code show} prints the selected board</li>
+ * <li>{@code wait <milliseconds>} pauses, e.g. for updates to arrive</li>
+ * <li>{@code quit} shuts the peer down</li>
+ * </ul>
+ * Blank lines and lines starting with # are ignored. The peer keeps running
+ * at the end of the input, until it is stopped.
+ */
+public class WhiteboardShell {
+	private static Logger log = Logger.getLogger(WhiteboardShell.class.getName());
+
+	private final WhiteboardCore core;
+
+	private final PrintStream out;
+
+	/**
+	 * Initialise the shell, printing events from the peer as they happen.
+	 * @param core the peer
+	 * @param out where to print results and events
+	 */
+	public WhiteboardShell(WhiteboardCore core, PrintStream out) {
+		this.core=core;
+		this.out=out;
+		core.on(WhiteboardCore.serverConnected, (args)->{
+			out.println("connected to whiteboard server "+args[0]);
+		}).on(WhiteboardCore.pathAdded, (args)->{
+			out.println("path added to "+args[0]+": "+args[1]);
+		}).on(WhiteboardCore.updateRejected, (args)->{
+			out.println("update to "+args[0]+" rejected: "+args[1]);
+		});
+	}
+
+	/**
+	 * Execute commands until the end of the input or a quit command.
+	 * @param in
+	 * @return true if the peer was shut down by a quit command
+	 * @throws IOException
+	 */
+	public boolean run(BufferedReader in) throws IOException {
+		String line;
+		while((line=in.readLine())!=null) {
+			if(!execute(line)) {
+				core.shutdown();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Execute a command.
+	 * @param line the command and its arguments
+	 * @return false if the command was quit, true otherwise
+	 */
+	public boolean execute(String line) {
+		String[] parts=line.trim().split("\\s+");
+		if(parts[0].length()==0 || parts[0].startsWith("#")) return true;
+		Whiteboard selectedBoard=core.getSelectedBoard();
+		switch(parts[0]) {
+		case "boards":
+			for(String boardName : core.getBoardNames()) {
+				Whiteboard board=core.getBoard(boardName);
+				if(board==null) continue;
+				out.println((board==selectedBoard ? "* " : "  ")+boardName
+						+(core.isUnloaded(boardName) ? " stored"
+								: " version="+board.getVersion()+" paths="+board.getPathCount())
+						+(board.isRemote() ? " remote" : board.isShared() ? " shared" : ""));
+			}
+			break;
+		case "new":
+			out.println("created "+core.createBoard());
+			break;
+		case "select":
+			if(parts.length!=2) return usage("select <board>");
+			if(core.selectBoard(parts[1])==null) out.println("no such board: "+parts[1]);
+			break;
+		case "share":
+		case "unshare":
+			if(selectedBoard==null) return noBoard();
+			if(selectedBoard.isRemote()) {
+				out.println("remote boards can't be shared or unshared");
+				break;
+			}
+			core.setShare(parts[0].equals("share"));
+			break;
+		case "draw":
+			if(parts.length<4) return usage("draw <black|red> x,y x,y ...");
+			if(selectedBoard==null) return noBoard();
+			WhiteboardPath path=WhiteboardPath.ofColor(parts[1]);
+			for(int i=2;i<parts.length;i++) {
+				WhiteboardPoint point=new WhiteboardPoint(parts[i]);
+				path.addPoint(point.x,point.y);
+			}
+			if(!core.pathCreatedLocally(path)) out.println("path rejected, the board was modified");
+			break;
+		case "undo":
+			if(selectedBoard==null) return noBoard();
+			if(!core.undoLocally()) out.println("undo rejected, the board was modified");
+			break;
+		case "clear":
+			if(selectedBoard==null) return noBoard();
+			if(!core.clearedLocally()) out.println("clear rejected, the board was modified");
+			break;
+		case "delete":
+			String boardName=parts.length>1 ? parts[1] : selectedBoard!=null ? selectedBoard.getName() : null;
+			if(boardName==null) return noBoard();
+			core.deleteBoard(boardName);
+			break;
+		case "show":
+			if(selectedBoard==null) return noBoard();
+			out.println(selectedBoard.toString());
+			break;
+		case "wait":
+			if(parts.length!=2) return usage("wait <milliseconds>");
+			try {
+				Thread.sleep(Long.parseLong(parts[1]));
+			} catch (NumberFormatException e) {
+				return usage("wait <milliseconds>");
+			} catch (InterruptedException e) {
+				log.warning("interrupted while waiting");
+			}
+			break;
+		case "quit":
+			return false;
+		default:
+			out.println("unknown command: "+parts[0]
+					+", commands are boards, new, select, share, unshare, draw, undo, clear, delete, show, wait and quit");
+		}
+		return true;
+	}
+
+	private boolean usage(String usage) {
+		out.println("usage: "+usage);
+		return true;
+	}
+
+	private boolean noBoard() {
+		out.println("there is no selected board");
+		return true;
+	}
+}
@@ -0,0 +1,424 @@
+package pb.app;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The write-ahead log of a locally hosted board, in the data directory of a
+ * {@link BoardStore}. Every operation accepted by the board is appended to a
+ * memory-mapped segment file as it is applied, so it is in the file as soon
+ * as it is on the board, even if the peer is killed, and the segment is
+ * forced to disk by the store with those of the other boards, see
+ * {@link #commit()}.
+ * <br/>
+ * Every {@link BoardStore#snapshotInterval} operations, and on a clear, the
+ * log moves on to a new segment and a binary snapshot of the paths of the
+ * board is written in the background. Once the snapshot is on disk, the
+ * segments and snapshots before it are deleted, so a board is recovered from
+ * its latest snapshot and the few operations after it, see
+ * {@link #recover(Whiteboard)}.
+ * <br/>
+ * Files are named boardid-version, where version is the version of the
+ * board that a segment starts at, boardid-version.wal, or that a snapshot
+ * is of, boardid-version.snap. A segment is a header and then records of:
+ * <ul>
+ * <li>the length of the record after the checksum, an int, 0 after the last
+ * record</li>
+ * <li>the CRC32 of the record after the checksum, an int</li>
+ * <li>the version the operation applied to, a long</li>
+ * <li>the type of the operation, a byte</li>
+ * <li>the path added, for an added path, see {@link StrokeCodec}</li>
+ * </ul>
+ * A record that is cut short or doesn't match its checksum ends the segment.
+ * A snapshot is a header, the version, the number of paths, the paths and
+ * the CRC32 of all of it.
+ */
+class WriteAheadLog {
+	private static Logger log = Logger.getLogger(WriteAheadLog.class.getName());
+
+	static final String segmentSuffix = ".wal";
+
+	static final String snapshotSuffix = ".snap";
+
+	private static final int segmentMagic = 0x50425741; // PBWA
+
+	private static final int snapshotMagic = 0x50425341; // PBSA
+
+	private static final int formatVersion = 1;
+
+	private static final int segmentHeader = 8;
+
+	// length, checksum, version and type
+	private static final int recordOverhead = 17;
+
+	private static final byte addPath = 0;
+
+	private static final byte undo = 1;
+
+	private static final byte clear = 2;
+
+	/**
+	 * A segment file being appended to.
+	 */
+	private static class Segment {
+		final FileChannel channel;
+		MappedByteBuffer buffer;
+
+		Segment(FileChannel channel, MappedByteBuffer buffer) {
+			this.channel=channel;
+			this.buffer=buffer;
+		}
+
+		/**
+		 * Map more of the file, keeping the position.
+		 */
+		void grow(int needed) throws IOException {
+			int position=buffer.position();
+			long size=Math.max(2L*buffer.capacity(), position+needed);
+			if(size>Integer.MAX_VALUE) throw new IOException("segment too large");
+			buffer=channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.position(position);
+		}
+	}
+
+	private final BoardStore store;
+
+	private final String boardId;
+
+	private final CRC32 crc=new CRC32();
+
+	/**
+	 * The segment appended to, or null until the next operation.
+	 */
+	private Segment segment;
+
+	/**
+	 * Whether operations were appended since the segment was last forced.
+	 */
+	private boolean dirty=false;
+
+	/**
+	 * Operations appended since the latest snapshot.
+	 */
+	private long opsSinceSnapshot=0;
+
+	/**
+	 * Whether the log failed, after which the board is only kept in memory.
+	 */
+	private boolean failed=false;
+
+	/**
+	 * Initialise the log of a board, with no files until the first operation.
+	 * @param store
+	 * @param boardId
+	 */
+	WriteAheadLog(BoardStore store, String boardId) {
+		this.store=store;
+		this.boardId=boardId;
+	}
+
+	/**
+	 * Append an operation just applied to the board. Called while holding
+	 * the lock on the board, so operations are appended in order.
+	 * @param op the operation
+	 * @param version the version of the board after the operation
+	 * @param paths the paths of the board after the operation
+	 */
+	synchronized void append(WhiteboardOp op, long version, List<WhiteboardPath> paths) {
+		if(failed) return;
+		try {
+			if(segment==null) {
+				segment=openSegment(op.getBaseVersion());
+			}
+			WhiteboardPath path=op.getType()==WhiteboardOp.Type.ADD_PATH ? op.getPath() : null;
+			int needed=recordOverhead+(path!=null ? StrokeCodec.maxEncodedLength(path) : 0)+4;
+			if(segment.buffer.remaining()<needed) {
+				segment.grow(needed);
+			}
+			ByteBuffer buffer=segment.buffer;
+			int start=buffer.position();
+			buffer.position(start+8);
+			buffer.putLong(op.getBaseVersion());
+			buffer.put(typeCode(op.getType()));
+			if(path!=null) {
+				StrokeCodec.encode(path, buffer);
+			}
+			int end=buffer.position();
+			ByteBuffer record=buffer.duplicate();
+			record.position(start+8).limit(end);
+			crc.reset();
+			crc.update(record);
+			buffer.putInt(start+4, (int)crc.getValue());
+			buffer.putInt(start, end-start-8);
+			dirty=true;
+			opsSinceSnapshot++;
+			if(opsSinceSnapshot>=BoardStore.snapshotInterval || op.getType()==WhiteboardOp.Type.CLEAR) {
+				snapshot(version, paths);
+			}
+		} catch (IOException e) {
+			log.severe("could not write to the log of board "+boardId+", it is only kept in memory: "+e.getMessage());
+			failed=true;
+		}
+	}
+
+	/**
+	 * Force the operations appended since the last commit to disk.
+	 */
+	void commit() {
+		MappedByteBuffer buffer;
+		synchronized(this) {
+			if(!dirty || segment==null) return;
+			dirty=false;
+			buffer=segment.buffer;
+		}
+		// appends carry on while the segment is forced
+		buffer.force();
+	}
+
+	/**
+	 * Force and close the segment appended to.
+	 */
+	synchronized void close() {
+		if(segment==null) return;
+		segment.buffer.force();
+		try {
+			segment.channel.close();
+		} catch (IOException e) {
+			log.warning("could not close the log of board "+boardId+": "+e.getMessage());
+		}
+		segment=null;
+		failed=true;
+	}
+
+	/**
+	 * Restore a board from its latest snapshot and the operations after it.
+	 * The log is not attached to the board yet, so nothing is appended.
+	 * @param board
+	 */
+	void recover(Whiteboard board) {
+		long snapshotVersion=0;
+		List<WhiteboardPath> paths=Collections.emptyList();
+		List<Long> snapshots=versions(snapshotSuffix);
+		for(int i=snapshots.size()-1;i>=0;i--) {
+			try {
+				paths=readSnapshot(snapshots.get(i));
+				snapshotVersion=snapshots.get(i);
+				break;
+			} catch (IOException | IllegalArgumentException e) {
+				log.warning("snapshot "+file(snapshots.get(i), snapshotSuffix)+" is unreadable: "+e.getMessage());
+			}
+		}
+		board.restore(snapshotVersion, paths);
+		long replayed=0;
+		for(long start : versions(segmentSuffix)) {
+			if(start<snapshotVersion) continue;
+			try {
+				replayed+=replay(start, board);
+			} catch (IOException e) {
+				log.warning("segment "+file(start, segmentSuffix)+" is unreadable: "+e.getMessage());
+			}
+		}
+		opsSinceSnapshot=board.getVersion()-snapshotVersion;
+		log.info("recovered board "+boardId+" at version "+board.getVersion()
+				+" from snapshot at "+snapshotVersion+" and "+replayed+" operations");
+	}
+
+	/**
+	 * Delete the files of the board.
+	 */
+	void delete() {
+		close();
+		store.execute(()->deleteBefore(Long.MAX_VALUE));
+	}
+
+	/**
+	 * Move on to a new segment and write a snapshot in the background.
+	 */
+	private void snapshot(long version, List<WhiteboardPath> paths) throws IOException {
+		Segment previous=segment;
+		segment=openSegment(version);
+		opsSinceSnapshot=0;
+		WhiteboardPath[] snapshot=paths.toArray(new WhiteboardPath[0]);
+		store.execute(()->{
+			previous.buffer.force();
+			try {
+				previous.channel.close();
+				writeSnapshot(version, snapshot);
+				deleteBefore(version);
+			} catch (IOException e) {
+				log.warning("could not write a snapshot of board "+boardId+": "+e.getMessage());
+			}
+		});
+	}
+
+	private Segment openSegment(long version) throws IOException {
+		FileChannel channel=FileChannel.open(file(version, segmentSuffix).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		MappedByteBuffer buffer=channel.map(FileChannel.MapMode.READ_WRITE, 0,
+				Math.max(segmentHeader+recordOverhead, BoardStore.segmentSize));
+		buffer.putInt(segmentMagic);
+		buffer.putInt(formatVersion);
+		return new Segment(channel, buffer);
+	}
+
+	/**
+	 * Apply the operations of a segment to the board, up to the end of the
+	 * segment or the first record that is cut short or doesn't apply.
+	 * @return the number of operations applied
+	 */
+	private long replay(long start, Whiteboard board) throws IOException {
+		long applied=0;
+		try(FileChannel channel=FileChannel.open(file(start, segmentSuffix).toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer=channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(buffer.remaining()<segmentHeader || buffer.getInt()!=segmentMagic || buffer.getInt()!=formatVersion) {
+				throw new IOException("not a segment");
+			}
+			while(buffer.remaining()>=8) {
+				int length=buffer.getInt();
+				int checksum=buffer.getInt();
+				if(length<recordOverhead-8 || length>buffer.remaining()) break;
+				ByteBuffer record=buffer.slice();
+				record.limit(length);
+				buffer.position(buffer.position()+length);
+				crc.reset();
+				crc.update(record.duplicate());
+				if((int)crc.getValue()!=checksum) {
+					log.warning("segment "+file(start, segmentSuffix)+" ends with a damaged record");
+					break;
+				}
+				WhiteboardOp op;
+				try {
+					op=readOp(record);
+				} catch (IllegalArgumentException e) {
+					log.warning("segment "+file(start, segmentSuffix)+" has an invalid record: "+e.getMessage());
+					break;
+				}
+				if(!board.apply(op)) {
+					log.warning("segment "+file(start, segmentSuffix)+" has "+op+" but the board is at version "
+							+board.getVersion());
+					break;
+				}
+				applied++;
+			}
+		}
+		return applied;
+	}
+
+	private static WhiteboardOp readOp(ByteBuffer record) {
+		long baseVersion=record.getLong();
+		byte type=record.get();
+		switch(type) {
+		case addPath: return WhiteboardOp.addPath(StrokeCodec.decode(record), baseVersion);
+		case undo: return WhiteboardOp.undo(baseVersion);
+		case clear: return WhiteboardOp.clear(baseVersion);
+		default: throw new IllegalArgumentException("unknown operation "+type);
+		}
+	}
+
+	private static byte typeCode(WhiteboardOp.Type type) {
+		switch(type) {
+		case ADD_PATH: return addPath;
+		case UNDO: return undo;
+		default: return clear;
+		}
+	}
+
+	/**
+	 * Write a snapshot to a temporary file, force it to disk, then move it in
+	 * place, so a snapshot is either complete or not there.
+	 */
+	private void writeSnapshot(long version, WhiteboardPath[] paths) throws IOException {
+		File tmp=new File(store.getDataDir(), boardId+"-"+version+snapshotSuffix+".tmp");
+		try(FileOutputStream fos=new FileOutputStream(tmp)) {
+			CheckedOutputStream checked=new CheckedOutputStream(new BufferedOutputStream(fos, 1<<16), new CRC32());
+			DataOutputStream out=new DataOutputStream(checked);
+			out.writeInt(snapshotMagic);
+			out.writeInt(formatVersion);
+			out.writeLong(version);
+			out.writeInt(paths.length);
+			for(WhiteboardPath path : paths) {
+				out.write(StrokeCodec.encode(path));
+			}
+			out.writeInt((int)checked.getChecksum().getValue());
+			out.flush();
+			fos.getFD().sync();
+		}
+		Files.move(tmp.toPath(), file(version, snapshotSuffix).toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private List<WhiteboardPath> readSnapshot(long version) throws IOException {
+		try(FileChannel channel=FileChannel.open(file(version, snapshotSuffix).toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer=channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(buffer.remaining()<24) throw new IOException("snapshot too short");
+			ByteBuffer content=buffer.duplicate();
+			content.limit(buffer.limit()-4);
+			crc.reset();
+			crc.update(content);
+			if((int)crc.getValue()!=buffer.getInt(buffer.limit()-4)) throw new IOException("checksum mismatch");
+			buffer.limit(buffer.limit()-4);
+			if(buffer.getInt()!=snapshotMagic || buffer.getInt()!=formatVersion || buffer.getLong()!=version) {
+				throw new IOException("not a snapshot of version "+version);
+			}
+			int count=buffer.getInt();
+			if(count<0 || count>buffer.remaining()) throw new IOException("invalid path count "+count);
+			List<WhiteboardPath> paths=new ArrayList<>(count);
+			for(int i=0;i<count;i++) {
+				paths.add(StrokeCodec.decode(buffer));
+			}
+			return paths;
+		}
+	}
+
+	/**
+	 * Delete the segments and snapshots of the board before a version.
+	 */
+	private void deleteBefore(long version) {
+		for(String suffix : new String[] {segmentSuffix, snapshotSuffix}) {
+			for(long v : versions(suffix)) {
+				if(v<version && !file(v, suffix).delete()) {
+					log.warning("could not delete "+file(v, suffix));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the versions of the files of the board with the suffix, in order
+	 */
+	private List<Long> versions(String suffix) {
+		List<Long> versions=new ArrayList<>();
+		String[] names=store.getDataDir().list();
+		if(names==null) return versions;
+		for(String name : names) {
+			if(!name.startsWith(boardId+"-") || !name.endsWith(suffix)) continue;
+			try {
+				versions.add(Long.parseLong(name.substring(boardId.length()+1, name.length()-suffix.length())));
+			} catch (NumberFormatException e) {
+				// not a file of this board
+			}
+		}
+		Collections.sort(versions);
+		return versions;
+	}
+
+	private File file(long version, String suffix) {
+		return new File(store.getDataDir(), boardId+"-"+version+suffix);
+	}
+}
@@ -6,8 +6,12 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.logging.Logger;
 
+import javax.management.ObjectName;
+
 import pb.managers.endpoint.Endpoint;
 import pb.managers.endpoint.ProtocolAlreadyRunning;
+import pb.managers.metrics.Metrics;
+import pb.managers.metrics.ServerMetrics;
 import pb.protocols.IRequestReplyProtocol;
 import pb.protocols.Protocol;
 import pb.protocols.event.EventProtocol;
@@ -105,6 +109,12 @@ public class ServerManager extends Manager implements ISessionProtocolHandler,
 	 */
 	private final Set<Endpoint> liveEndpoints;
 	
+	/**
+	 * Totals over all of the endpoints, published over JMX while the
+	 * server is running.
+	 */
+	private final ServerMetrics metrics = new ServerMetrics();
+	
 	/**
 	 * The port for this server.
 	 */
@@ -184,15 +194,25 @@ public class ServerManager extends Manager implements ISessionProtocolHandler,
 		}
 	}
 	
+	/**
+	 * 
+	 * @return the totals over all of the endpoints of this server
+	 */
+	public ServerMetrics getMetrics() {
+		return metrics;
+	}
+	
 	@Override
 	public void run() {
 		log.info("started");
+		ObjectName metricsName=Metrics.register(metrics,"type=ServerManager,port="+port);
 		// when the IO thread terminates, and all endpoints have terminated,
 		// then the server will terminate
 		try {
 			ioThread = new IOThread(port,this);
 		} catch (IOException e1) {
 			log.severe("could not start the io thread");
+			Metrics.unregister(metricsName);
 			return;
 		}
 		
@@ -258,6 +278,7 @@ public class ServerManager extends Manager implements ISessionProtocolHandler,
 				});
 			}
 		}
+		Metrics.unregister(metricsName);
 		log.info("terminated");
 	}
 	
@@ -290,6 +311,7 @@ public class ServerManager extends Manager implements ISessionProtocolHandler,
 		synchronized(liveEndpoints) {
 			liveEndpoints.add(endpoint);
 		}
+		metrics.endpointStarted(endpoint.getMetrics());
 		
 		if(password!=null) {
 			// listen for admin client events
@@ -345,6 +367,7 @@ public class ServerManager extends Manager implements ISessionProtocolHandler,
 		synchronized(liveEndpoints) {
 			liveEndpoints.remove(endpoint);
 		}
+		metrics.endpointClosed(endpoint.getMetrics());
 	}
 
 	/**
@@ -4,25 +4,28 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import java.util.logging.Logger;
 
+import javax.management.ObjectName;
+
+import pb.managers.metrics.EndpointMetrics;
+import pb.managers.metrics.Metrics;
+import pb.utils.BufferPool;
 import pb.utils.Eventable;
+import pb.utils.RttEstimator;
+import pb.utils.TraceBuffer;
 import pb.utils.Utils;
 import pb.protocols.InvalidMessage;
 import pb.protocols.Message;
+import pb.protocols.MessageView;
 import pb.protocols.Protocol;
-import pb.protocols.event.EventProtocol;
-import pb.protocols.event.IEventProtocolHandler;
+import pb.protocols.ProtocolRegistry;
 import pb.protocols.ICallback;
+import pb.protocols.IProtocolFactory;
 import pb.protocols.IRequestReplyProtocol;
-import pb.protocols.keepalive.IKeepAliveProtocolHandler;
-import pb.protocols.keepalive.KeepAliveProtocol;
-import pb.protocols.session.ISessionProtocolHandler;
-import pb.protocols.session.SessionProtocol;
 
 /**
  * The endpoint is a thread that blocking reads incoming messages (on a socket)
@@ -30,7 +33,9 @@ import pb.protocols.session.SessionProtocol;
  * thread-per-connection model is being used. It also provides a synchronized
  * method to send data to the socket which will be sent to the other endpoint.
  * Any number of protocols can be handled by the endpoint, but there can be only
- * one instance of each protocol running at a time.
+ * one instance of each protocol running at a time. Protocols that the other
+ * endpoint starts are created using the factories in the
+ * {@link pb.protocols.ProtocolRegistry}.
  * 
  * @see {@link pb.managers.Manager}
  * @see {@link pb.protocols.session.SessionProtocol}
@@ -62,9 +67,40 @@ public class Endpoint extends Eventable {
 	private DataOutputStream out=null;
 	
 	/**
-	 * A protocol name to protocol map, of protocols in use.
+	 * The protocols in use, indexed by protocol id. The array is never modified,
+	 * rather it is replaced when a protocol starts or stops, so that the endpoint
+	 * thread can find the protocol for each message without locking.
+	 * @see {@link pb.protocols.ProtocolRegistry}
+	 */
+	private volatile Protocol[] protocols;
+	
+	/**
+	 * Lock for replacing the protocols.
+	 */
+	private final Object protocolsLock = new Object();
+	
+	/**
+	 * Recent messages sent and received, for diagnosing problems.
+	 */
+	private final TraceBuffer trace = new TraceBuffer();
+	
+	/**
+	 * Round trip time to the other endpoint, sampled by the keep alive protocol
+	 * and from replies to requests sent with a timeout. Timeouts derived from it
+	 * are between 1 and 40 seconds, and 40 seconds until there are samples.
 	 */
-	private Map<String,Protocol> protocols;
+	private final RttEstimator rtt = new RttEstimator(40000,1000,40000);
+	
+	/**
+	 * Counters of messages sent and received, published over JMX while the
+	 * endpoint is running.
+	 */
+	private final EndpointMetrics metrics = new EndpointMetrics(rtt);
+	
+	/**
+	 * The name the metrics are registered under, or null.
+	 */
+	private ObjectName metricsName;
 	
 	/**
 	 * Timeout id to use.
@@ -72,9 +108,9 @@ public class Endpoint extends Eventable {
 	private long timeoutId=1;
 	
 	/**
-	 * Oustanding ids
+	 * Oustanding ids, mapped to the time the request was sent
 	 */
-	private Set<Long> outstandingIds;
+	private Map<Long,Long> outstandingIds;
 	
 	/**
 	 * stopped flag
@@ -89,8 +125,8 @@ public class Endpoint extends Eventable {
 	public Endpoint(Socket socket, IEndpointHandler manager) {
 		this.socket = socket;
 		this.manager = manager;
-		protocols = new HashMap<>();
-		outstandingIds = new HashSet<>();
+		protocols = new Protocol[ProtocolRegistry.numProtocols()];
+		outstandingIds = new HashMap<>();
 		setName("Endpoint"); // name the thread
 	}
 	
@@ -103,9 +139,13 @@ public class Endpoint extends Eventable {
 	public synchronized boolean send(Message msg) {
 		if(stopped) return false;
 		try {
-			log.info("sending "+msg.getName()+" for protocol "+msg.getProtocolName()+" to "+getOtherEndpointId());
+			if(TraceBuffer.verbose)
+				log.info("sending "+msg.getName()+" for protocol "+msg.getProtocolName()+" to "+getOtherEndpointId());
+			int written=out.size();
 			out.writeUTF(msg.toJsonString());
 			out.flush();
+			trace.record(TraceBuffer.sent,msg.getProtocolId(),msg.getMessageId(),out.size()-written);
+			metrics.messageSent(msg.getProtocolId(),out.size()-written);
 		} catch (IOException e) {
 			manager.endpointDisconnectedAbruptly(this);
 			return false;
@@ -126,17 +166,27 @@ public class Endpoint extends Eventable {
 			ICallback timeoutCallback,int timeInterval) {
 		long nextId = timeoutId++;
 		synchronized(outstandingIds) {
-			outstandingIds.add(nextId);
+			outstandingIds.put(nextId,System.nanoTime());
 		}
+		metrics.requestSent();
 		msg.setTimeoutId(nextId);
 		boolean sent=send(msg);
-		if(!sent) return false;
+		if(!sent) {
+			synchronized(outstandingIds) {
+				outstandingIds.remove(nextId);
+			}
+			metrics.requestCancelled();
+			return false;
+		}
 		Utils.getInstance().setTimeout(()->{
 			boolean timedout;
 			synchronized(outstandingIds) {
-				timedout=outstandingIds.contains(nextId);
+				timedout=outstandingIds.remove(nextId)!=null;
+			}
+			if(timedout) {
+				metrics.requestTimedOut(msg.getProtocolId());
+				timeoutCallback.callback();
 			}
-			if(timedout) timeoutCallback.callback();
 		}, timeInterval);
 		return sent;
 	}
@@ -168,12 +218,9 @@ public class Endpoint extends Eventable {
 		* their intended function however - and this should be flagged as an error
 		* if it is the case.
 		*/
-		Set<String> protocolNames;
-		synchronized(protocols) {
-			protocolNames = new HashSet<String>(protocols.keySet());
+		for(Protocol protocol : protocols) {
+			if(protocol!=null) stopProtocol(protocol.getProtocolName());
 		}
-		if(protocolNames!=null)
-			protocolNames.forEach((protocolName)->{stopProtocol(protocolName);});
 		
 		/*
 		 *  The endpoint thread itself will not process any more messages if we
@@ -219,40 +266,48 @@ public class Endpoint extends Eventable {
 			return;
 		}
 		stopped=false; // allow use of the out stream
+		metricsName=Metrics.register(metrics,"type=Endpoint,local="+socket.getLocalPort()
+			+",remote="+ObjectName.quote(getOtherEndpointId()));
 		manager.endpointReady(this);
 		log.info("endpoint has started to: "+getOtherEndpointId());
+		// frames are read into a pooled buffer and decoded in place by a
+		// reusable view, rather than via readUTF and a JSON parser, so that
+		// receiving a message does not generate garbage
+		byte[] frame=BufferPool.getFramePool().acquire();
+		MessageView view=new MessageView();
 		while(!isInterrupted()) {
 			try {
-				String line=in.readUTF();
-				Message msg = Message.toMessage(line);
+				int length=in.readUnsignedShort();
+				in.readFully(frame,0,length);
+				Message msg = Message.toMessage(view.reset(frame,length));
 				// cancel any related time out
 				if(msg.getType()==Message.Type.Reply) {
+					Long sentAt;
 					synchronized(outstandingIds) {
-						outstandingIds.remove(msg.getTimeoutId());
+						sentAt=outstandingIds.remove(msg.getTimeoutId());
+					}
+					if(sentAt!=null) {
+						long latency=System.nanoTime()-sentAt;
+						metrics.replyReceived(msg.getProtocolId(),latency);
+						rtt.sample(latency);
 					}
 				}
 				// find the protocol
-				Protocol protocol=null;
-				synchronized(protocols) {
-					protocol=protocols.get(msg.getProtocolName());
-				}
+				int protocolId=msg.getProtocolId();
+				Protocol[] current=protocols;
+				Protocol protocol = protocolId>=0 && protocolId<current.length ? current[protocolId] : null;
 				if(protocol==null) {
-					switch(msg.getProtocolName()) {
-					case SessionProtocol.protocolName:
-						protocol=new SessionProtocol(this,(ISessionProtocolHandler)manager);
-						break;
-					case KeepAliveProtocol.protocolName:
-						protocol=new KeepAliveProtocol(this,(IKeepAliveProtocolHandler)manager);
-						break;
-					case EventProtocol.protocolName:
-						protocol=new EventProtocol(this,(IEventProtocolHandler)manager);
-					}
-					if(!manager.protocolRequested(this,protocol)) {
-						log.info("message dropped due to no protocol available: "+line);
+					IProtocolFactory factory=ProtocolRegistry.getProtocolFactory(protocolId);
+					if(factory!=null) protocol=factory.create(this,manager);
+					if(protocol==null || !manager.protocolRequested(this,protocol)) {
+						log.info("message dropped due to no protocol available: "+view.toJson());
 						continue;
 					}
 				}
-				log.info("received "+msg.getName()+" for protocol "+msg.getProtocolName()+" from "+getOtherEndpointId());
+				trace.record(TraceBuffer.received,protocolId,msg.getMessageId(),length+2);
+				metrics.messageReceived(protocolId,length+2);
+				if(TraceBuffer.verbose)
+					log.info("received "+msg.getName()+" for protocol "+msg.getProtocolName()+" from "+getOtherEndpointId());
 				switch(msg.getType()) {
 				case Request:
 					((IRequestReplyProtocol)protocol).receiveRequest(msg);
@@ -262,14 +317,20 @@ public class Endpoint extends Eventable {
 					break;
 				}
 			} catch (IOException e) {
+				if(!isInterrupted())
+					log.warning("recent messages with "+getOtherEndpointId()+":\n"+dumpTrace(32));
 				manager.endpointDisconnectedAbruptly(this);
 				// we can't continue here
 				break;
 			} catch (InvalidMessage e) {
+				metrics.invalidMessage();
+				log.warning("invalid message, recent messages with "+getOtherEndpointId()+":\n"+dumpTrace(32));
 				manager.endpointSentInvalidMessage(this);
 				// up to the client what to do
 			}
 		}
+		BufferPool.getFramePool().release(frame);
+		Metrics.unregister(metricsName);
 		try {
 			in.close();
 		} catch (IOException e) {
@@ -287,11 +348,15 @@ public class Endpoint extends Eventable {
 	 * running on this endpoint
 	 */
 	public void handleProtocol(Protocol protocol) throws ProtocolAlreadyRunning {
-		synchronized(protocols) {
-			if(protocols.containsKey(protocol.getProtocolName())){
+		int id=ProtocolRegistry.internProtocol(protocol.getProtocolName());
+		synchronized(protocolsLock) {
+			Protocol[] current=protocols;
+			if(id<current.length && current[id]!=null){
 				throw new ProtocolAlreadyRunning();
 			} else {
-				protocols.put(protocol.getProtocolName(),protocol);
+				Protocol[] updated=Arrays.copyOf(current,Math.max(current.length,id+1));
+				updated[id]=protocol;
+				protocols=updated;
 				log.info("now handling protocol: "+protocol.getProtocolName());
 			}
 		}
@@ -304,16 +369,45 @@ public class Endpoint extends Eventable {
 	 * @param protocolName the protocol name to stop
 	 */
 	public void stopProtocol(String protocolName) {
-		synchronized(protocols) {
-			if(!protocols.containsKey(protocolName)) {
+		int id=ProtocolRegistry.getProtocolId(protocolName);
+		synchronized(protocolsLock) {
+			Protocol[] current=protocols;
+			if(id==-1 || id>=current.length || current[id]==null) {
 				log.warning("no instance of protocol to stop: "+protocolName);
 				return;
 			}
-			protocols.get(protocolName).stopProtocol();
-			protocols.remove(protocolName);
+			current[id].stopProtocol();
+			Protocol[] updated=current.clone();
+			updated[id]=null;
+			protocols=updated;
 		}
 	}
 	
+	/**
+	 * Format the most recent messages sent and received on this endpoint.
+	 * @param max the maximum number of messages to include
+	 * @return one line per message, oldest first
+	 */
+	public String dumpTrace(int max) {
+		return trace.dump(max);
+	}
+	
+	/**
+	 * 
+	 * @return the counters of messages sent and received on this endpoint
+	 */
+	public EndpointMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * 
+	 * @return the round trip time estimate to the other endpoint
+	 */
+	public RttEstimator getRttEstimator() {
+		return rtt;
+	}
+	
 	/**
 	 * 
 	 * @return the id of the other endpoint
@@ -329,8 +423,8 @@ public class Endpoint extends Eventable {
 	 * otherwise
 	 */
 	public Protocol getProtocol(String string) {
-		synchronized(protocols) {
-			return protocols.get(string);
-		}
+		int id=ProtocolRegistry.getProtocolId(string);
+		Protocol[] current=protocols;
+		return id>=0 && id<current.length ? current[id] : null;
 	}
 }
@@ -0,0 +1,278 @@
+package pb.managers.metrics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import pb.protocols.ProtocolRegistry;
+import pb.utils.RttEstimator;
+
+/**
+ * Counters for the messages of each protocol on an endpoint. The endpoint
+ * updates the counters as it sends and receives messages, from whichever
+ * thread does so, and JMX clients read them through
+ * {@link pb.managers.metrics.EndpointMetricsMXBean}.
+ * <br/>
+ * Request to reply latency is measured for requests sent with
+ * {@link pb.managers.endpoint.Endpoint#sendWithTimeout(pb.protocols.Message, pb.protocols.ICallback, int)},
+ * from when the request is sent until the reply with the same timeout id is
+ * received.
+ *
+ * @see {@link pb.managers.endpoint.Endpoint#getMetrics()}
+ * @see {@link pb.managers.metrics.ServerMetrics}
+ */
+public class EndpointMetrics implements EndpointMetricsMXBean {
+
+	/**
+	 * Counters for one protocol.
+	 */
+	private static class Counters {
+		final LongAdder messagesIn=new LongAdder();
+		final LongAdder messagesOut=new LongAdder();
+		final LongAdder bytesIn=new LongAdder();
+		final LongAdder bytesOut=new LongAdder();
+		final LongAdder timeouts=new LongAdder();
+		final LongAdder replies=new LongAdder();
+		final LongAdder latencyNanos=new LongAdder();
+		final AtomicLong maxLatencyNanos=new AtomicLong();
+	}
+
+	/**
+	 * Counters indexed by protocol id, replaced when a new protocol is seen.
+	 */
+	private volatile Counters[] protocols=new Counters[0];
+
+	private final LongAdder invalidMessages=new LongAdder();
+
+	private final LongAdder outstandingRequests=new LongAdder();
+
+	/**
+	 * Round trip times to the other endpoint.
+	 */
+	private final RttEstimator rtt;
+
+	/**
+	 * Initialise metrics that have no round trip time estimate of their own,
+	 * e.g. for aggregating the metrics of several endpoints.
+	 */
+	public EndpointMetrics() {
+		this(new RttEstimator(0,0,0));
+	}
+
+	/**
+	 * Initialise metrics for an endpoint.
+	 * @param rtt the endpoint's round trip time estimate
+	 */
+	public EndpointMetrics(RttEstimator rtt) {
+		this.rtt=rtt;
+	}
+
+	/*
+	 * Methods called by the endpoint.
+	 */
+
+	public void messageSent(int protocolId, int bytes) {
+		Counters counters=counters(protocolId);
+		if(counters==null) return;
+		counters.messagesOut.increment();
+		counters.bytesOut.add(bytes);
+	}
+
+	public void messageReceived(int protocolId, int bytes) {
+		Counters counters=counters(protocolId);
+		if(counters==null) return;
+		counters.messagesIn.increment();
+		counters.bytesIn.add(bytes);
+	}
+
+	public void invalidMessage() {
+		invalidMessages.increment();
+	}
+
+	/**
+	 * A request has been sent that expects a reply.
+	 */
+	public void requestSent() {
+		outstandingRequests.increment();
+	}
+
+	/**
+	 * A request that expected a reply was not sent after all.
+	 */
+	public void requestCancelled() {
+		outstandingRequests.decrement();
+	}
+
+	/**
+	 * A request that expected a reply did not get one in time.
+	 * @param protocolId
+	 */
+	public void requestTimedOut(int protocolId) {
+		outstandingRequests.decrement();
+		Counters counters=counters(protocolId);
+		if(counters==null) return;
+		counters.timeouts.increment();
+	}
+
+	/**
+	 * A request that expected a reply got one.
+	 * @param protocolId
+	 * @param latencyNanos time from sending the request to receiving the reply
+	 */
+	public void replyReceived(int protocolId, long latencyNanos) {
+		outstandingRequests.decrement();
+		Counters counters=counters(protocolId);
+		if(counters==null) return;
+		counters.replies.increment();
+		counters.latencyNanos.add(latencyNanos);
+		counters.maxLatencyNanos.accumulateAndGet(latencyNanos,Math::max);
+	}
+
+	/*
+	 * MXBean methods.
+	 */
+
+	@Override
+	public long getMessagesIn() {
+		long sum=0;
+		for(Counters counters : protocols) if(counters!=null) sum+=counters.messagesIn.sum();
+		return sum;
+	}
+
+	@Override
+	public long getMessagesOut() {
+		long sum=0;
+		for(Counters counters : protocols) if(counters!=null) sum+=counters.messagesOut.sum();
+		return sum;
+	}
+
+	@Override
+	public long getBytesIn() {
+		long sum=0;
+		for(Counters counters : protocols) if(counters!=null) sum+=counters.bytesIn.sum();
+		return sum;
+	}
+
+	@Override
+	public long getBytesOut() {
+		long sum=0;
+		for(Counters counters : protocols) if(counters!=null) sum+=counters.bytesOut.sum();
+		return sum;
+	}
+
+	@Override
+	public long getInvalidMessages() {
+		return invalidMessages.sum();
+	}
+
+	@Override
+	public long getTimeouts() {
+		long sum=0;
+		for(Counters counters : protocols) if(counters!=null) sum+=counters.timeouts.sum();
+		return sum;
+	}
+
+	@Override
+	public long getOutstandingRequests() {
+		return outstandingRequests.sum();
+	}
+
+	@Override
+	public Map<String,ProtocolMetrics> getProtocols() {
+		Map<String,ProtocolMetrics> map=new TreeMap<>();
+		Counters[] current=protocols;
+		for(int id=0;id<current.length;id++) {
+			Counters counters=current[id];
+			if(counters==null) continue;
+			long replies=counters.replies.sum();
+			map.put(ProtocolRegistry.getProtocolName(id),new ProtocolMetrics(
+					counters.messagesIn.sum(),counters.messagesOut.sum(),
+					counters.bytesIn.sum(),counters.bytesOut.sum(),
+					counters.timeouts.sum(),replies,
+					replies==0 ? 0 : counters.latencyNanos.sum()/1e6/replies,
+					counters.maxLatencyNanos.get()/1e6));
+		}
+		return map;
+	}
+
+	@Override
+	public long getRttSamples() {
+		return rtt.getHistogram().getCount();
+	}
+
+	@Override
+	public double getRttMeanMillis() {
+		return rtt.getHistogram().getMean()/1000;
+	}
+
+	@Override
+	public double getRttP50Millis() {
+		return rtt.getHistogram().getValueAtPercentile(50)/1000.0;
+	}
+
+	@Override
+	public double getRttP90Millis() {
+		return rtt.getHistogram().getValueAtPercentile(90)/1000.0;
+	}
+
+	@Override
+	public double getRttP99Millis() {
+		return rtt.getHistogram().getValueAtPercentile(99)/1000.0;
+	}
+
+	@Override
+	public double getRttMaxMillis() {
+		return rtt.getHistogram().getMax()/1000.0;
+	}
+
+	@Override
+	public double getSmoothedRttMillis() {
+		return rtt.getSmoothedRtt();
+	}
+
+	@Override
+	public long getRtoMillis() {
+		return rtt.getRto();
+	}
+
+	/**
+	 * Add all of the counters of another endpoint to this one, for aggregation.
+	 * @param other
+	 * @param outstanding whether to include the other endpoint's outstanding
+	 * requests, which only makes sense if it is still live
+	 */
+	void add(EndpointMetrics other, boolean outstanding) {
+		Counters[] theirs=other.protocols;
+		for(int id=0;id<theirs.length;id++) {
+			if(theirs[id]==null) continue;
+			Counters mine=counters(id);
+			mine.messagesIn.add(theirs[id].messagesIn.sum());
+			mine.messagesOut.add(theirs[id].messagesOut.sum());
+			mine.bytesIn.add(theirs[id].bytesIn.sum());
+			mine.bytesOut.add(theirs[id].bytesOut.sum());
+			mine.timeouts.add(theirs[id].timeouts.sum());
+			mine.replies.add(theirs[id].replies.sum());
+			mine.latencyNanos.add(theirs[id].latencyNanos.sum());
+			mine.maxLatencyNanos.accumulateAndGet(theirs[id].maxLatencyNanos.get(),Math::max);
+		}
+		rtt.getHistogram().add(other.rtt.getHistogram());
+		invalidMessages.add(other.invalidMessages.sum());
+		if(outstanding) outstandingRequests.add(other.outstandingRequests.sum());
+	}
+
+	private Counters counters(int protocolId) {
+		if(protocolId<0) return null;
+		Counters[] current=protocols;
+		if(protocolId<current.length && current[protocolId]!=null) return current[protocolId];
+		synchronized(this) {
+			current=protocols;
+			if(protocolId>=current.length) current=Arrays.copyOf(current,protocolId+1);
+			else current=current.clone();
+			if(current[protocolId]==null) current[protocolId]=new Counters();
+			protocols=current;
+			return current[protocolId];
+		}
+	}
+}
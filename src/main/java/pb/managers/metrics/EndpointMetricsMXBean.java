@@ -0,0 +1,55 @@
+package pb.managers.metrics;
+
+import java.util.Map;
+
+/**
+ * Counters for an endpoint, published over JMX under the name
+ * {@code pb:type=Endpoint,local=<local port>,remote="<host:port>"}.
+ *
+ * @see {@link pb.managers.metrics.EndpointMetrics}
+ */
+public interface EndpointMetricsMXBean {
+	public long getMessagesIn();
+	public long getMessagesOut();
+	public long getBytesIn();
+	public long getBytesOut();
+	public long getInvalidMessages();
+	public long getTimeouts();
+
+	/**
+	 *
+	 * @return requests sent with a timeout that are still waiting for a reply
+	 */
+	public long getOutstandingRequests();
+
+	/**
+	 *
+	 * @return counters for each protocol that has been used, by protocol name
+	 */
+	public Map<String,ProtocolMetrics> getProtocols();
+
+	/*
+	 * Round trip times, measured from keep alives and from replies to
+	 * requests sent with a timeout.
+	 */
+
+	public long getRttSamples();
+	public double getRttMeanMillis();
+	public double getRttP50Millis();
+	public double getRttP90Millis();
+	public double getRttP99Millis();
+	public double getRttMaxMillis();
+
+	/**
+	 *
+	 * @return the smoothed round trip time
+	 */
+	public double getSmoothedRttMillis();
+
+	/**
+	 *
+	 * @return the timeout derived from the round trip time, used by the
+	 * protocols when adaptive timeouts are on
+	 */
+	public long getRtoMillis();
+}
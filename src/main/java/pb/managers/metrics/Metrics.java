@@ -0,0 +1,53 @@
+package pb.managers.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Helpers for publishing metrics on the platform MBean server, where they
+ * can be read by JConsole, JMC or any other JMX client. Failing to publish
+ * metrics is never fatal, it is just logged.
+ */
+public class Metrics {
+	private static Logger log = Logger.getLogger(Metrics.class.getName());
+
+	/**
+	 * The JMX domain for all of our MBeans.
+	 */
+	public static final String domain = "pb";
+
+	/**
+	 * Register an MBean.
+	 * @param mbean
+	 * @param properties the key properties of the name, e.g. "type=Endpoint"
+	 * @return the name it was registered with, or null if it was not registered
+	 */
+	public static ObjectName register(Object mbean, String properties) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName(domain+":"+properties);
+			server.registerMBean(mbean, name);
+			return name;
+		} catch (JMException e) {
+			log.warning("could not register metrics "+properties+": "+e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Unregister an MBean.
+	 * @param name as returned by {@link #register(Object, String)}, may be null
+	 */
+	public static void unregister(ObjectName name) {
+		if(name==null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			log.warning("could not unregister metrics "+name+": "+e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package pb.managers.metrics;
+
+/**
+ * A snapshot of the counters for one protocol, as published over JMX.
+ *
+ * @see {@link pb.managers.metrics.EndpointMetrics}
+ */
+public class ProtocolMetrics {
+	private final long messagesIn;
+	private final long messagesOut;
+	private final long bytesIn;
+	private final long bytesOut;
+	private final long timeouts;
+	private final long replies;
+	private final double meanLatencyMillis;
+	private final double maxLatencyMillis;
+
+	public ProtocolMetrics(long messagesIn, long messagesOut, long bytesIn, long bytesOut,
+			long timeouts, long replies, double meanLatencyMillis, double maxLatencyMillis) {
+		this.messagesIn=messagesIn;
+		this.messagesOut=messagesOut;
+		this.bytesIn=bytesIn;
+		this.bytesOut=bytesOut;
+		this.timeouts=timeouts;
+		this.replies=replies;
+		this.meanLatencyMillis=meanLatencyMillis;
+		this.maxLatencyMillis=maxLatencyMillis;
+	}
+
+	public long getMessagesIn() {
+		return messagesIn;
+	}
+
+	public long getMessagesOut() {
+		return messagesOut;
+	}
+
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	public long getBytesOut() {
+		return bytesOut;
+	}
+
+	/**
+	 *
+	 * @return requests that were not replied to in time
+	 */
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	/**
+	 *
+	 * @return replies received to requests sent with a timeout, i.e. latency samples
+	 */
+	public long getReplies() {
+		return replies;
+	}
+
+	/**
+	 *
+	 * @return mean time from sending a request to receiving its reply
+	 */
+	public double getMeanLatencyMillis() {
+		return meanLatencyMillis;
+	}
+
+	/**
+	 *
+	 * @return longest time from sending a request to receiving its reply
+	 */
+	public double getMaxLatencyMillis() {
+		return maxLatencyMillis;
+	}
+}
@@ -0,0 +1,153 @@
+package pb.managers.metrics;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for a server manager: the sum of the counters of its live
+ * endpoints and of all the endpoints that have closed.
+ *
+ * @see {@link pb.managers.ServerManager#getMetrics()}
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+
+	/**
+	 * Metrics of the endpoints that are still live.
+	 */
+	private final Set<EndpointMetrics> live=ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Accumulated metrics of the endpoints that have closed.
+	 */
+	private final EndpointMetrics closed=new EndpointMetrics();
+
+	private final LongAdder totalEndpoints=new LongAdder();
+
+	/**
+	 * Start including an endpoint's metrics.
+	 * @param metrics
+	 */
+	public void endpointStarted(EndpointMetrics metrics) {
+		if(live.add(metrics)) totalEndpoints.increment();
+	}
+
+	/**
+	 * The endpoint has closed, so its metrics will no longer change.
+	 * @param metrics
+	 */
+	public void endpointClosed(EndpointMetrics metrics) {
+		if(live.remove(metrics)) closed.add(metrics,false);
+	}
+
+	/**
+	 *
+	 * @return the current totals
+	 */
+	private EndpointMetrics total() {
+		EndpointMetrics total=new EndpointMetrics();
+		total.add(closed,false);
+		live.forEach((metrics)->{total.add(metrics,true);});
+		return total;
+	}
+
+	@Override
+	public long getMessagesIn() {
+		return total().getMessagesIn();
+	}
+
+	@Override
+	public long getMessagesOut() {
+		return total().getMessagesOut();
+	}
+
+	@Override
+	public long getBytesIn() {
+		return total().getBytesIn();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return total().getBytesOut();
+	}
+
+	@Override
+	public long getInvalidMessages() {
+		return total().getInvalidMessages();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return total().getTimeouts();
+	}
+
+	@Override
+	public long getOutstandingRequests() {
+		return total().getOutstandingRequests();
+	}
+
+	@Override
+	public Map<String,ProtocolMetrics> getProtocols() {
+		return total().getProtocols();
+	}
+
+	@Override
+	public long getRttSamples() {
+		return total().getRttSamples();
+	}
+
+	@Override
+	public double getRttMeanMillis() {
+		return total().getRttMeanMillis();
+	}
+
+	@Override
+	public double getRttP50Millis() {
+		return total().getRttP50Millis();
+	}
+
+	@Override
+	public double getRttP90Millis() {
+		return total().getRttP90Millis();
+	}
+
+	@Override
+	public double getRttP99Millis() {
+		return total().getRttP99Millis();
+	}
+
+	@Override
+	public double getRttMaxMillis() {
+		return total().getRttMaxMillis();
+	}
+
+	/**
+	 * @return the mean of the smoothed round trip times of the live
+	 * endpoints that have any samples
+	 */
+	@Override
+	public double getSmoothedRttMillis() {
+		return live.stream().filter((metrics)->metrics.getRttSamples()>0)
+				.mapToDouble(EndpointMetrics::getSmoothedRttMillis).average().orElse(0);
+	}
+
+	/**
+	 * @return the mean timeout of the live endpoints that have any samples
+	 */
+	@Override
+	public long getRtoMillis() {
+		return (long)live.stream().filter((metrics)->metrics.getRttSamples()>0)
+				.mapToLong(EndpointMetrics::getRtoMillis).average().orElse(0);
+	}
+
+	@Override
+	public int getLiveEndpoints() {
+		return live.size();
+	}
+
+	@Override
+	public long getTotalEndpoints() {
+		return totalEndpoints.sum();
+	}
+}
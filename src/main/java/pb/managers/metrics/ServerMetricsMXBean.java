@@ -0,0 +1,22 @@
+package pb.managers.metrics;
+
+/**
+ * Counters for a server manager, aggregated over all of the endpoints it has
+ * had, published over JMX under the name {@code pb:type=ServerManager,port=<port>}.
+ *
+ * @see {@link pb.managers.metrics.ServerMetrics}
+ */
+public interface ServerMetricsMXBean extends EndpointMetricsMXBean {
+
+	/**
+	 *
+	 * @return endpoints that have not yet closed
+	 */
+	public int getLiveEndpoints();
+
+	/**
+	 *
+	 * @return endpoints that have ever been accepted
+	 */
+	public long getTotalEndpoints();
+}
@@ -27,6 +27,10 @@ import org.json.simple.parser.ParseException;
  * ArrayList<Document> docs2 = (ArrayList<Document>) doc3.get("docList");
  * }
  * </pre>
+ * A Document may also be backed by a {@link pb.protocols.MessageView} of a
+ * received frame, in which case scalar values are read straight from the
+ * frame and the JSON object is only built if the document is modified or a
+ * compound value is asked for.
  * @author aaron
  *
  */
@@ -34,6 +38,12 @@ public class Document {
 	
 	protected JSONObject obj;
 	
+	/**
+	 * The received frame backing this document, or null once the document
+	 * has been materialized into {@link #obj}.
+	 */
+	private MessageView view;
+	
 	public Document(){
 		obj=new JSONObject();
 	}
@@ -42,8 +52,27 @@ public class Document {
 		this.obj = obj;
 	}
 	
+	/**
+	 * A document backed by a received frame. It is only valid for as long
+	 * as the view is.
+	 * @param view
+	 */
+	public Document(MessageView view){
+		this.view = view;
+	}
+	
+	/**
+	 * Build the JSON object from the backing view, if there is one.
+	 */
+	private void materialize(){
+		if(view==null) return;
+		obj = parse(view.toJson()).obj;
+		view = null;
+	}
+	
 	@SuppressWarnings("unchecked")
 	public void append(String key,String val){
+		materialize();
 		if(val==null){
 			obj.put(key, null);
 		} else {
@@ -53,19 +82,24 @@ public class Document {
 	
 	@SuppressWarnings("unchecked")
 	public void append(String key,Document doc){
+		materialize();
+		doc.materialize();
 		obj.put(key, doc.obj);
 	}
 	
 	@SuppressWarnings("unchecked")
 	public void append(String key,boolean val){
+		materialize();
 		obj.put(key, Boolean.valueOf(val));
 	}
 	
 	@SuppressWarnings("unchecked")
 	public void append(String key,ArrayList<?> val){
+		materialize();
 		JSONArray list = new JSONArray();
 		for(Object o : val){
 			if(o instanceof Document){
+				((Document)o).materialize();
 				list.add(((Document)o).obj);
 			} else {
 				list.add(o);
@@ -76,15 +110,18 @@ public class Document {
 	
 	@SuppressWarnings("unchecked")
 	public void append(String key,long val){
+		materialize();
 		obj.put(key, Long.valueOf(val));
 	}
 	
 	@SuppressWarnings("unchecked")
 	public void append(String key,int val){
+		materialize();
 		obj.put(key, Integer.valueOf(val));
 	}
 	
 	public String toJson(){
+		if(view!=null) return view.toJson();
 		return obj.toJSONString();
 	}
 	
@@ -101,10 +138,61 @@ public class Document {
 	}
 	
 	public boolean containsKey(String key){
+		if(view!=null) return view.containsKey(key);
 		return obj.containsKey(key);
 	}
 	
+	/**
+	 * 
+	 * @param key
+	 * @return true if the key is present with a String value
+	 */
+	public boolean isString(String key){
+		if(view!=null) return view.isString(key);
+		return obj.get(key) instanceof String;
+	}
+	
+	/**
+	 * 
+	 * @param key
+	 * @return true if the key is present with a Long value
+	 */
+	public boolean isLong(String key){
+		if(view!=null) return view.isLong(key);
+		return obj.get(key) instanceof Long;
+	}
+	
+	/**
+	 * Test a String value without decoding it, where possible.
+	 * @param key
+	 * @param val
+	 * @return true if the key is present with a String value equal to val
+	 */
+	public boolean stringEquals(String key,String val){
+		if(view!=null) return view.stringEquals(key,val);
+		Object o = obj.get(key);
+		return o instanceof String && o.equals(val);
+	}
+	
+	/**
+	 * Find which of the candidates a String value is equal to, without decoding
+	 * it where possible.
+	 * @param key
+	 * @param candidates
+	 * @return the index of the matching candidate or -1 if there is none
+	 */
+	public int indexOfString(String key,String[] candidates){
+		if(view!=null) return view.indexOfString(key,candidates);
+		Object o = obj.get(key);
+		if(!(o instanceof String)) return -1;
+		for(int i=0;i<candidates.length;i++){
+			if(o.equals(candidates[i])) return i;
+		}
+		return -1;
+	}
+	
 	public String getString(String key){
+		if(view!=null) return view.getString(key);
 		return (String) obj.get(key);
 	}
 	
@@ -123,6 +211,10 @@ public class Document {
 	}
 	
 	public Object get(String key){
+		if(view!=null){
+			if(!view.isCompound(key)) return view.getScalar(key);
+			materialize();
+		}
 		Object o = obj.get(key);
 		if(o instanceof JSONObject){
 			return (Object) new Document((JSONObject) o);
@@ -135,14 +227,17 @@ public class Document {
 	}
 	
 	public int getInteger(String key){
+		if(view!=null) return (int) view.getLong(key);
 		return (int) obj.get(key);
 	}
 	
 	public long getLong(String key){
+		if(view!=null) return view.getLong(key);
 		return (long) obj.get(key);
 	}
 	
 	public boolean getBoolean(String key){
+		if(view!=null) return view.getBoolean(key);
 		return (boolean) obj.get(key);
 	}
 }
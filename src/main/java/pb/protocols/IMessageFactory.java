@@ -0,0 +1,17 @@
+package pb.protocols;
+
+/**
+ * Creates a message object from received message parameters.
+ * 
+ * @see {@link pb.protocols.ProtocolRegistry#registerMessage(String, String, IMessageFactory)}
+ */
+@FunctionalInterface
+public interface IMessageFactory {
+	/**
+	 * Create the message.
+	 * @param doc with the message details
+	 * @return the message
+	 * @throws InvalidMessage when the doc does not contain all of the required parameters
+	 */
+	public Message create(Document doc) throws InvalidMessage;
+}
@@ -0,0 +1,21 @@
+package pb.protocols;
+
+import pb.managers.endpoint.Endpoint;
+import pb.managers.endpoint.IEndpointHandler;
+
+/**
+ * Creates a protocol instance when the other side of an endpoint starts
+ * using a protocol that is not yet running on this side.
+ * 
+ * @see {@link pb.protocols.ProtocolRegistry#registerProtocol(String, IProtocolFactory)}
+ */
+@FunctionalInterface
+public interface IProtocolFactory {
+	/**
+	 * Create a new instance of the protocol.
+	 * @param endpoint the endpoint that the protocol will run on
+	 * @param manager the manager of the endpoint, which the protocol reports to
+	 * @return the new protocol
+	 */
+	public Protocol create(Endpoint endpoint, IEndpointHandler manager);
+}
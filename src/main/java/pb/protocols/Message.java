@@ -1,18 +1,10 @@
 package pb.protocols;
 
-import pb.protocols.event.EventReply;
-import pb.protocols.event.EventRequest;
-import pb.protocols.keepalive.KeepAliveReply;
-import pb.protocols.keepalive.KeepAliveRequest;
-import pb.protocols.session.SessionStartReply;
-import pb.protocols.session.SessionStartRequest;
-import pb.protocols.session.SessionStopReply;
-import pb.protocols.session.SessionStopRequest;
-
 /**
  * Message super class and factory for all protocol messages, to parse a
  * received UTF-8 line of text in JSON format, as an object that represents the
- * message.
+ * message. Messages must be registered with the
+ * {@link pb.protocols.ProtocolRegistry} to be received.
  * 
  * @see {@link pb.protocols.Protocol}
  * @author aaron
@@ -32,6 +24,20 @@ public class Message {
 	 */
 	protected Document doc;
 	
+	/**
+	 * The message name, protocol name and type are fixed by the message class,
+	 * so they are kept here as well to avoid looking them up in the doc.
+	 */
+	private final String name;
+	private final String protocolName;
+	private final Message.Type type;
+	
+	/**
+	 * Registry ids of the message and its protocol, looked up when first needed.
+	 */
+	private int messageId=-1;
+	private int protocolId=-1;
+	
 	/**
 	 * Initialiser when given parameters explicitly.
 	 * @param name the name of the message (its classname by convention)
@@ -39,6 +45,9 @@ public class Message {
 	 * @param type whether its a Request or a Reply message
 	 */
 	public Message(String name, String protocolName, Message.Type type) {
+		this.name=name;
+		this.protocolName=protocolName;
+		this.type=type;
 		doc = new Document();
 		doc.append("name", name);
 		doc.append("protocolName", protocolName);
@@ -46,20 +55,15 @@ public class Message {
 	}
 	
 	static public void validateStringValue(String key,String val,Document doc) throws InvalidMessage {
-		if(!doc.containsKey(key)) throw new InvalidMessage();
-		if(!(doc.get(key) instanceof String)) throw new InvalidMessage();
-		String msg = doc.getString(key);
-		if(!msg.equals(val)) throw new InvalidMessage();
+		if(!doc.stringEquals(key,val)) throw new InvalidMessage();
 	}
 	
 	static public void validateLongType(String key,Document doc) throws InvalidMessage {
-		if(!doc.containsKey(key)) throw new InvalidMessage();
-		if(!(doc.get(key) instanceof Long)) throw new InvalidMessage();
+		if(!doc.isLong(key)) throw new InvalidMessage();
 	}
 	
 	static public void validateStringType(String key,Document doc) throws InvalidMessage {
-		if(!doc.containsKey(key)) throw new InvalidMessage();
-		if(!(doc.get(key) instanceof String)) throw new InvalidMessage();
+		if(!doc.isString(key)) throw new InvalidMessage();
 	}
 	
 	/**
@@ -70,6 +74,9 @@ public class Message {
 	 */
 	public Message(String name, String protocolName, 
 			Message.Type type, Document doc) throws InvalidMessage {
+		this.name=name;
+		this.protocolName=protocolName;
+		this.type=type;
 		validateStringValue("name",name,doc);
 		validateStringValue("protocolName",protocolName,doc);
 		validateStringValue("type",type.toString(),doc);
@@ -83,27 +90,28 @@ public class Message {
 	 * @throws InvalidMessage if no message object matches the message
 	 */
 	static public Message toMessage(String json) throws InvalidMessage {
-		Document doc = Document.parse(json);
-		// the following test is somewhat repetitive, but it avoids having
-		// to test each message type, handling exceptions for those that are
-		// not the matching message type
-		if(!doc.containsKey("name")) throw new InvalidMessage();
-		if(!(doc.get("name") instanceof String)) throw new InvalidMessage();
-		String msg = doc.getString("name");
-		switch(msg) {
-			case KeepAliveRequest.name: return new KeepAliveRequest(doc);
-			case KeepAliveReply.name: return new KeepAliveReply(doc);
-			case SessionStartRequest.name: return new SessionStartRequest(doc);
-			case SessionStartReply.name: return new SessionStartReply(doc);
-			case SessionStopRequest.name: return new SessionStopRequest(doc);
-			case SessionStopReply.name: return new SessionStopReply(doc);
-			case EventRequest.name: return new EventRequest(doc);
-			case EventReply.name: return new EventReply(doc);
-			// put more message cases here
-			
-			// if nothing matches, its invalid
-			default: throw new InvalidMessage();
-		}
+		return toMessage(Document.parse(json));
+	}
+	
+	/**
+	 * Turn a received frame into an appropriate message object, without
+	 * decoding the frame. The message is only valid for as long as the view is.
+	 * @param view the indexed frame
+	 * @return the appropriate message object
+	 * @throws InvalidMessage if no message object matches the message
+	 */
+	static public Message toMessage(MessageView view) throws InvalidMessage {
+		return toMessage(new Document(view));
+	}
+	
+	/**
+	 * Turn a document into an appropriate message object.
+	 * @param doc the message parameters
+	 * @return the appropriate message object
+	 * @throws InvalidMessage if no message object matches the message
+	 */
+	static public Message toMessage(Document doc) throws InvalidMessage {
+		return ProtocolRegistry.createMessage(doc);
 	}
 	
 	/**
@@ -119,7 +127,7 @@ public class Message {
 	 * @return
 	 */
 	public String getProtocolName() {
-		return doc.getString("protocolName");
+		return protocolName;
 	}
 	
 	/**
@@ -127,7 +135,27 @@ public class Message {
 	 * @return
 	 */
 	public String getName() {
-		return doc.getString("name");
+		return name;
+	}
+	
+	/**
+	 * Return the registry id of the protocol
+	 * @return the id or -1 if the protocol is not registered
+	 * @see {@link pb.protocols.ProtocolRegistry}
+	 */
+	public final int getProtocolId() {
+		if(protocolId==-1) protocolId=ProtocolRegistry.getProtocolId(protocolName);
+		return protocolId;
+	}
+	
+	/**
+	 * Return the registry id of the message
+	 * @return the id or -1 if the message is not registered
+	 * @see {@link pb.protocols.ProtocolRegistry}
+	 */
+	public final int getMessageId() {
+		if(messageId==-1) messageId=ProtocolRegistry.getMessageId(name);
+		return messageId;
 	}
 	
 	/**
@@ -135,7 +163,7 @@ public class Message {
 	 * @return
 	 */
 	public final Message.Type getType() {
-		return Message.Type.valueOf(doc.getString("type"));
+		return type;
 	}
 	
 	/**
@@ -0,0 +1,422 @@
+package pb.protocols;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A reusable, read-only view over a received message frame. The frame is
+ * the modified UTF-8 encoded JSON object written by
+ * {@link java.io.DataOutputStream#writeUTF(String)}. Calling
+ * {@link #reset(byte[], int)} indexes the top level fields of the object
+ * in place, without creating any objects, so that the message name, protocol
+ * name, type and timeout id can be inspected without allocation. String
+ * values are only decoded when they are asked for, e.g. by
+ * {@link #getString(String)}.
+ * <br/>
+ * The view, and any {@link pb.protocols.Document} or
+ * {@link pb.protocols.Message} made from it, is only valid until the next
+ * call to {@link #reset(byte[], int)}, i.e. for the duration of the receive
+ * callbacks on the endpoint thread. Values that must outlive the callback
+ * should be copied out with the getters.
+ *
+ * @see {@link pb.protocols.Message#toMessage(MessageView)}
+ */
+public class MessageView {
+	/**
+	 * Kinds of top level values.
+	 */
+	static final byte STRING=0;
+	static final byte NUMBER=1;
+	static final byte TRUE=2;
+	static final byte FALSE=3;
+	static final byte NULL=4;
+	static final byte OBJECT=5;
+	static final byte ARRAY=6;
+
+	/**
+	 * The frame being viewed.
+	 */
+	private byte[] buf;
+
+	/**
+	 * Number of bytes of the frame in use.
+	 */
+	private int len;
+
+	/**
+	 * Number of top level fields found in the frame.
+	 */
+	private int numFields;
+
+	// Per field offsets into the frame. Key and string value bounds exclude
+	// the quotes. Arrays are grown in the unusual case of many fields.
+	private int[] keyStart=new int[8];
+	private int[] keyEnd=new int[8];
+	private int[] valStart=new int[8];
+	private int[] valEnd=new int[8];
+	private byte[] kind=new byte[8];
+
+	/**
+	 * Whether the key or value of the field contains escapes or non-ASCII
+	 * bytes, in which case it can't be compared byte by byte.
+	 */
+	private boolean[] keyPlain=new boolean[8];
+	private boolean[] valPlain=new boolean[8];
+
+	/**
+	 * Scan position while indexing.
+	 */
+	private int pos;
+
+	/**
+	 * Index a new frame. Any previous frame is forgotten.
+	 * @param buf the frame bytes
+	 * @param len the number of bytes in the frame
+	 * @return this view, for chaining
+	 * @throws InvalidMessage if the frame is not a JSON object
+	 */
+	public MessageView reset(byte[] buf, int len) throws InvalidMessage {
+		this.buf=buf;
+		this.len=len;
+		numFields=0;
+		pos=0;
+		skipWhitespace();
+		expect('{');
+		skipWhitespace();
+		if(peek()=='}') {
+			pos++;
+		} else {
+			while(true) {
+				if(numFields==kind.length) grow();
+				int f=numFields;
+				skipWhitespace();
+				expect('"');
+				keyStart[f]=pos;
+				keyPlain[f]=skipString();
+				keyEnd[f]=pos-1;
+				skipWhitespace();
+				expect(':');
+				skipWhitespace();
+				scanValue(f);
+				numFields++;
+				skipWhitespace();
+				byte b=next();
+				if(b=='}') break;
+				if(b!=',') throw new InvalidMessage();
+			}
+		}
+		skipWhitespace();
+		if(pos!=len) throw new InvalidMessage();
+		return this;
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return true if the frame has a top level field with the given key
+	 */
+	public boolean containsKey(String key) {
+		return field(key)!=-1;
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return true if the field is present and is a string
+	 */
+	public boolean isString(String key) {
+		int f=field(key);
+		return f!=-1 && kind[f]==STRING;
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return true if the field is present and is an integer, i.e. a number
+	 * that would be parsed as a Long
+	 */
+	public boolean isLong(String key) {
+		int f=field(key);
+		return f!=-1 && kind[f]==NUMBER && isInteger(f);
+	}
+
+	/**
+	 * Compare a string field to a value without decoding it.
+	 * @param key
+	 * @param val
+	 * @return true if the field is present, is a string and equals val
+	 */
+	public boolean stringEquals(String key,String val) {
+		int f=field(key);
+		if(f==-1 || kind[f]!=STRING) return false;
+		if(!valPlain[f]) return decode(valStart[f],valEnd[f],true).equals(val);
+		return plainEquals(valStart[f],valEnd[f],val);
+	}
+
+	/**
+	 * Find which of the candidate values a string field is equal to,
+	 * without decoding it.
+	 * @param key
+	 * @param candidates
+	 * @return the index of the matching candidate or -1 if there is none
+	 */
+	public int indexOfString(String key,String[] candidates) {
+		int f=field(key);
+		if(f==-1 || kind[f]!=STRING) return -1;
+		for(int i=0;i<candidates.length;i++) {
+			if(candidates[i]==null) continue;
+			if(valPlain[f]) {
+				if(plainEquals(valStart[f],valEnd[f],candidates[i])) return i;
+			} else if(decode(valStart[f],valEnd[f],true).equals(candidates[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Decode a string field. This is where allocation happens, so it
+	 * should only be called when the value is actually needed.
+	 * @param key
+	 * @return the string or null if the field is not present or not a string
+	 */
+	public String getString(String key) {
+		int f=field(key);
+		if(f==-1 || kind[f]!=STRING) return null;
+		return decode(valStart[f],valEnd[f],true);
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return the value of an integer field, or 0 if the field is not an integer
+	 */
+	public long getLong(String key) {
+		int f=field(key);
+		if(f==-1 || kind[f]!=NUMBER || !isInteger(f)) return 0;
+		long val=0;
+		int i=valStart[f];
+		boolean negative=buf[i]=='-';
+		if(negative || buf[i]=='+') i++;
+		for(;i<valEnd[f];i++) {
+			val=val*10+(buf[i]-'0');
+		}
+		return negative?-val:val;
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return the value of a boolean field, or false if the field is not a boolean
+	 */
+	public boolean getBoolean(String key) {
+		int f=field(key);
+		return f!=-1 && kind[f]==TRUE;
+	}
+
+	/**
+	 * Return a scalar value in the same boxed form as the JSON parser would,
+	 * i.e. String, Long, Double, Boolean or null.
+	 * @param key
+	 * @return the value, or null if not present
+	 * @throws IllegalStateException if the value is an object or array, which
+	 * the view does not decode
+	 */
+	Object getScalar(String key) {
+		int f=field(key);
+		if(f==-1) return null;
+		switch(kind[f]) {
+		case STRING: return decode(valStart[f],valEnd[f],true);
+		case NUMBER:
+			if(isInteger(f)) return Long.valueOf(getLong(key));
+			return Double.valueOf(decode(valStart[f],valEnd[f],true));
+		case TRUE: return Boolean.TRUE;
+		case FALSE: return Boolean.FALSE;
+		case NULL: return null;
+		default: throw new IllegalStateException("not a scalar: "+key);
+		}
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return true if the field is present and is an object or an array
+	 */
+	boolean isCompound(String key) {
+		int f=field(key);
+		return f!=-1 && (kind[f]==OBJECT || kind[f]==ARRAY);
+	}
+
+	/**
+	 * Decode the entire frame.
+	 * @return the frame as a JSON string
+	 */
+	public String toJson() {
+		return decode(0,len,false);
+	}
+
+	/*
+	 * Private methods for indexing and decoding.
+	 */
+
+	private int field(String key) {
+		// the JSON parser keeps the last of any duplicated keys, so we do too
+		for(int f=numFields-1;f>=0;f--) {
+			if(keyPlain[f]) {
+				if(plainEquals(keyStart[f],keyEnd[f],key)) return f;
+			} else if(decode(keyStart[f],keyEnd[f],true).equals(key)) {
+				return f;
+			}
+		}
+		return -1;
+	}
+
+	private boolean plainEquals(int start,int end,String val) {
+		if(end-start!=val.length()) return false;
+		for(int i=start;i<end;i++) {
+			if(buf[i]!=val.charAt(i-start)) return false;
+		}
+		return true;
+	}
+
+	private boolean isInteger(int f) {
+		for(int i=valStart[f];i<valEnd[f];i++) {
+			byte b=buf[i];
+			if(b=='.' || b=='e' || b=='E') return false;
+		}
+		return true;
+	}
+
+	private void grow() {
+		int n=kind.length*2;
+		keyStart=Arrays.copyOf(keyStart,n);
+		keyEnd=Arrays.copyOf(keyEnd,n);
+		valStart=Arrays.copyOf(valStart,n);
+		valEnd=Arrays.copyOf(valEnd,n);
+		kind=Arrays.copyOf(kind,n);
+		keyPlain=Arrays.copyOf(keyPlain,n);
+		valPlain=Arrays.copyOf(valPlain,n);
+	}
+
+	private byte peek() throws InvalidMessage {
+		if(pos>=len) throw new InvalidMessage();
+		return buf[pos];
+	}
+
+	private byte next() throws InvalidMessage {
+		if(pos>=len) throw new InvalidMessage();
+		return buf[pos++];
+	}
+
+	private void expect(char c) throws InvalidMessage {
+		if(next()!=c) throw new InvalidMessage();
+	}
+
+	private void skipWhitespace() {
+		while(pos<len && (buf[pos]==' ' || buf[pos]=='\t' || buf[pos]=='\n' || buf[pos]=='\r')) pos++;
+	}
+
+	/**
+	 * Skip to just past the closing quote of a string.
+	 * @return true if the string is plain ASCII without escapes
+	 */
+	private boolean skipString() throws InvalidMessage {
+		boolean plain=true;
+		while(true) {
+			byte b=next();
+			if(b=='"') return plain;
+			if(b=='\\') {
+				plain=false;
+				next();
+			} else if(b<0) {
+				plain=false;
+			}
+		}
+	}
+
+	private void scanValue(int f) throws InvalidMessage {
+		byte b=peek();
+		valPlain[f]=true;
+		if(b=='"') {
+			pos++;
+			valStart[f]=pos;
+			valPlain[f]=skipString();
+			valEnd[f]=pos-1;
+			kind[f]=STRING;
+			return;
+		}
+		valStart[f]=pos;
+		if(b=='{' || b=='[') {
+			kind[f]= b=='{' ? OBJECT : ARRAY;
+			int depth=0;
+			do {
+				b=next();
+				if(b=='"') skipString();
+				else if(b=='{' || b=='[') depth++;
+				else if(b=='}' || b==']') depth--;
+			} while(depth>0);
+		} else if(b=='t') {
+			skipLiteral("true");
+			kind[f]=TRUE;
+		} else if(b=='f') {
+			skipLiteral("false");
+			kind[f]=FALSE;
+		} else if(b=='n') {
+			skipLiteral("null");
+			kind[f]=NULL;
+		} else {
+			while(pos<len && (buf[pos]=='-' || buf[pos]=='+' || buf[pos]=='.'
+					|| buf[pos]=='e' || buf[pos]=='E' || (buf[pos]>='0' && buf[pos]<='9'))) pos++;
+			if(pos==valStart[f]) throw new InvalidMessage();
+			kind[f]=NUMBER;
+		}
+		valEnd[f]=pos;
+	}
+
+	private void skipLiteral(String literal) throws InvalidMessage {
+		for(int i=0;i<literal.length();i++) {
+			if(next()!=literal.charAt(i)) throw new InvalidMessage();
+		}
+	}
+
+	/**
+	 * Decode modified UTF-8 bytes, as written by writeUTF, optionally
+	 * resolving JSON string escapes along the way.
+	 */
+	private String decode(int start,int end,boolean unescape) {
+		boolean plain=true;
+		for(int i=start;i<end && plain;i++) {
+			plain = buf[i]>=0 && !(unescape && buf[i]=='\\');
+		}
+		if(plain) return new String(buf,start,end-start,StandardCharsets.ISO_8859_1);
+		char[] chars=new char[end-start];
+		int n=0;
+		int i=start;
+		while(i<end) {
+			int c=buf[i++]&0xff;
+			if(c>=0xe0) {
+				c=((c&0x0f)<<12)|((buf[i]&0x3f)<<6)|(buf[i+1]&0x3f);
+				i+=2;
+			} else if(c>=0xc0) {
+				c=((c&0x1f)<<6)|(buf[i]&0x3f);
+				i++;
+			} else if(unescape && c=='\\' && i<end) {
+				int e=buf[i++];
+				switch(e) {
+				case 'n': c='\n'; break;
+				case 't': c='\t'; break;
+				case 'r': c='\r'; break;
+				case 'b': c='\b'; break;
+				case 'f': c='\f'; break;
+				case 'u':
+					c=Integer.parseInt(new String(buf,i,4,StandardCharsets.US_ASCII),16);
+					i+=4;
+					break;
+				default: c=e; // quotes, slashes and backslashes
+				}
+			}
+			chars[n++]=(char)c;
+		}
+		return new String(chars,0,n);
+	}
+}
@@ -0,0 +1,216 @@
+package pb.protocols;
+
+import java.util.Arrays;
+
+import pb.protocols.event.EventProtocol;
+import pb.protocols.event.EventReply;
+import pb.protocols.event.EventRequest;
+import pb.protocols.event.IEventProtocolHandler;
+import pb.protocols.keepalive.IKeepAliveProtocolHandler;
+import pb.protocols.keepalive.KeepAliveProtocol;
+import pb.protocols.keepalive.KeepAliveReply;
+import pb.protocols.keepalive.KeepAliveRequest;
+import pb.protocols.session.ISessionProtocolHandler;
+import pb.protocols.session.SessionProtocol;
+import pb.protocols.session.SessionStartReply;
+import pb.protocols.session.SessionStartRequest;
+import pb.protocols.session.SessionStopReply;
+import pb.protocols.session.SessionStopRequest;
+
+/**
+ * Registry of all protocols and messages known to the system. Each protocol
+ * and each message is given a small integer id when it is registered, which
+ * endpoints use to index their protocols without any locking. Applications
+ * can add their own protocols by registering a factory for the protocol and
+ * for each of its messages, before any endpoint receives them, e.g.
+ * <pre>
+ * {@code
+ * ProtocolRegistry.registerProtocol(MyProtocol.protocolName,
+ *     (endpoint,manager)->new MyProtocol(endpoint,(IMyProtocolHandler)manager));
+ * ProtocolRegistry.registerMessage(MyProtocol.protocolName,MyRequest.name,MyRequest::new);
+ * ProtocolRegistry.registerMessage(MyProtocol.protocolName,MyReply.name,MyReply::new);
+ * }
+ * </pre>
+ * The session, keep alive and event protocols are registered by default.
+ * <br/>
+ * Registration is rare and synchronized, and replaces the tables rather than
+ * modifying them, so lookups never lock.
+ *
+ * @see {@link pb.managers.endpoint.Endpoint}
+ * @see {@link pb.protocols.Message#toMessage(Document)}
+ */
+public class ProtocolRegistry {
+
+	/**
+	 * Protocol names and factories, indexed by protocol id.
+	 */
+	private static volatile String[] protocolNames = new String[0];
+	private static volatile IProtocolFactory[] protocolFactories = new IProtocolFactory[0];
+
+	/**
+	 * Message names and factories, indexed by message id.
+	 */
+	private static volatile String[] messageNames = new String[0];
+	private static volatile IMessageFactory[] messageFactories = new IMessageFactory[0];
+
+	static {
+		registerProtocol(SessionProtocol.protocolName,
+				(endpoint,manager)->new SessionProtocol(endpoint,(ISessionProtocolHandler)manager));
+		registerMessage(SessionProtocol.protocolName,SessionStartRequest.name,SessionStartRequest::new);
+		registerMessage(SessionProtocol.protocolName,SessionStartReply.name,SessionStartReply::new);
+		registerMessage(SessionProtocol.protocolName,SessionStopRequest.name,SessionStopRequest::new);
+		registerMessage(SessionProtocol.protocolName,SessionStopReply.name,SessionStopReply::new);
+		registerProtocol(KeepAliveProtocol.protocolName,
+				(endpoint,manager)->new KeepAliveProtocol(endpoint,(IKeepAliveProtocolHandler)manager));
+		registerMessage(KeepAliveProtocol.protocolName,KeepAliveRequest.name,KeepAliveRequest::new);
+		registerMessage(KeepAliveProtocol.protocolName,KeepAliveReply.name,KeepAliveReply::new);
+		registerProtocol(EventProtocol.protocolName,
+				(endpoint,manager)->new EventProtocol(endpoint,(IEventProtocolHandler)manager));
+		registerMessage(EventProtocol.protocolName,EventRequest.name,EventRequest::new);
+		registerMessage(EventProtocol.protocolName,EventReply.name,EventReply::new);
+	}
+
+	/**
+	 * Register a protocol, or replace the factory of an already
+	 * registered protocol.
+	 * @param protocolName the unique name of the protocol
+	 * @param factory to create the protocol when the other side starts using it,
+	 * may be null if the protocol must always be started locally
+	 * @return the id of the protocol
+	 */
+	public static synchronized int registerProtocol(String protocolName, IProtocolFactory factory) {
+		int id=getProtocolId(protocolName);
+		if(id==-1) {
+			id=protocolNames.length;
+			String[] names=Arrays.copyOf(protocolNames,id+1);
+			names[id]=protocolName;
+			IProtocolFactory[] factories=Arrays.copyOf(protocolFactories,id+1);
+			factories[id]=factory;
+			// publish the factories first, so that any reader that sees the name sees its factory
+			protocolFactories=factories;
+			protocolNames=names;
+		} else {
+			IProtocolFactory[] factories=Arrays.copyOf(protocolFactories,protocolFactories.length);
+			factories[id]=factory;
+			protocolFactories=factories;
+		}
+		return id;
+	}
+
+	/**
+	 * Register a message so that it can be received.
+	 * @param protocolName the name of the protocol the message belongs to,
+	 * which is registered without a factory if it is not already registered
+	 * @param messageName the unique name of the message
+	 * @param factory to create the message from received parameters
+	 * @return the id of the message
+	 */
+	public static synchronized int registerMessage(String protocolName, String messageName,
+			IMessageFactory factory) {
+		if(getProtocolId(protocolName)==-1) registerProtocol(protocolName,null);
+		int id=getMessageId(messageName);
+		if(id==-1) id=messageNames.length;
+		String[] names=Arrays.copyOf(messageNames,Math.max(id+1,messageNames.length));
+		names[id]=messageName;
+		IMessageFactory[] factories=Arrays.copyOf(messageFactories,names.length);
+		factories[id]=factory;
+		messageFactories=factories;
+		messageNames=names;
+		return id;
+	}
+
+	/**
+	 * Get the id of a protocol, registering the name if it is not yet known,
+	 * so that any protocol can be handled by an endpoint.
+	 * @param protocolName
+	 * @return the id of the protocol
+	 */
+	public static int internProtocol(String protocolName) {
+		int id=getProtocolId(protocolName);
+		if(id!=-1) return id;
+		synchronized(ProtocolRegistry.class) {
+			id=getProtocolId(protocolName);
+			if(id!=-1) return id;
+			return registerProtocol(protocolName,null);
+		}
+	}
+
+	/**
+	 *
+	 * @param protocolName
+	 * @return the id of the protocol, or -1 if it is not registered
+	 */
+	public static int getProtocolId(String protocolName) {
+		String[] names=protocolNames;
+		for(int i=0;i<names.length;i++) {
+			if(names[i].equals(protocolName)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 *
+	 * @param id
+	 * @return the name of the protocol with the given id, or null
+	 */
+	public static String getProtocolName(int id) {
+		String[] names=protocolNames;
+		return id>=0 && id<names.length ? names[id] : null;
+	}
+
+	/**
+	 *
+	 * @param id
+	 * @return the factory of the protocol with the given id, or null if it has none
+	 */
+	public static IProtocolFactory getProtocolFactory(int id) {
+		IProtocolFactory[] factories=protocolFactories;
+		return id>=0 && id<factories.length ? factories[id] : null;
+	}
+
+	/**
+	 *
+	 * @return the number of registered protocols, which bounds the protocol ids
+	 */
+	public static int numProtocols() {
+		return protocolNames.length;
+	}
+
+	/**
+	 *
+	 * @param messageName
+	 * @return the id of the message, or -1 if it is not registered
+	 */
+	public static int getMessageId(String messageName) {
+		String[] names=messageNames;
+		for(int i=0;i<names.length;i++) {
+			if(names[i].equals(messageName)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 *
+	 * @param id
+	 * @return the name of the message with the given id, or null
+	 */
+	public static String getMessageName(int id) {
+		String[] names=messageNames;
+		return id>=0 && id<names.length ? names[id] : null;
+	}
+
+	/**
+	 * Create the registered message that matches the name in the doc.
+	 * Matching the name against the known names, rather than getting it as
+	 * a String, means that docs backed by a view need not be decoded.
+	 * @param doc the message parameters
+	 * @return the message
+	 * @throws InvalidMessage if no registered message matches the doc
+	 */
+	static Message createMessage(Document doc) throws InvalidMessage {
+		IMessageFactory[] factories=messageFactories;
+		int id=doc.indexOfString("name",messageNames);
+		if(id==-1 || id>=factories.length) throw new InvalidMessage();
+		return factories[id].create(doc);
+	}
+}
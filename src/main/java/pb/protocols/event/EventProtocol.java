@@ -20,6 +20,10 @@ public class EventProtocol extends Protocol implements IRequestReplyProtocol {
 	
 	public static final String protocolName = "EventProtocol";
 	
+	/**
+	 * Time to wait for a reply, or the most to wait when the timeout is
+	 * adaptive, see {@link pb.utils.RttEstimator#getTimeout(long)}.
+	 */
 	public int eventTimeout = 40000;
 	
 	public volatile boolean stopped=false;
@@ -78,7 +82,7 @@ public class EventProtocol extends Protocol implements IRequestReplyProtocol {
 		if(stopped)return;
 		endpoint.sendWithTimeout(msg, ()->{
 			if(!stopped) manager.endpointTimedOut(endpoint, this);
-		}, eventTimeout);
+		}, (int)endpoint.getRttEstimator().getTimeout(eventTimeout));
 		
 	}
 
@@ -1,12 +1,14 @@
 package pb.protocols.keepalive;
 
 import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import pb.managers.Manager;
 import pb.managers.endpoint.Endpoint;
 import pb.protocols.Message;
 import pb.protocols.Protocol;
+import pb.utils.RttEstimator;
 import pb.utils.Utils;
 import pb.protocols.IRequestReplyProtocol;
 
@@ -26,6 +28,19 @@ import pb.protocols.IRequestReplyProtocol;
  * should send the KeepAlive request immediately, whereas the server will wait
  * up to {@link #keepAliveTimeout} seconds before it assumes the client is dead. The protocol stops
  * when a timeout occurs.
+ * <br/>
+ * The client measures the round trip time of each request that gets a reply,
+ * ignoring ambiguous ones as in Karn's algorithm, and samples it into the
+ * endpoint's {@link pb.utils.RttEstimator}. With adaptive timeouts
+ * ({@link pb.utils.RttEstimator#adaptive}) the client sends a request every
+ * four RTOs, between {@link #minKeepAliveRequestInterval} and
+ * {@link #keepAliveRequestInterval}, and waits
+ * {@link pb.utils.RttEstimator#getTimeout(long)} for the reply. The server
+ * smooths the intervals between requests in the same way and times out after
+ * twice the smoothed interval plus four times its variation, between
+ * {@link #minKeepAliveTimeout} and {@link #keepAliveTimeout}. So a dead peer
+ * on a LAN is detected within seconds, while peers on slower links keep the
+ * longer timeouts they need.
  * 
  * @see {@link pb.managers.Manager}
  * @see {@link pb.managers.endpoint.Endpoint}
@@ -56,6 +71,16 @@ public class KeepAliveProtocol extends Protocol implements IRequestReplyProtocol
 	 */
 	private int keepAliveTimeout = 40000;
 	
+	/**
+	 * Smallest keep alive request interval, with adaptive timeouts
+	 */
+	private int minKeepAliveRequestInterval = 1000;
+	
+	/**
+	 * Smallest keep alive timeout on the server, with adaptive timeouts
+	 */
+	private int minKeepAliveTimeout = 2000;
+	
 	// Use of volatile is because the timer thread is different to the endpoint thread
 	// and they make use of the same flags/variables.
 	
@@ -69,16 +94,33 @@ public class KeepAliveProtocol extends Protocol implements IRequestReplyProtocol
 	 */
 	private volatile long timeRequestSeen;
 	
+	/**
+	 * {@link System#nanoTime()} when the request that is waiting for a reply
+	 * was sent, or 0 if there is none.
+	 */
+	private final AtomicLong requestSentNanos = new AtomicLong();
 	
 	/**
-	 * Set to true to avoid any further timeouts. 
+	 * Set when a request is sent before the previous one got a reply, in which
+	 * case the next reply can't be matched to a request.
 	 */
-	private volatile boolean stopped=false;
+	private volatile boolean ambiguous=false;
+	
+	/**
+	 * {@link System#nanoTime()} when a request was last seen, or 0.
+	 */
+	private volatile long requestSeenNanos;
+	
+	/**
+	 * Smoothed intervals between requests seen by the server.
+	 */
+	private final RttEstimator requestIntervals = new RttEstimator(0,0,0);
+	
 	
 	/**
-	 * Whether we should timeout or not.
+	 * Set to true to avoid any further timeouts. 
 	 */
-	private volatile boolean timeout=false; 
+	private volatile boolean stopped=false;
 	
 	/**
 	 * Initialise the protocol with an endopint and a manager.
@@ -119,7 +161,7 @@ public class KeepAliveProtocol extends Protocol implements IRequestReplyProtocol
 		// set a timeout callback
 		Utils.getInstance().setTimeout(()->{
 			checkClientTimeout();
-		}, keepAliveTimeout);
+		}, clientTimeout());
 	}
 	
 	/**
@@ -128,15 +170,16 @@ public class KeepAliveProtocol extends Protocol implements IRequestReplyProtocol
 	public void checkClientTimeout() {
 		if(stopped)return;
 		long now = Instant.now().toEpochMilli();
-		if(now-timeRequestSeen > keepAliveTimeout) {
+		long timeout = clientTimeout();
+		if(now-timeRequestSeen > timeout) {
 			// timeout :-(
 			manager.endpointTimedOut(endpoint,this);
 			stopProtocol();
 		} else {
-			// set a timeout callback
+			// set a timeout callback for when the client would time out
 			Utils.getInstance().setTimeout(()->{
 				checkClientTimeout();
-			}, keepAliveTimeout);
+			}, Math.max(1,timeRequestSeen+timeout-now));
 		}
 	}
 	
@@ -158,14 +201,15 @@ public class KeepAliveProtocol extends Protocol implements IRequestReplyProtocol
 	 */
 	public void sendAnotherRequest() {
 		if(stopped)return;
-		sendRequest(new KeepAliveRequest());
 		final long timeSent = Instant.now().toEpochMilli();
+		if(requestSentNanos.getAndSet(System.nanoTime())!=0) ambiguous=true;
+		sendRequest(new KeepAliveRequest());
 		Utils.getInstance().setTimeout(()->{
 			sendAnotherRequest();
-		}, keepAliveRequestInterval);
+		}, requestInterval());
 		Utils.getInstance().setTimeout(()->{
 			checkServerTimeout(timeSent);
-		}, keepAliveTimeout);
+		}, endpoint.getRttEstimator().getTimeout(keepAliveTimeout));
 	}
 	
 	/**
@@ -173,17 +217,36 @@ public class KeepAliveProtocol extends Protocol implements IRequestReplyProtocol
 	 */
 	public void checkServerTimeout(long timeSent) {
 		if(stopped)return;
-		if(timeout) {
+		if(timeReplySeen < timeSent) {
+			// no reply since the request was sent, we timed out :-(
 			manager.endpointTimedOut(endpoint,this);
 			stopProtocol();
-		} else {
-			if(timeReplySeen-timeSent > keepAliveTimeout) {
-				//we timed out :-(
-				timeout=true;
-				manager.endpointDisconnectedAbruptly(endpoint);				
-			} 
 		}
 	}
+	
+	/**
+	 * 
+	 * @return the time until the client sends the next request
+	 */
+	private long requestInterval() {
+		if(!RttEstimator.adaptive) return keepAliveRequestInterval;
+		RttEstimator rtt = endpoint.getRttEstimator();
+		// probe quickly until there is an estimate
+		if(!rtt.hasSamples()) return minKeepAliveRequestInterval;
+		return Math.max(minKeepAliveRequestInterval,
+				Math.min(keepAliveRequestInterval,4*rtt.getRto()));
+	}
+	
+	/**
+	 * 
+	 * @return the time the server waits for a request before timing out
+	 */
+	private long clientTimeout() {
+		if(!RttEstimator.adaptive || !requestIntervals.hasSamples()) return keepAliveTimeout;
+		long timeout=(long)Math.ceil(2*requestIntervals.getSmoothedRtt()
+				+4*requestIntervals.getRttVariation());
+		return Math.max(minKeepAliveTimeout,Math.min(keepAliveTimeout,timeout));
+	}
 
 	/**
 	 * Send a keep alive request.
@@ -196,7 +259,8 @@ public class KeepAliveProtocol extends Protocol implements IRequestReplyProtocol
 	}
 
 	/**
-	 * If we receive a keep alive reply, make a note of the time.
+	 * If we receive a keep alive reply, make a note of the time and
+	 * of the round trip time.
 	 * @param msg
 	 */
 	@Override
@@ -204,6 +268,9 @@ public class KeepAliveProtocol extends Protocol implements IRequestReplyProtocol
 		@SuppressWarnings("unused")
 		KeepAliveReply keepAliveResponse = (KeepAliveReply) msg;
 		timeReplySeen = Instant.now().toEpochMilli();
+		long sent = requestSentNanos.getAndSet(0);
+		if(sent!=0 && !ambiguous) endpoint.getRttEstimator().sample(System.nanoTime()-sent);
+		ambiguous=false;
 	}
 
 	/**
@@ -215,6 +282,9 @@ public class KeepAliveProtocol extends Protocol implements IRequestReplyProtocol
 		@SuppressWarnings("unused")
 		KeepAliveRequest keepAliveRequest = (KeepAliveRequest) msg;
 		timeRequestSeen = Instant.now().toEpochMilli();
+		long now = System.nanoTime();
+		if(requestSeenNanos!=0) requestIntervals.sample(now-requestSeenNanos);
+		requestSeenNanos = now;
 		sendReply(new KeepAliveReply());
 	}
 
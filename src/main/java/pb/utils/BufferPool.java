@@ -0,0 +1,101 @@
+package pb.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of reusable byte buffers, so that threads that come and go, like
+ * endpoints, don't need to allocate a new buffer every time. Buffers are
+ * handed out with {@link #acquire()} and must be given back with
+ * {@link #release(byte[])} when no longer in use. If the pool is empty a new
+ * buffer is allocated, and if the pool is full a released buffer is simply
+ * left for the garbage collector.
+ *
+ * @see {@link pb.managers.endpoint.Endpoint}
+ */
+public class BufferPool {
+
+	/**
+	 * Largest frame that can be written with writeUTF, i.e. the largest
+	 * message that can be received.
+	 */
+	public static final int maxFrameSize = 65535;
+
+	/**
+	 * The pool of frame buffers shared by all endpoints.
+	 */
+	private static final BufferPool framePool = new BufferPool(maxFrameSize, 64);
+
+	/**
+	 * Buffers that are available.
+	 */
+	private final ConcurrentLinkedQueue<byte[]> buffers;
+
+	/**
+	 * Number of buffers that are available, kept separately since
+	 * the queue size is not constant time.
+	 */
+	private final AtomicInteger available;
+
+	/**
+	 * Size of each buffer.
+	 */
+	private final int bufferSize;
+
+	/**
+	 * Maximum number of buffers to keep in the pool.
+	 */
+	private final int maxBuffers;
+
+	/**
+	 * Initialise an empty pool.
+	 * @param bufferSize size of each buffer in bytes
+	 * @param maxBuffers maximum number of unused buffers to keep
+	 */
+	public BufferPool(int bufferSize, int maxBuffers) {
+		this.bufferSize=bufferSize;
+		this.maxBuffers=maxBuffers;
+		buffers=new ConcurrentLinkedQueue<>();
+		available=new AtomicInteger();
+	}
+
+	/**
+	 *
+	 * @return the pool of buffers big enough to hold any message frame
+	 */
+	public static BufferPool getFramePool() {
+		return framePool;
+	}
+
+	/**
+	 * Take a buffer from the pool, allocating one if none are available.
+	 * @return a buffer of {@link #getBufferSize()} bytes
+	 */
+	public byte[] acquire() {
+		byte[] buffer=buffers.poll();
+		if(buffer==null) return new byte[bufferSize];
+		available.decrementAndGet();
+		return buffer;
+	}
+
+	/**
+	 * Give a buffer back to the pool. The caller must not use it again.
+	 * @param buffer
+	 */
+	public void release(byte[] buffer) {
+		if(buffer==null || buffer.length!=bufferSize) return;
+		if(available.incrementAndGet()>maxBuffers) {
+			available.decrementAndGet();
+			return;
+		}
+		buffers.offer(buffer);
+	}
+
+	/**
+	 *
+	 * @return the size of the buffers in this pool
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+}
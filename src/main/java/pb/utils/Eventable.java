@@ -50,7 +50,7 @@ public class Eventable extends Thread {
 			hit=true;
 		}
 		if(localEmit(eventName,args)) hit=true;
-		if(!hit)log.warning("no callbacks for event: "+eventName);
+		if(!hit && TraceBuffer.verbose)log.warning("no callbacks for event: "+eventName);
 		return hit;
 	}
 	
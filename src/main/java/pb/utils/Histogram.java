@@ -0,0 +1,137 @@
+package pb.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A compact log-linear histogram of non-negative long values, e.g. round trip
+ * times in microseconds. Values are counted in buckets: every power of two
+ * range is split into {@link #subBuckets} linear buckets, so a value is known
+ * to within 1/8th (12.5%) of itself over the whole range, using a fixed array
+ * of a few hundred counters. Recording is lock-free and allocation free.
+ * Values larger than {@link #maxValue} are counted as {@link #maxValue}.
+ *
+ * @see {@link pb.utils.RttEstimator}
+ */
+public class Histogram {
+
+	/**
+	 * Linear buckets per power of two, as a number of bits.
+	 */
+	private static final int subBucketBits = 3;
+	public static final int subBuckets = 1 << subBucketBits;
+
+	/**
+	 * Largest value that can be counted exactly, a bit over 19 hours in
+	 * microseconds.
+	 */
+	public static final long maxValue = (1L << 36) - 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(bucketIndex(maxValue)+1);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sum = new LongAdder();
+
+	private volatile long max;
+
+	/**
+	 * Count a value.
+	 * @param value, negative values are counted as 0
+	 */
+	public void record(long value) {
+		value=Math.max(0,Math.min(value,maxValue));
+		counts.incrementAndGet(bucketIndex(value));
+		count.increment();
+		sum.add(value);
+		if(value>max) {
+			synchronized(this) {
+				if(value>max) max=value;
+			}
+		}
+	}
+
+	/**
+	 * Add all of the values counted by another histogram to this one.
+	 * @param other
+	 */
+	public void add(Histogram other) {
+		for(int i=0;i<counts.length();i++) {
+			long c=other.counts.get(i);
+			if(c!=0) counts.addAndGet(i,c);
+		}
+		count.add(other.count.sum());
+		sum.add(other.sum.sum());
+		synchronized(this) {
+			if(other.max>max) max=other.max;
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of values counted
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 *
+	 * @return the largest value counted, or 0
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 *
+	 * @return the mean of the values counted, or 0
+	 */
+	public double getMean() {
+		long n=count.sum();
+		return n==0 ? 0 : (double)sum.sum()/n;
+	}
+
+	/**
+	 * The value that the given percentage of the values are less than or
+	 * equal to, to within the precision of the buckets. The upper end of the
+	 * bucket is returned, so the result is never an underestimate.
+	 * @param percentile between 0 and 100
+	 * @return the value at the percentile, or 0 if there are no values
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total=0;
+		for(int i=0;i<counts.length();i++) total+=counts.get(i);
+		if(total==0) return 0;
+		long rank=Math.max(1,(long)Math.ceil(total*Math.min(100,percentile)/100));
+		long seen=0;
+		for(int i=0;i<counts.length();i++) {
+			seen+=counts.get(i);
+			if(seen>=rank) return Math.min(highestValue(i),max);
+		}
+		return max;
+	}
+
+	/**
+	 * Values below {@link #subBuckets} have a bucket each, after that each
+	 * power of two has {@link #subBuckets} buckets.
+	 */
+	static int bucketIndex(long value) {
+		if(value<subBuckets) return (int)value;
+		int exponent=63-Long.numberOfLeadingZeros(value);
+		int subBucket=(int)(value>>>(exponent-subBucketBits)) & (subBuckets-1);
+		return ((exponent-subBucketBits+1)<<subBucketBits)+subBucket;
+	}
+
+	/**
+	 *
+	 * @return the largest value that is counted in the bucket
+	 */
+	static long highestValue(int index) {
+		if(index<subBuckets) return index;
+		int exponent=(index>>>subBucketBits)+subBucketBits-1;
+		long subBucket=index & (subBuckets-1);
+		long width=1L<<(exponent-subBucketBits);
+		return ((subBuckets+subBucket)<<(exponent-subBucketBits))+width-1;
+	}
+}
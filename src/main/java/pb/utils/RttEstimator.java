@@ -0,0 +1,127 @@
+package pb.utils;
+
+/**
+ * Estimates the round trip time to another endpoint from samples, in the
+ * style of TCP (RFC 6298): a smoothed round trip time (SRTT) and its mean
+ * deviation (RTTVAR) are updated with gains of 1/8 and 1/4, and the timeout
+ * is RTO = SRTT + 4*RTTVAR, clamped to a minimum and maximum. Until the
+ * first sample the timeout is the initial value. All samples are also
+ * counted in a {@link pb.utils.Histogram} of microseconds, so that
+ * percentiles can be reported.
+ * <br/>
+ * The system property {@code pb.timeouts.adaptive} turns on adaptive
+ * timeouts, where protocols use the estimate rather than fixed timeouts.
+ *
+ * @see {@link pb.protocols.keepalive.KeepAliveProtocol}
+ * @see {@link pb.protocols.event.EventProtocol}
+ * @see {@link pb.managers.endpoint.Endpoint#getRttEstimator()}
+ */
+public class RttEstimator {
+
+	/**
+	 * Whether protocols should derive their timeouts from the round trip
+	 * time rather than use fixed timeouts.
+	 */
+	public static final boolean adaptive = Boolean.getBoolean("pb.timeouts.adaptive");
+
+	private static final double alpha = 1.0/8;
+	private static final double beta = 1.0/4;
+
+	/**
+	 * Times are in milliseconds.
+	 */
+	private final long initialRto;
+	private final long minRto;
+	private final long maxRto;
+
+	private double srtt;
+	private double rttvar;
+	private boolean sampled=false;
+
+	private final Histogram histogram = new Histogram();
+
+	/**
+	 * Initialise the estimator.
+	 * @param initialRto timeout to use before there are any samples, in milliseconds
+	 * @param minRto smallest timeout, in milliseconds
+	 * @param maxRto largest timeout, in milliseconds
+	 */
+	public RttEstimator(long initialRto, long minRto, long maxRto) {
+		this.initialRto=initialRto;
+		this.minRto=minRto;
+		this.maxRto=maxRto;
+	}
+
+	/**
+	 * Add a round trip time sample.
+	 * @param nanos round trip time in nanoseconds
+	 */
+	public void sample(long nanos) {
+		histogram.record(nanos/1000);
+		double rtt=nanos/1e6;
+		synchronized(this) {
+			if(!sampled) {
+				srtt=rtt;
+				rttvar=rtt/2;
+				sampled=true;
+			} else {
+				rttvar=(1-beta)*rttvar+beta*Math.abs(srtt-rtt);
+				srtt=(1-alpha)*srtt+alpha*rtt;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return whether there has been at least one sample
+	 */
+	public synchronized boolean hasSamples() {
+		return sampled;
+	}
+
+	/**
+	 *
+	 * @return the smoothed round trip time in milliseconds, or 0 if there are no samples
+	 */
+	public synchronized double getSmoothedRtt() {
+		return srtt;
+	}
+
+	/**
+	 *
+	 * @return the mean deviation of the round trip time in milliseconds
+	 */
+	public synchronized double getRttVariation() {
+		return rttvar;
+	}
+
+	/**
+	 *
+	 * @return the timeout in milliseconds
+	 */
+	public synchronized long getRto() {
+		if(!sampled) return initialRto;
+		long rto=(long)Math.ceil(srtt+4*rttvar);
+		return Math.max(minRto,Math.min(maxRto,rto));
+	}
+
+	/**
+	 * The time to wait for a reply before deciding that the other endpoint is
+	 * dead. With adaptive timeouts this is twice the RTO, since unlike TCP
+	 * there is no retransmission, but never more than the fixed timeout.
+	 * @param fixed the timeout to use when not adaptive, in milliseconds
+	 * @return the timeout in milliseconds
+	 */
+	public long getTimeout(long fixed) {
+		if(!adaptive) return fixed;
+		return Math.min(fixed,2*getRto());
+	}
+
+	/**
+	 *
+	 * @return all samples, in microseconds
+	 */
+	public Histogram getHistogram() {
+		return histogram;
+	}
+}
@@ -0,0 +1,140 @@
+package pb.utils;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import pb.protocols.ProtocolRegistry;
+
+/**
+ * A fixed size ring buffer of binary trace records, one per message sent or
+ * received, so that recent traffic can be inspected without logging every
+ * message. Each record holds a timestamp, the direction, the protocol and
+ * message ids from the {@link pb.protocols.ProtocolRegistry} and the size of
+ * the message in bytes. Recording is lock-free and allocation free; when the
+ * buffer is full the oldest records are overwritten. Use {@link #dump(int)}
+ * to format the records, e.g. when something goes wrong.
+ * <br/>
+ * The system properties {@code pb.trace.size} (records per buffer, rounded up
+ * to a power of two) and {@code pb.trace.verbose} (also log every message at
+ * info level, as was done before tracing) configure tracing.
+ *
+ * @see {@link pb.managers.endpoint.Endpoint#dumpTrace(int)}
+ */
+public class TraceBuffer {
+
+	/**
+	 * Whether every message should also be logged, which is expensive.
+	 */
+	public static final boolean verbose = Boolean.getBoolean("pb.trace.verbose");
+
+	/**
+	 * Default number of records to keep.
+	 */
+	public static final int defaultCapacity = Integer.getInteger("pb.trace.size", 1024);
+
+	/**
+	 * Message directions.
+	 */
+	public static final int sent = 0;
+	public static final int received = 1;
+
+	/**
+	 * Each record is three longs: a sequence stamp, the timestamp and the
+	 * packed direction, protocol id, message id and size.
+	 */
+	private static final int recordLength = 3;
+
+	private final AtomicLongArray records;
+
+	/**
+	 * Sequence number of the next record to be written.
+	 */
+	private final AtomicLong next;
+
+	private final int mask;
+
+	/**
+	 * The timestamps are from {@link System#nanoTime()}, which is converted
+	 * to wall clock time when dumping using these.
+	 */
+	private final long baseNanos;
+	private final long baseMillis;
+
+	/**
+	 * Initialise a buffer of the default capacity.
+	 */
+	public TraceBuffer() {
+		this(defaultCapacity);
+	}
+
+	/**
+	 * Initialise a buffer.
+	 * @param capacity the number of records to keep, rounded up to a power of two
+	 */
+	public TraceBuffer(int capacity) {
+		int size=Integer.highestOneBit(Math.max(1,capacity-1))<<1;
+		records=new AtomicLongArray(size*recordLength);
+		next=new AtomicLong();
+		mask=size-1;
+		baseNanos=System.nanoTime();
+		baseMillis=System.currentTimeMillis();
+	}
+
+	/**
+	 * Record a message.
+	 * @param direction {@link #sent} or {@link #received}
+	 * @param protocolId
+	 * @param messageId
+	 * @param size in bytes
+	 */
+	public void record(int direction, int protocolId, int messageId, int size) {
+		long seq=next.getAndIncrement();
+		int slot=(int)(seq & mask)*recordLength;
+		// mark the slot as being written, so a concurrent dump skips it
+		records.set(slot,0);
+		records.lazySet(slot+1,System.nanoTime());
+		records.lazySet(slot+2,((long)direction<<56) | ((long)(protocolId & 0xff)<<48)
+				| ((long)(messageId & 0xffff)<<32) | (size & 0xffffffffL));
+		records.set(slot,seq+1);
+	}
+
+	/**
+	 *
+	 * @return the total number of records written, including overwritten ones
+	 */
+	public long count() {
+		return next.get();
+	}
+
+	/**
+	 * Format the most recent records, oldest first.
+	 * @param max the maximum number of records to format
+	 * @return one line per record
+	 */
+	public String dump(int max) {
+		long end=next.get();
+		long start=Math.max(0,Math.max(end-(mask+1),end-max));
+		SimpleDateFormat format=new SimpleDateFormat("HH:mm:ss.SSS");
+		StringBuilder sb=new StringBuilder();
+		for(long seq=start;seq<end;seq++) {
+			int slot=(int)(seq & mask)*recordLength;
+			long stamp=records.get(slot);
+			long time=records.get(slot+1);
+			long packed=records.get(slot+2);
+			// skip records that were being written, or were overwritten
+			if(stamp!=seq+1 || records.get(slot)!=stamp) continue;
+			int direction=(int)(packed>>>56);
+			int protocolId=(int)((packed>>>48) & 0xff);
+			int messageId=(int)((packed>>>32) & 0xffff);
+			int size=(int)packed;
+			sb.append(format.format(new Date(baseMillis+(time-baseNanos)/1000000)))
+				.append(direction==sent?" sent ":" received ")
+				.append(ProtocolRegistry.getProtocolName(protocolId)).append("/")
+				.append(ProtocolRegistry.getMessageName(messageId)).append(" ")
+				.append(size).append(" bytes\n");
+		}
+		return sb.toString();
+	}
+}